@@ -0,0 +1,102 @@
+package org.jax.gotools.mgsa.benchmark;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import org.jax.gotools.mgsa.MgsaCalculation;
+import org.monarchinitiative.phenol.analysis.AssociationContainer;
+import org.monarchinitiative.phenol.analysis.DirectAndIndirectTermAnnotations;
+import org.monarchinitiative.phenol.analysis.ItemAssociations;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Benchmark of a complete MGSA calculation (burn-in, sampling and the calculation of the
+ * marginals) on a synthetic GO-sized term to gene matrix.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CalculationBenchmark {
+
+    @Param({"15000"})
+    public int numTerms;
+
+    @Param({"18000"})
+    public int numGenes;
+
+    @Param({"1000000"})
+    public int mcmcSteps;
+
+    @Param({"1"})
+    public int numChains;
+
+    private int[][] termLinks;
+    private int[] studyIds;
+
+    @Setup(org.openjdk.jmh.annotations.Level.Trial)
+    public void setUp() {
+        /* The progress of the calculation is not of interest here */
+        Logger.getLogger("org.jax.gotools.mgsa").setLevel(Level.WARNING);
+        SyntheticAnnotations annotations = new SyntheticAnnotations(numTerms, numGenes, 1);
+        termLinks = annotations.getTermLinks();
+        studyIds = SyntheticAnnotations.observedIds(annotations.simulateObservations(5, 0.01, 0.2, 2));
+    }
+
+    @Benchmark
+    public double[] calculate() {
+        MgsaCalculation mgsa = new MgsaCalculation(null, new EmptyAssociationContainer(), mcmcSteps);
+        mgsa.setSeed(4);
+        mgsa.setNumChains(numChains);
+        return mgsa.calculate(termLinks, studyIds, numGenes);
+    }
+
+    /**
+     * The matrix based calculation does not use the associations.
+     */
+    private static class EmptyAssociationContainer implements AssociationContainer {
+        @Override
+        public int getOntologyTermCount() {
+            return 0;
+        }
+
+        @Override
+        public Multimap<TermId, TermId> getTermToItemMultimap() {
+            return ArrayListMultimap.create();
+        }
+
+        @Override
+        public ItemAssociations get(TermId tid) {
+            return null;
+        }
+
+        @Override
+        public Map<TermId, DirectAndIndirectTermAnnotations> getAssociationMap(Set<TermId> genes) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Set<TermId> getAllAnnotatedGenes() {
+            return Collections.emptySet();
+        }
+    }
+}
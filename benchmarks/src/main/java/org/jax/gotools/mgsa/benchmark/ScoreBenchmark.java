@@ -0,0 +1,114 @@
+package org.jax.gotools.mgsa.benchmark;
+
+import org.jax.gotools.mgsa.FixedAlphaBetaScore;
+import org.jax.gotools.mgsa.TermGeneIndex;
+import org.jax.gotools.mgsa.XoroshiroRandom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the operations in the inner loop of the MCMC sampler on a synthetic GO-sized
+ * term to gene matrix. The score starts with a number of active terms that is typical for the
+ * sampled states.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScoreBenchmark {
+
+    @Param({"15000"})
+    public int numTerms;
+
+    @Param({"18000"})
+    public int numGenes;
+
+    /** Number of active terms in the initial state */
+    @Param({"10"})
+    public int numActiveTerms;
+
+    private FixedAlphaBetaScore score;
+    private XoroshiroRandom rnd;
+    /** Terms that are switched by the switchState benchmark */
+    private int[] switchTerms;
+    private int nextSwitch;
+    private double currentScore;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticAnnotations annotations = new SyntheticAnnotations(numTerms, numGenes, 1);
+        boolean[] observed = annotations.simulateObservations(5, 0.01, 0.2, 2);
+        TermGeneIndex index = TermGeneIndex.fromTermLinks(annotations.getTermLinks(), numGenes);
+        rnd = new XoroshiroRandom(3);
+        score = new FixedAlphaBetaScore(rnd, index, observed);
+        for (int i = 0; i < numActiveTerms; i++)
+            score.switchState(rnd.nextInt(numTerms));
+        currentScore = score.getScore();
+
+        switchTerms = new int[4096];
+        for (int i = 0; i < switchTerms.length; i++)
+            switchTerms[i] = rnd.nextInt(numTerms);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetRecords() {
+        score.resetRecords();
+    }
+
+    /**
+     * Switches a term on and off again (or off and on, if it was active).
+     */
+    @Benchmark
+    public int switchState() {
+        int term = switchTerms[nextSwitch++ & (switchTerms.length - 1)];
+        score.switchState(term);
+        score.switchState(term);
+        return score.getNumActiveTerms();
+    }
+
+    /**
+     * A rejected step that calculates the score from scratch.
+     */
+    @Benchmark
+    public double proposeScoreUndo() {
+        score.proposeNewState(rnd.nextLong());
+        double s = score.getScore();
+        score.undoProposal();
+        return s;
+    }
+
+    /**
+     * A rejected step that calculates the score incrementally, as done by the sampler.
+     */
+    @Benchmark
+    public double proposeNewScoreUndo() {
+        score.proposeNewState(rnd.nextLong());
+        double s = score.getNewScore(currentScore);
+        score.undoProposal();
+        return s;
+    }
+
+    @Benchmark
+    public double getScore() {
+        return score.getScore();
+    }
+
+    @Benchmark
+    public void record() {
+        score.record();
+    }
+}
@@ -0,0 +1,138 @@
+package org.jax.gotools.mgsa.benchmark;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Generates term to gene links that resemble the propagated Gene Ontology annotations of a
+ * genome. The sizes of the terms follow a truncated power law (many terms with a handful of genes,
+ * a few terms with thousands of genes, like the terms close to the root), and the genes are chosen
+ * with log-normally distributed weights, so that some genes are annotated to many more terms than
+ * others. With the default sizes (15,000 terms and 18,000 genes) this gives about 700,000
+ * annotations, i.e., about 40 terms per gene on average.
+ */
+public final class SyntheticAnnotations {
+
+    /** Exponent of the power law of the term sizes */
+    private static final double SIZE_EXPONENT = 0.7;
+
+    private final int numGenes;
+    private final int[][] termLinks;
+
+    /**
+     * @param numTerms number of terms
+     * @param numGenes number of genes
+     * @param seed     seed of the generator
+     */
+    public SyntheticAnnotations(int numTerms, int numGenes, long seed) {
+        this.numGenes = numGenes;
+        SplittableRandom rnd = new SplittableRandom(seed);
+
+        /* Cumulative gene weights for the weighted selection */
+        double[] cumulative = new double[numGenes];
+        double sum = 0;
+        for (int g = 0; g < numGenes; g++) {
+            sum += Math.exp(gaussian(rnd));
+            cumulative[g] = sum;
+        }
+
+        termLinks = new int[numTerms][];
+        boolean[] chosen = new boolean[numGenes];
+        int[] order = new int[numGenes];
+        for (int g = 0; g < numGenes; g++)
+            order[g] = g;
+
+        for (int t = 0; t < numTerms; t++) {
+            double u = 1.0 - rnd.nextDouble();
+            int size = (int) Math.min(numGenes, Math.ceil(Math.pow(u, -1 / SIZE_EXPONENT)));
+            int[] genes = new int[size];
+            if (size > numGenes / 4) {
+                /* Large terms: a uniform random subset by a partial shuffle */
+                for (int i = 0; i < size; i++) {
+                    int j = i + rnd.nextInt(numGenes - i);
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    genes[i] = order[i];
+                }
+            } else {
+                /* Small terms: weighted selection without replacement */
+                int n = 0;
+                while (n < size) {
+                    int g = Arrays.binarySearch(cumulative, rnd.nextDouble() * sum);
+                    if (g < 0) g = -g - 1;
+                    if (g >= numGenes) g = numGenes - 1;
+                    if (!chosen[g]) {
+                        chosen[g] = true;
+                        genes[n++] = g;
+                    }
+                }
+                for (int g : genes)
+                    chosen[g] = false;
+            }
+            Arrays.sort(genes);
+            termLinks[t] = genes;
+        }
+    }
+
+    private static double gaussian(SplittableRandom rnd) {
+        /* Box-Muller */
+        double u1 = 1.0 - rnd.nextDouble();
+        double u2 = rnd.nextDouble();
+        return Math.sqrt(-2 * Math.log(u1)) * Math.cos(2 * Math.PI * u2);
+    }
+
+    public int getNumGenes() {
+        return numGenes;
+    }
+
+    /**
+     * @return the genes of each term (sorted).
+     */
+    public int[][] getTermLinks() {
+        return termLinks;
+    }
+
+    /**
+     * Simulates a study set by the MGSA model: the genes of a few active terms are observed with
+     * probability 1 - beta, all other genes with probability alpha.
+     *
+     * @param numActiveTerms number of active terms, chosen among the terms with 10 to 200 genes
+     * @param alpha          false positive rate
+     * @param beta           false negative rate
+     * @param seed           seed of the generator
+     * @return the observed state of each gene
+     */
+    public boolean[] simulateObservations(int numActiveTerms, double alpha, double beta, long seed) {
+        SplittableRandom rnd = new SplittableRandom(seed);
+        boolean[] hidden = new boolean[numGenes];
+        int active = 0;
+        for (int attempt = 0; active < numActiveTerms && attempt < 100 * termLinks.length; attempt++) {
+            int[] genes = termLinks[rnd.nextInt(termLinks.length)];
+            if (genes.length < 10 || genes.length > 200)
+                continue;
+            for (int g : genes)
+                hidden[g] = true;
+            active++;
+        }
+        boolean[] observed = new boolean[numGenes];
+        for (int g = 0; g < numGenes; g++)
+            observed[g] = rnd.nextDouble() < (hidden[g] ? 1 - beta : alpha);
+        return observed;
+    }
+
+    /**
+     * @param observed the observed state of each gene
+     * @return the indices of the observed genes.
+     */
+    public static int[] observedIds(boolean[] observed) {
+        int n = 0;
+        for (boolean o : observed)
+            if (o) n++;
+        int[] ids = new int[n];
+        n = 0;
+        for (int g = 0; g < observed.length; g++)
+            if (observed[g]) ids[n++] = g;
+        return ids;
+    }
+}
@@ -1,6 +1,9 @@
 package org.jax.gotools.mgsa;
 
-import java.util.Random;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Score of a setting in which alpha and beta are not known.
@@ -11,6 +14,9 @@ public class FixedAlphaBetaScore extends MgsaScore
 {
     private boolean integrateParams = false;
 
+    /** Shared table for the integrated-parameter score, set if the parameters are integrated */
+    private LogGammaTable logGammaTable;
+
     private int proposalSwitch;
     private int proposalT1;
     private int proposalT2;
@@ -27,7 +33,9 @@ public class FixedAlphaBetaScore extends MgsaScore
     protected int totalBeta[] = new int[BETA.length];
     private boolean doBetaMCMC = true;
 
-    protected final int [] EXPECTED_NUMBER_OF_TERMS = new int[]{1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,20};
+    /** The values of the expected number of terms that are sampled */
+    static final int [] EXPECTED_NUMBER_OF_TERMS_GRID = new int[]{1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,20};
+    protected final int [] EXPECTED_NUMBER_OF_TERMS = EXPECTED_NUMBER_OF_TERMS_GRID.clone();
     private int expIdx = 0;
     private int oldExpIdx;
     protected int totalExp[] = new int[EXPECTED_NUMBER_OF_TERMS.length];
@@ -36,6 +44,41 @@ public class FixedAlphaBetaScore extends MgsaScore
     protected double alpha = Double.NaN;
     protected double beta = Double.NaN;
 
+    /* Logarithms of the grid values, indexed like ALPHA, BETA and EXPECTED_NUMBER_OF_TERMS */
+    private double [] logAlphaGrid;
+    private double [] log1mAlphaGrid;
+    private double [] logBetaGrid;
+    private double [] log1mBetaGrid;
+    private double [] logPGrid;
+    private double [] log1mPGrid;
+
+    /* Logarithms of the fixed parameters (if set) */
+    private double fixedLogAlpha;
+    private double fixedLog1mAlpha;
+    private double fixedLogBeta;
+    private double fixedLog1mBeta;
+    private double fixedLogP;
+    private double fixedLog1mP;
+
+    /* Multiplicities of merged terms, null if every term has multiplicity one */
+    private int [] multiplicityClass;
+    /** The distinct multiplicities, indexed by multiplicity class */
+    private int [] multiplicityValues;
+    private int [] activeTermsOfMultiplicityClass;
+    /** logOddsGrid[expIdx][c] is the prior log odds of a term of multiplicity class c */
+    private double [][] logOddsGrid;
+    private double [] fixedLogOdds;
+
+    /** Number of terms to which p refers, i.e., the sum of the multiplicities */
+    private int priorNumTerms;
+
+    /* Counts before the current proposal, used to calculate the score difference */
+    private int oldN00;
+    private int oldN01;
+    private int oldN10;
+    private int oldN11;
+    private int oldNumInactiveTerms;
+
     /** True negative count */
     private int n00;
 
@@ -63,6 +106,8 @@ public class FixedAlphaBetaScore extends MgsaScore
     {
         this.alpha = alpha;
         doAlphaMCMC = Double.isNaN(alpha);
+        fixedLogAlpha = Math.log(alpha);
+        fixedLog1mAlpha = Math.log(1 - alpha);
     }
 
     /**
@@ -74,50 +119,174 @@ public class FixedAlphaBetaScore extends MgsaScore
     {
         this.beta = beta;
         doBetaMCMC = Double.isNaN(beta);
+        fixedLogBeta = Math.log(beta);
+        fixedLog1mBeta = Math.log(1 - beta);
     }
 
     @Override
     public void setExpectedNumberOfTerms(double terms)
     {
         super.setExpectedNumberOfTerms(terms);
+        p = terms / priorNumTerms;
         doExpMCMC = Double.isNaN(terms);
+        updateFixedP();
     }
 
-    public void setMaxAlpha(double maxAlpha)
+    private void updateFixedP()
     {
-        int span;
+        fixedLogP = Math.log(p);
+        fixedLog1mP = Math.log(1 - p);
+        if (multiplicityClass != null)
+            fixedLogOdds = logOdds(p, multiplicityValues);
+    }
 
-        if (Double.isNaN(maxAlpha)) maxAlpha = 1;
+    /**
+     * Sets the number of terms that each term stands for, e.g., after terms with identical genes
+     * have been merged (see {@link TermPruning}). The prior then refers to the original terms:
+     * p is the expected number of terms divided by the sum of the multiplicities, an inactive term
+     * of multiplicity m contributes m log(1-p) and an active one log(1-(1-p)^m), i.e., the
+     * probability that at least one of its members is active. If all multiplicities are one, the
+     * score is the same as without this call. The integrated-parameter score ignores the
+     * multiplicities.
+     *
+     * @param multiplicities the multiplicity of each term
+     */
+    void setTermMultiplicities(int [] multiplicities)
+    {
+        if (multiplicities.length != numTerms)
+            throw new IllegalArgumentException("Expected " + numTerms + " multiplicities but got " + multiplicities.length);
 
-        if (maxAlpha < 0.01) maxAlpha = 0.01;
-        if (maxAlpha > 0.99999999) span = 20;
-        else span = 19;
+        double expected = p * priorNumTerms;
+        priorNumTerms = 0;
+        int maxMultiplicity = 0;
+        for (int m : multiplicities)
+        {
+            if (m < 1) throw new IllegalArgumentException("Multiplicities must be positive but got " + m);
+            priorNumTerms += m;
+            maxMultiplicity = Math.max(maxMultiplicity, m);
+        }
 
-        ALPHA = new double[20];
-        totalAlpha = new int[20];
+        if (maxMultiplicity == 1)
+        {
+            multiplicityClass = null;
+            multiplicityValues = null;
+            activeTermsOfMultiplicityClass = null;
+            logOddsGrid = null;
+        } else
+        {
+            /* Terms of the same multiplicity share their prior log odds */
+            int [] classOfMultiplicity = new int[maxMultiplicity + 1];
+            Arrays.fill(classOfMultiplicity, -1);
+            int numClasses = 0;
+            for (int m : multiplicities)
+                if (classOfMultiplicity[m] == -1) classOfMultiplicity[m] = numClasses++;
+            multiplicityValues = new int[numClasses];
+            for (int m = 1; m <= maxMultiplicity; m++)
+                if (classOfMultiplicity[m] != -1) multiplicityValues[classOfMultiplicity[m]] = m;
+            multiplicityClass = new int[numTerms];
+            activeTermsOfMultiplicityClass = new int[numClasses];
+            for (int t=0;t<numTerms;t++)
+            {
+                multiplicityClass[t] = classOfMultiplicity[multiplicities[t]];
+                if (isActive(t)) activeTermsOfMultiplicityClass[multiplicityClass[t]]++;
+            }
+        }
 
-        ALPHA[0] = 0.0000001;
-        for (int i=1;i<20;i++)
-            ALPHA[i] = i * maxAlpha / span;
+        updatePGrid();
+        if (!Double.isNaN(p))
+        {
+            p = expected / priorNumTerms;
+            updateFixedP();
+        }
     }
 
-    public void setMaxBeta(double maxBeta)
+    /**
+     * Calculates the logarithms of the grid values of p, and the prior log odds of each multiplicity class.
+     */
+    private void updatePGrid()
+    {
+        double [] pValues = new double[EXPECTED_NUMBER_OF_TERMS.length];
+        for (int i=0;i<pValues.length;i++)
+            pValues[i] = (double)EXPECTED_NUMBER_OF_TERMS[i] / priorNumTerms;
+        logPGrid = logs(pValues);
+        log1mPGrid = logsOfComplement(pValues);
+        if (multiplicityClass != null)
+        {
+            logOddsGrid = new double[pValues.length][];
+            for (int i=0;i<pValues.length;i++)
+                logOddsGrid[i] = logOdds(pValues[i], multiplicityValues);
+        }
+    }
+
+    /**
+     * @return log(1-(1-p)^m) - m log(1-p) for each of the given multiplicities m.
+     */
+    private static double [] logOdds(double p, int [] multiplicities)
+    {
+        double [] l = new double[multiplicities.length];
+        for (int i=0;i<multiplicities.length;i++)
+        {
+            double mLog1mP = multiplicities[i] * Math.log1p(-p);
+            l[i] = Math.log(-Math.expm1(mLog1mP)) - mLog1mP;
+        }
+        return l;
+    }
+
+    /**
+     * Returns the grid of values that are sampled for alpha or beta.
+     *
+     * @param max the largest value (NaN for no restriction)
+     * @return twenty values between 0 and max
+     */
+    static double [] parameterGrid(double max)
     {
         int span;
 
-        if (Double.isNaN(maxBeta)) maxBeta = 1;
+        if (Double.isNaN(max)) max = 1;
 
-        if (maxBeta < 0.01) maxBeta = 0.01;
-        if (maxBeta > 0.99999999) span = 20;
+        if (max < 0.01) max = 0.01;
+        if (max > 0.99999999) span = 20;
         else span = 19;
 
-        BETA = new double[20];
-        totalBeta = new int[20];
-
-        BETA[0] = 0.0000001;
+        double [] grid = new double[20];
+        grid[0] = 0.0000001;
         for (int i=1;i<20;i++)
-            BETA[i] = i * maxBeta / span;
+            grid[i] = i * max / span;
+        return grid;
+    }
+
+    public void setMaxAlpha(double maxAlpha)
+    {
+        ALPHA = parameterGrid(maxAlpha);
+        totalAlpha = new int[ALPHA.length];
+
+        logAlphaGrid = logs(ALPHA);
+        log1mAlphaGrid = logsOfComplement(ALPHA);
+    }
+
+    public void setMaxBeta(double maxBeta)
+    {
+        BETA = parameterGrid(maxBeta);
+        totalBeta = new int[BETA.length];
+
+        logBetaGrid = logs(BETA);
+        log1mBetaGrid = logsOfComplement(BETA);
+    }
+
+    private static double [] logs(double [] values)
+    {
+        double [] l = new double[values.length];
+        for (int i=0;i<values.length;i++)
+            l[i] = Math.log(values[i]);
+        return l;
+    }
 
+    private static double [] logsOfComplement(double [] values)
+    {
+        double [] l = new double[values.length];
+        for (int i=0;i<values.length;i++)
+            l[i] = Math.log(1 - values[i]);
+        return l;
     }
 
     /**
@@ -129,65 +298,71 @@ public class FixedAlphaBetaScore extends MgsaScore
     public void setIntegrateParams(boolean integrateParams)
     {
         this.integrateParams = integrateParams;
+        if (integrateParams)
+            logGammaTable = LogGammaTable.forMaximum(Math.max(index.getNumGenes(), numTerms) + 2);
+    }
+
+    public FixedAlphaBetaScore(RandomSource rnd, int [][] termLinks, boolean [] observedGenes)
+    {
+        this(rnd, TermGeneIndex.fromTermLinks(termLinks, observedGenes.length), observedGenes);
     }
 
-    public FixedAlphaBetaScore(Random rnd,  int [][] termLinks, boolean [] observedGenes)
+    public FixedAlphaBetaScore(RandomSource rnd, TermGeneIndex index, boolean [] observedGenes)
     {
-        super(rnd, termLinks, observedGenes);
+        super(rnd, index, observedGenes);
 
         setMaxAlpha(1.);
         setMaxBeta(1.);
 
+        priorNumTerms = numTerms;
+        updatePGrid();
+
         /* At this state, all terms are inactive, hence all observed genes are false positive */
-        for (int i=0; i < observedGenes.length; i++)
-        {
-            if (observedGenes[i])
-                n10++;
-        }
+        n10 = getNumObservedGenes();
+        n00 = index.getNumGenes() - n10;
+    }
 
-        n00 = observedGenes.length - n10;
+    @Override
+    public void hiddenGenesActivated(int observed, int unobserved)
+    {
+        /* Activated hidden genes that are also observed are no longer false
+         * positives, but true positives. Activated hidden genes that are not
+         * observed are no longer true negatives, but false negatives.
+         */
+        n11 += observed;
+        n10 -= observed;
+        n01 += unobserved;
+        n00 -= unobserved;
     }
 
     @Override
-    public void hiddenGeneActivated(int gid)
+    public void hiddenGenesDeactivated(int observed, int unobserved)
     {
-        if (observedGenes[gid])
-        {
-            /* If a hidden gene is activated that is also observed,
-             * it is no longer a false positive, but a true positive.
-             */
-            n11++;
-            n10--;
-        } else
-        {
-            /* If a hidden gene is activated that is not observed,
-             * the observation is no longer a true negative, but a
-             * a false negative.
-             */
-            n01++;
-            n00--;
-        }
+        /* Deactivated hidden genes that are observed are no longer true
+         * positives, but false positives. Deactivated hidden genes that are
+         * not observed are no longer false negatives, but true negatives.
+         */
+        n11 -= observed;
+        n10 += observed;
+        n01 -= unobserved;
+        n00 += unobserved;
     }
 
     @Override
-    public void hiddenGeneDeactivated(int gid)
+    public void observedGeneChanged(boolean observed, boolean hidden)
     {
-        if (observedGenes[gid])
+        /* A hidden gene moves between the true positives and the false negatives,
+         * any other gene between the false positives and the true negatives.
+         */
+        int delta = observed ? 1 : -1;
+        if (hidden)
         {
-            /* If a hidden gene is deactivated that is also observed as true
-             * then the observation is no longer a true positive, but a false
-             * positive.
-             */
-            n11--;
-            n10++;
+            n11 += delta;
+            n01 -= delta;
         } else
         {
-            /* If a hidden gene is deactivated that is also observed as false
-             * then the observation is no longer a false negative but a true
-             * negative.
-             */
-            n01--;
-            n00++;
+            n10 += delta;
+            n00 -= delta;
         }
     }
 
@@ -196,6 +371,12 @@ public class FixedAlphaBetaScore extends MgsaScore
     {
         long oldPossibilities = getNeighborhoodSize();
 
+        oldN00 = n00;
+        oldN01 = n01;
+        oldN10 = n10;
+        oldN11 = n11;
+        oldNumInactiveTerms = numInactiveTerms;
+
         proposalSwitch = -1;
         proposalT1 = -1;
         proposalT2 = -1;
@@ -264,6 +445,18 @@ public class FixedAlphaBetaScore extends MgsaScore
         }
     }
 
+    /**
+     * @return the ordinal of the {@link MgsaSamplerMetrics.Move} of the last proposal.
+     */
+    int getProposedMove()
+    {
+        if (proposalSwitch != -1) return MgsaSamplerMetrics.Move.TOGGLE.ordinal();
+        if (proposalT1 != -1) return MgsaSamplerMetrics.Move.EXCHANGE.ordinal();
+        if (oldAlphaIdx != -1) return MgsaSamplerMetrics.Move.ALPHA.ordinal();
+        if (oldBetaIdx != -1) return MgsaSamplerMetrics.Move.BETA.ordinal();
+        return MgsaSamplerMetrics.Move.EXPECTED_NUMBER_OF_TERMS.ordinal();
+    }
+
     public final double getAlpha()
     {
         double alpha;
@@ -290,76 +483,167 @@ public class FixedAlphaBetaScore extends MgsaScore
     {
         double p;
         if (Double.isNaN(this.p))
-            p = (double)EXPECTED_NUMBER_OF_TERMS[expIdx] / numTerms;
+            p = (double)EXPECTED_NUMBER_OF_TERMS[expIdx] / priorNumTerms;
         else p = this.p;
 
         return p;
     }
 
-    private final double [] lGamma = new double[20000];
-
-    private double logGamma(int a)
+    @Override
+    public double getScore()
     {
-        if (a == 1 || a == 2) return 0.0;
+        double newScore2;
 
-        if (a < lGamma.length)
+        if (!integrateParams)
         {
-            double lg = lGamma[a];
-            if (lg == 0.0)
+            newScore2 = currentLogAlpha() * n10 + currentLog1mAlpha() * n00 + currentLog1mBeta() * n11 + currentLogBeta() * n01;
+
+            if (usePrior)
             {
-                lg = Gamma.lgamma(a);
-                lGamma[a] = lg;
+                if (multiplicityClass == null)
+                    newScore2 += currentLogP() * (numTerms - numInactiveTerms) + currentLog1mP() * numInactiveTerms;
+                else
+                    newScore2 += multiplicityPrior(expIdx);
             }
-            return lg;
+        } else
+        {
+            newScore2 = integratedScore(n00, n01, n10, n11, numInactiveTerms);
         }
-        return Gamma.lgamma(a);
+
+        return newScore2;
     }
 
-    private double logBeta(int a, int b)
+    /**
+     * Returns the score with alpha, beta and p integrated out, each with a Beta(1,1) prior.
+     */
+    private double integratedScore(int n00, int n01, int n10, int n11, int numInactive)
     {
-        return logGamma(a) + logGamma(b) - logGamma(a+b);
+        /* Prior */
+        int alpha1 = 1; /* Psedocounts, false positive */
+        int alpha2 = 1; /* Psedocounts, true negative */
+        int beta1 = 1; /* Pseudocounts, false negative */
+        int beta2 = 1; /* Pseudocounts, true positives */
+        int p1 = 1; /* Pseudocounts, on */
+        int p2 = 1; /* Pseudocounts, off */
+
+        int m1 = numTerms - numInactive;
+        int m0 = numInactive;
+
+        double s1 = logGammaTable.logBeta(alpha1 + n10, alpha2 + n00);
+        double s2 = logGammaTable.logBeta(beta1 + n01, beta2 + n11);
+        /* FIXME: At least for p we should also try a four parameter beta distribution */
+        double s3 = logGammaTable.logBeta(p1 + m1, p2 + m0);
+        return s1 + s2 + s3;
     }
 
-    @Override
-    public double getScore()
+    /**
+     * Returns the score of the proposed state. The score is obtained by adding the change caused
+     * by the proposal, which is calculated from the count deltas and the precomputed logarithms
+     * (or, if the parameters are integrated out, the shared log gamma table), to the score before
+     * the proposal.
+     *
+     * @param oldScore the score before the last call to {@link #proposeNewState(long)}
+     * @return the score of the proposed state
+     */
+    public double getNewScore(double oldScore)
     {
-        double newScore2;
-
-        if (!integrateParams)
+        if (integrateParams)
         {
-            double alpha;
-            double beta;
-            double p;
-
-            alpha = getAlpha();
-            beta = getBeta();
-            p = getP();
+            /* The integrated score does not depend on the parameter grids */
+            if (oldAlphaIdx != -1 || oldBetaIdx != -1 || oldExpIdx != -1)
+                return oldScore;
+            return oldScore + integratedScore(n00, n01, n10, n11, numInactiveTerms) -
+                    integratedScore(oldN00, oldN01, oldN10, oldN11, oldNumInactiveTerms);
+        }
 
-            newScore2 = Math.log(alpha) * n10 + Math.log(1-alpha)*n00 + Math.log(1-beta)*n11 + Math.log(beta)*n01;
+        double delta;
 
-            if (usePrior)
-                newScore2 += Math.log(p)*(numTerms - numInactiveTerms) + Math.log(1-p)*numInactiveTerms;
+        if (oldAlphaIdx != -1)
+        {
+            delta = (logAlphaGrid[alphaIdx] - logAlphaGrid[oldAlphaIdx]) * n10 + (log1mAlphaGrid[alphaIdx] - log1mAlphaGrid[oldAlphaIdx]) * n00;
+        } else if (oldBetaIdx != -1)
+        {
+            delta = (log1mBetaGrid[betaIdx] - log1mBetaGrid[oldBetaIdx]) * n11 + (logBetaGrid[betaIdx] - logBetaGrid[oldBetaIdx]) * n01;
+        } else if (oldExpIdx != -1)
+        {
+            if (!usePrior)
+                return oldScore;
+            if (multiplicityClass != null)
+                return oldScore + multiplicityPrior(expIdx) - multiplicityPrior(oldExpIdx);
+            delta = (logPGrid[expIdx] - logPGrid[oldExpIdx]) * (numTerms - numInactiveTerms) + (log1mPGrid[expIdx] - log1mPGrid[oldExpIdx]) * numInactiveTerms;
         } else
         {
-            /* Prior */
-            int alpha1 = 1; /* Psedocounts, false positive */
-            int alpha2 = 1; /* Psedocounts, true negative */
-            int beta1 = 1; /* Pseudocounts, false negative */
-            int beta2 = 1; /* Pseudocounts, true positives */
-            int p1 = 1; /* Pseudocounts, on */
-            int p2 = 1; /* Pseudocounts, off */
-
-            int m1 = numTerms - numInactiveTerms;
-            int m0 = numInactiveTerms;
-
-            double s1 = logBeta(alpha1 + n10, alpha2 + n00);
-            double s2 = logBeta(beta1 + n01, beta2 + n11);
-            /* FIXME: At least for p we should also try a four parameter beta distribution */
-            double s3 = logBeta(p1 + m1, p2 + m0);
-            newScore2 = s1 + s2 + s3;
+            delta = currentLogAlpha() * (n10 - oldN10) + currentLog1mAlpha() * (n00 - oldN00) +
+                    currentLog1mBeta() * (n11 - oldN11) + currentLogBeta() * (n01 - oldN01);
+            if (usePrior && multiplicityClass != null)
+            {
+                if (proposalSwitch != -1)
+                    delta += isActive(proposalSwitch) ? currentLogOdds(proposalSwitch) : -currentLogOdds(proposalSwitch);
+                else
+                    delta += currentLogOdds(proposalT2) - currentLogOdds(proposalT1);
+            } else if (usePrior)
+            {
+                int deltaInactive = numInactiveTerms - oldNumInactiveTerms;
+                delta += (currentLog1mP() - currentLogP()) * deltaInactive;
+            }
         }
+        return oldScore + delta;
+    }
 
-        return newScore2;
+    private double currentLogAlpha()
+    {
+        return Double.isNaN(alpha) ? logAlphaGrid[alphaIdx] : fixedLogAlpha;
+    }
+
+    private double currentLog1mAlpha()
+    {
+        return Double.isNaN(alpha) ? log1mAlphaGrid[alphaIdx] : fixedLog1mAlpha;
+    }
+
+    private double currentLogBeta()
+    {
+        return Double.isNaN(beta) ? logBetaGrid[betaIdx] : fixedLogBeta;
+    }
+
+    private double currentLog1mBeta()
+    {
+        return Double.isNaN(beta) ? log1mBetaGrid[betaIdx] : fixedLog1mBeta;
+    }
+
+    private double currentLogP()
+    {
+        return Double.isNaN(p) ? logPGrid[expIdx] : fixedLogP;
+    }
+
+    private double currentLog1mP()
+    {
+        return Double.isNaN(p) ? log1mPGrid[expIdx] : fixedLog1mP;
+    }
+
+    private double currentLogOdds(int term)
+    {
+        int c = multiplicityClass[term];
+        return Double.isNaN(p) ? logOddsGrid[expIdx][c] : fixedLogOdds[c];
+    }
+
+    /**
+     * @return the log prior of the active terms of different multiplicities for the given index of p.
+     */
+    private double multiplicityPrior(int expIdx)
+    {
+        double [] odds = Double.isNaN(p) ? logOddsGrid[expIdx] : fixedLogOdds;
+        double prior = (Double.isNaN(p) ? log1mPGrid[expIdx] : fixedLog1mP) * priorNumTerms;
+        for (int c=0;c<odds.length;c++)
+            prior += odds[c] * activeTermsOfMultiplicityClass[c];
+        return prior;
+    }
+
+    @Override
+    public void switchState(int toSwitch)
+    {
+        super.switchState(toSwitch);
+        if (multiplicityClass != null)
+            activeTermsOfMultiplicityClass[multiplicityClass[toSwitch]] += isActive(toSwitch) ? 1 : -1;
     }
 
     public void undoProposal()
@@ -372,6 +656,27 @@ public class FixedAlphaBetaScore extends MgsaScore
         else throw new RuntimeException("Wanted to undo a proposal that wasn't proposed");
     }
 
+    /**
+     * Exchanges the sampled state, i.e., the active terms and the indices of the sampled
+     * parameters, with another score over the same terms and genes. The records of both
+     * scores are not exchanged.
+     *
+     * @param other the score whose state is exchanged with the state of this score
+     */
+    void exchangeState(FixedAlphaBetaScore other)
+    {
+        int [] mine = getActiveTerms();
+        int [] others = other.getActiveTerms();
+        for (int t : mine) switchState(t);
+        for (int t : others) switchState(t);
+        for (int t : others) other.switchState(t);
+        for (int t : mine) other.switchState(t);
+
+        int idx = alphaIdx; alphaIdx = other.alphaIdx; other.alphaIdx = idx;
+        idx = betaIdx; betaIdx = other.betaIdx; other.betaIdx = idx;
+        idx = expIdx; expIdx = other.expIdx; other.expIdx = idx;
+    }
+
     public long getNeighborhoodSize()
     {
         long size = numTerms + (numTerms - numInactiveTerms) * numInactiveTerms;
@@ -394,6 +699,97 @@ public class FixedAlphaBetaScore extends MgsaScore
         totalT += (numTerms - numInactiveTerms);
     }
 
+    @Override
+    public void resetRecords()
+    {
+        super.resetRecords();
+
+        totalN00 = 0;
+        totalN01 = 0;
+        totalN10 = 0;
+        totalN11 = 0;
+        totalT = 0;
+        Arrays.fill(totalAlpha, 0);
+        Arrays.fill(totalBeta, 0);
+        Arrays.fill(totalExp, 0);
+    }
+
+    @Override
+    void writeState(DataOutput out) throws IOException
+    {
+        super.writeState(out);
+        out.writeInt(n00);
+        out.writeInt(n01);
+        out.writeInt(n10);
+        out.writeInt(n11);
+        out.writeInt(alphaIdx);
+        out.writeInt(betaIdx);
+        out.writeInt(expIdx);
+        out.writeLong(totalN00);
+        out.writeLong(totalN01);
+        out.writeLong(totalN10);
+        out.writeLong(totalN11);
+        out.writeLong(totalT);
+        MgsaCheckpoint.writeInts(out, totalAlpha);
+        MgsaCheckpoint.writeInts(out, totalBeta);
+        MgsaCheckpoint.writeInts(out, totalExp);
+    }
+
+    @Override
+    void readState(DataInput in) throws IOException
+    {
+        super.readState(in);
+        /* The counts follow from the restored partition; they only differ if the observations differ */
+        if (in.readInt() != n00 | in.readInt() != n01 | in.readInt() != n10 | in.readInt() != n11)
+            throw new IOException("Checkpoint does not match the observed genes");
+        alphaIdx = in.readInt();
+        betaIdx = in.readInt();
+        expIdx = in.readInt();
+        if (alphaIdx < 0 || alphaIdx >= ALPHA.length || betaIdx < 0 || betaIdx >= BETA.length ||
+                expIdx < 0 || expIdx >= EXPECTED_NUMBER_OF_TERMS.length)
+            throw new IOException("Invalid parameter indices in checkpoint");
+        totalN00 = in.readLong();
+        totalN01 = in.readLong();
+        totalN10 = in.readLong();
+        totalN11 = in.readLong();
+        totalT = in.readLong();
+        MgsaCheckpoint.readInts(in, totalAlpha);
+        MgsaCheckpoint.readInts(in, totalBeta);
+        MgsaCheckpoint.readInts(in, totalExp);
+    }
+
+    /**
+     * @return the current number of true negatives.
+     */
+    int getN00()
+    {
+        return n00;
+    }
+
+    /**
+     * @return the current number of false negatives.
+     */
+    int getN01()
+    {
+        return n01;
+    }
+
+    /**
+     * @return the current number of false positives.
+     */
+    int getN10()
+    {
+        return n10;
+    }
+
+    /**
+     * @return the current number of true positives.
+     */
+    int getN11()
+    {
+        return n11;
+    }
+
     public double getAvgN00()
     {
         return (double)totalN00 / numRecords;
@@ -0,0 +1,136 @@
+package org.jax.gotools.mgsa;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Partition of the genes of a {@link TermGeneIndex} into classes of genes that are annotated to
+ * exactly the same terms. In the MGSA model, the hidden state of all genes of a class is the same,
+ * so a score only needs to count how many genes of each class are observed and may switch terms
+ * by visiting their classes instead of their genes. For Gene Ontology annotations, many genes share
+ * their (propagated) terms with other genes, which shrinks the term to gene links considerably.
+ * <p>
+ * Instances are immutable; the classes are numbered in the order of their first gene.
+ */
+final class GeneClasses {
+
+    private final int[] classOfGene;
+    private final int[] classSizes;
+    /** The classes of each term in CSR layout; its "genes" are the classes */
+    private final TermGeneIndex index;
+
+    GeneClasses(TermGeneIndex genes) {
+        int numGenes = genes.getNumGenes();
+        int[] geneOffsets = genes.getGeneOffsets();
+        int[] geneTerms = genes.getGeneTerms();
+
+        classOfGene = classify(numGenes, geneOffsets, geneTerms);
+        int numClasses = 0;
+        int[] sizes = new int[numGenes];
+        for (int g = 0; g < numGenes; g++) {
+            sizes[classOfGene[g]]++;
+            numClasses = Math.max(numClasses, classOfGene[g] + 1);
+        }
+        classSizes = Arrays.copyOf(sizes, numClasses);
+
+        /* All genes of a class are annotated to the same terms, so each class is added once per term */
+        int numTerms = genes.getNumTerms();
+        int[] termOffsets = genes.getTermOffsets();
+        int[] termGenes = genes.getTermGenes();
+        int[] offsets = new int[numTerms + 1];
+        int[] classes = new int[termGenes.length];
+        int[] lastTerm = new int[numClasses];
+        Arrays.fill(lastTerm, -1);
+        int n = 0;
+        for (int t = 0; t < numTerms; t++) {
+            for (int i = termOffsets[t]; i < termOffsets[t + 1]; i++) {
+                int k = classOfGene[termGenes[i]];
+                if (lastTerm[k] != t) {
+                    lastTerm[k] = t;
+                    classes[n++] = k;
+                }
+            }
+            offsets[t + 1] = n;
+        }
+        index = new TermGeneIndex(numClasses, offsets, Arrays.copyOf(classes, n));
+    }
+
+    /**
+     * Groups the rows of a CSR structure with identical (sorted) members.
+     *
+     * @param numRows number of rows
+     * @param offsets offsets of the rows into members
+     * @param members concatenated members of the rows, sorted within each row
+     * @return the class of each row; the classes are numbered in the order of their first row
+     */
+    static int[] classify(int numRows, int[] offsets, int[] members) {
+        Map<TermSet, Integer> ids = new HashMap<>();
+        int[] classes = new int[numRows];
+        for (int r = 0; r < numRows; r++) {
+            Integer k = ids.putIfAbsent(new TermSet(members, offsets[r], offsets[r + 1]), ids.size());
+            classes[r] = k != null ? k : ids.size() - 1;
+        }
+        return classes;
+    }
+
+    int getNumClasses() {
+        return classSizes.length;
+    }
+
+    /**
+     * @param gene index of a gene
+     * @return the class of the gene.
+     */
+    int getClassOfGene(int gene) {
+        return classOfGene[gene];
+    }
+
+    /**
+     * @param k index of a class
+     * @return the number of genes of the class.
+     */
+    int getClassSize(int k) {
+        return classSizes[k];
+    }
+
+    /**
+     * @return the classes of each term, i.e., an index whose genes are the classes.
+     */
+    TermGeneIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * The sorted terms of a gene (or members of a row) as a hash key, without copying them.
+     */
+    private static final class TermSet {
+        private final int[] terms;
+        private final int from;
+        private final int to;
+        private final int hash;
+
+        TermSet(int[] terms, int from, int to) {
+            this.terms = terms;
+            this.from = from;
+            this.to = to;
+            int h = 1;
+            for (int i = from; i < to; i++)
+                h = 31 * h + terms[i];
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TermSet))
+                return false;
+            TermSet other = (TermSet) o;
+            return hash == other.hash && Arrays.equals(terms, from, to, other.terms, other.from, other.to);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.jax.gotools.mgsa;
+
+import java.util.Random;
+
+/**
+ * Adapter for {@link java.util.Random}, which reproduces the random streams of earlier versions.
+ * Note that Random is internally synchronized and therefore slower than {@link XoroshiroRandom}.
+ */
+public final class JdkRandomSource implements RandomSource {
+
+    private final Random rnd;
+
+    public JdkRandomSource(Random rnd) {
+        this.rnd = rnd;
+    }
+
+    public JdkRandomSource(long seed) {
+        this(new Random(seed));
+    }
+
+    @Override
+    public long nextLong() {
+        return rnd.nextLong();
+    }
+
+    @Override
+    public double nextDouble() {
+        return rnd.nextDouble();
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        return rnd.nextBoolean();
+    }
+
+    @Override
+    public int nextInt(int bound) {
+        return rnd.nextInt(bound);
+    }
+
+    /**
+     * The new source is seeded with the next long of this source.
+     */
+    @Override
+    public JdkRandomSource split() {
+        return new JdkRandomSource(rnd.nextLong());
+    }
+}
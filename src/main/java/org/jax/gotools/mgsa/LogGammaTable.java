@@ -0,0 +1,55 @@
+package org.jax.gotools.mgsa;
+
+/**
+ * Immutable table of the logarithm of the gamma function for the integers 0..max, which is used
+ * to evaluate the log beta function of the integrated-parameter score with three array lookups.
+ * The table is built eagerly and shared by all scores of the process; it is replaced by a larger
+ * one only if a score needs larger arguments than any score before.
+ */
+final class LogGammaTable {
+
+    private static volatile LogGammaTable shared;
+
+    /** lGamma[a] = log(Gamma(a)) */
+    private final double[] lGamma;
+
+    private LogGammaTable(int max) {
+        lGamma = new double[max + 1];
+        lGamma[0] = Double.POSITIVE_INFINITY;
+        for (int a = 3; a <= max; a++)
+            lGamma[a] = Gamma.lgamma(a);
+    }
+
+    /**
+     * @param max the largest argument that will be looked up
+     * @return a shared table that covers the integers up to at least max.
+     */
+    static LogGammaTable forMaximum(int max) {
+        LogGammaTable table = shared;
+        if (table == null || table.lGamma.length <= max) {
+            synchronized (LogGammaTable.class) {
+                table = shared;
+                if (table == null || table.lGamma.length <= max) {
+                    table = new LogGammaTable(Math.max(max, 2));
+                    shared = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @param a a positive integer not larger than the maximum of the table
+     * @return log(Gamma(a))
+     */
+    double logGamma(int a) {
+        return lGamma[a];
+    }
+
+    /**
+     * @return log(B(a, b)) for positive integers a and b whose sum is not larger than the maximum of the table.
+     */
+    double logBeta(int a, int b) {
+        return lGamma[a] + lGamma[b] - lGamma[a + b];
+    }
+}
@@ -0,0 +1,60 @@
+package org.jax.gotools.mgsa;
+
+/**
+ * Search for the maximum a posteriori (MAP) state of a {@link FixedAlphaBetaScore}, i.e., the
+ * term combination and parameters with the highest score. A chain is run through a geometric
+ * schedule of decreasing temperatures (simulated annealing), so that it explores freely at the
+ * start and settles in a high mode at the end. The final state is then improved greedily by
+ * toggling single terms as long as this increases the score. The best state that has been seen
+ * during the annealing is kept by the chain (see {@link MgsaChain#getMaxScore()}).
+ */
+final class MgsaAnnealer {
+
+    private MgsaAnnealer() {
+    }
+
+    /**
+     * Runs the steps of the chain, lowering its temperature geometrically in the given number of stages.
+     *
+     * @param chain            a chain that has not been run yet
+     * @param steps            the number of steps of the chain
+     * @param startTemperature temperature of the first stage
+     * @param endTemperature   temperature of the last stage
+     * @param numStages        number of stages
+     */
+    static void anneal(MgsaChain chain, int steps, double startTemperature, double endTemperature, int numStages) {
+        for (int s = 0; s < numStages; s++) {
+            double fraction = numStages == 1 ? 1 : (double) s / (numStages - 1);
+            chain.setTemperature(startTemperature * Math.pow(endTemperature / startTemperature, fraction));
+            chain.setPauseStep((int) ((long) steps * (s + 1) / numStages));
+            chain.run();
+        }
+        chain.setTemperature(1);
+    }
+
+    /**
+     * Toggles single terms of the current state as long as one of them increases the score (first
+     * improvement, in term order). The parameters are not changed.
+     *
+     * @param score the score whose state is improved
+     * @return the score of the final state
+     */
+    static double polish(FixedAlphaBetaScore score) {
+        double best = score.getScore();
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int t = 0; t < score.numTerms; t++) {
+                score.switchState(t);
+                double s = score.getScore();
+                if (s > best) {
+                    best = s;
+                    improved = true;
+                } else {
+                    score.switchState(t);
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,205 @@
+package org.jax.gotools.mgsa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Scores candidate term sets without a sampler state. Unlike {@link MgsaScore#score(int[])},
+ * which switches the terms of the current state off and the candidates on and back again, the
+ * counts n00, n01, n10, n11 are obtained by a single pass over the genes of the candidates, which
+ * marks the covered genes in scratch arrays. The scorer itself is immutable; each worker uses
+ * its own {@link Scratch}, so that many candidate sets can be scored in parallel against the
+ * same index.
+ * <p>
+ * The score of a set is the same as the one of {@link FixedAlphaBetaScore#getScore()} with fixed
+ * alpha, beta and p:
+ * <pre>
+ *   n10 log(alpha) + n00 log(1-alpha) + n11 log(1-beta) + n01 log(beta) + k log(p) + (numTerms-k) log(1-p)
+ * </pre>
+ * where k is the number of distinct terms of the set (the prior terms are omitted if the prior is not used).
+ * If the terms of the index stand for several merged terms, the prior takes their multiplicities into
+ * account like {@link FixedAlphaBetaScore#setTermMultiplicities(int[])}.
+ */
+final class MgsaBatchScorer {
+
+    private final TermGeneIndex index;
+    private final boolean[] observed;
+    private final int numObserved;
+    /** Multiplicity of each term, null if every term has multiplicity one */
+    private final int[] multiplicities;
+    /** Number of terms to which p refers, i.e., the sum of the multiplicities */
+    private final int priorNumTerms;
+
+    /**
+     * Marks of the covered genes and of the terms of one worker. Instead of clearing them for
+     * every set, a new generation is started.
+     */
+    static final class Scratch {
+        private final int[] geneMarks;
+        private final int[] termMarks;
+        private int generation;
+
+        Scratch(TermGeneIndex index) {
+            geneMarks = new int[index.getNumGenes()];
+            termMarks = new int[index.getNumTerms()];
+        }
+
+        private int nextGeneration() {
+            if (++generation == Integer.MAX_VALUE) {
+                Arrays.fill(geneMarks, 0);
+                Arrays.fill(termMarks, 0);
+                generation = 1;
+            }
+            return generation;
+        }
+    }
+
+    /**
+     * @param index    the term to gene associations
+     * @param observed the observed state of each gene
+     */
+    MgsaBatchScorer(TermGeneIndex index, boolean[] observed) {
+        this(index, observed, null);
+    }
+
+    /**
+     * @param index          the term to gene associations
+     * @param observed       the observed state of each gene
+     * @param multiplicities the number of terms that each term of the index stands for, e.g., after
+     *                       terms with identical genes have been merged (null if each term stands for itself)
+     */
+    MgsaBatchScorer(TermGeneIndex index, boolean[] observed, int[] multiplicities) {
+        if (observed.length != index.getNumGenes())
+            throw new IllegalArgumentException("Expected " + index.getNumGenes() + " observations but got " + observed.length);
+        this.index = index;
+        this.observed = observed;
+        int n = 0;
+        for (boolean o : observed)
+            if (o) n++;
+        this.numObserved = n;
+        if (multiplicities == null) {
+            this.multiplicities = null;
+            this.priorNumTerms = index.getNumTerms();
+        } else {
+            if (multiplicities.length != index.getNumTerms())
+                throw new IllegalArgumentException("Expected " + index.getNumTerms() + " multiplicities but got " + multiplicities.length);
+            int sum = 0;
+            for (int m : multiplicities) {
+                if (m < 1) throw new IllegalArgumentException("Multiplicities must be positive but got " + m);
+                sum += m;
+            }
+            this.multiplicities = multiplicities.clone();
+            this.priorNumTerms = sum;
+        }
+    }
+
+    Scratch newScratch() {
+        return new Scratch(index);
+    }
+
+    /**
+     * @param terms    the active terms (duplicates are counted once)
+     * @param alpha    false positive rate
+     * @param beta     false negative rate
+     * @param p        prior probability of a term to be active, NaN to omit the prior
+     * @param scratch  scratch state of the calling worker
+     * @return the score of the set.
+     */
+    double score(int[] terms, double alpha, double beta, double p, Scratch scratch) {
+        int[] termOffsets = index.getTermOffsets();
+        int[] termGenes = index.getTermGenes();
+        int mark = scratch.nextGeneration();
+        int n11 = 0;
+        int n01 = 0;
+        int k = 0;
+        /* Sum of the prior log odds of the terms with a multiplicity above one */
+        double mergedLogOdds = 0;
+        double log1mP = Math.log1p(-p);
+        for (int t : terms) {
+            if (scratch.termMarks[t] == mark)
+                continue;
+            scratch.termMarks[t] = mark;
+            if (multiplicities != null && multiplicities[t] > 1) {
+                /* an active merged term has at least one active member */
+                double mLog1mP = multiplicities[t] * log1mP;
+                mergedLogOdds += Math.log(-Math.expm1(mLog1mP)) - mLog1mP;
+            } else {
+                k++;
+            }
+            for (int i = termOffsets[t]; i < termOffsets[t + 1]; i++) {
+                int g = termGenes[i];
+                if (scratch.geneMarks[g] != mark) {
+                    scratch.geneMarks[g] = mark;
+                    if (observed[g]) n11++;
+                    else n01++;
+                }
+            }
+        }
+        int n10 = numObserved - n11;
+        int n00 = index.getNumGenes() - numObserved - n01;
+        double score = Math.log(alpha) * n10 + Math.log1p(-alpha) * n00 + Math.log1p(-beta) * n11 + Math.log(beta) * n01;
+        if (!Double.isNaN(p))
+            score += (Math.log(p) - log1mP) * k + mergedLogOdds + log1mP * priorNumTerms;
+        return score;
+    }
+
+    /**
+     * Scores the sets on numThreads workers, each of which scores a contiguous part of the sets.
+     *
+     * @param termSets   the candidate sets
+     * @param alpha      false positive rate
+     * @param beta       false negative rate
+     * @param p          prior probability of a term to be active, NaN to omit the prior
+     * @param numThreads number of worker threads
+     * @return the score of each set
+     */
+    double[] scoreAll(List<int[]> termSets, double alpha, double beta, double p, int numThreads) {
+        if (numThreads < 1)
+            throw new IllegalArgumentException("Number of threads must be at least 1 but was " + numThreads);
+        for (int[] terms : termSets) {
+            for (int t : terms) {
+                if (t < 0 || t >= index.getNumTerms())
+                    throw new IllegalArgumentException("Invalid term index " + t);
+            }
+        }
+        double[] scores = new double[termSets.size()];
+        int numWorkers = Math.max(1, Math.min(numThreads, termSets.size()));
+        if (numWorkers == 1) {
+            Scratch scratch = newScratch();
+            for (int i = 0; i < scores.length; i++)
+                scores[i] = score(termSets.get(i), alpha, beta, p, scratch);
+            return scores;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>(numWorkers);
+            for (int w = 0; w < numWorkers; w++) {
+                int from = (int) ((long) scores.length * w / numWorkers);
+                int to = (int) ((long) scores.length * (w + 1) / numWorkers);
+                tasks.add(() -> {
+                    Scratch scratch = newScratch();
+                    for (int i = from; i < to; i++)
+                        scores[i] = score(termSets.get(i), alpha, beta, p, scratch);
+                    return null;
+                });
+            }
+            for (Future<Void> future : executor.invokeAll(tasks))
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("MGSA batch scoring was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("MGSA batch scoring failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return scores;
+    }
+}
@@ -1,7 +1,6 @@
 package org.jax.gotools.mgsa;
 
 import org.monarchinitiative.phenol.analysis.AssociationContainer;
-import org.monarchinitiative.phenol.analysis.DirectAndIndirectTermAnnotations;
 import org.monarchinitiative.phenol.analysis.StudySet;
 import org.monarchinitiative.phenol.base.PhenolException;
 import org.monarchinitiative.phenol.ontology.data.Ontology;
@@ -9,8 +8,23 @@ import org.monarchinitiative.phenol.ontology.data.TermId;
 
 
 import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
 import java.util.logging.Logger;
 
 
@@ -24,6 +38,16 @@ import java.util.logging.Logger;
 public class MgsaCalculation {
     private static Logger logger = Logger.getLogger(MgsaCalculation.class.getName());
 
+    /**
+     * The method by which the posterior of the term activations is calculated.
+     */
+    public enum Engine {
+        /** Metropolis-Hastings sampling of the exact posterior */
+        MCMC,
+        /** Deterministic mean-field variational approximation of the posterior, see {@link MgsaVariationalBayes} */
+        VARIATIONAL_BAYES
+    }
+
     private long seed = 0;
 
     private boolean usePrior = true;
@@ -34,7 +58,26 @@ public class MgsaCalculation {
     private DoubleParam beta = new DoubleParam(MgsaParam.Type.MCMC);
     private IntegerParam expectedNumberOfTerms = new IntegerParam(MgsaParam.Type.MCMC);
 
-    private boolean takePopulationAsReference = false;
+    /** Whether all terms of the population are sampled, or only those annotated to the study set. */
+    private boolean takePopulationAsReference = true;
+    /** Terms with fewer population genes are pruned. */
+    private int minTermSize = 1;
+    /** Terms with more population genes are pruned. */
+    private int maxTermSize = Integer.MAX_VALUE;
+    /** Whether terms with identical genes are merged into one state variable. */
+    private boolean mergeIdenticalTerms = true;
+    /** Whether the connected components of the terms are sampled by chains of their own. */
+    private boolean decomposeComponents = false;
+    /** Steps of all component chains between two draws of the shared parameters. */
+    private final int componentRoundSteps = 1000;
+    /** Temperatures and number of temperature stages of the simulated annealing of the MAP search. */
+    private final double annealingStartTemperature = 10;
+    private final double annealingEndTemperature = 0.01;
+    private final int annealingStages = 100;
+    /** Number of MCMC steps with which an updated study set is re-equilibrated; 0 uses a tenth of mcmcSteps. */
+    private int incrementalSteps = 0;
+    /** Marginal that is reported for pruned terms. */
+    private static final double PRUNED_TERM_MARGINAL = 0.0;
     //private ICalculationProgress calculationProgress;
 
     private boolean randomStart = false;
@@ -42,16 +85,43 @@ public class MgsaCalculation {
     private final int mcmcSteps;
     private final int burnin = 20000;
     private int updateReportTime = 1000; /* Update report time in ms */
-
-    private AssociationContainer goAssociations;
-
-    private TermToItemMatrix termToItemMatrix;
+    /** Creates the random source of a calculation from the seed. */
+    private LongFunction<RandomSource> randomSourceFactory = XoroshiroRandom::new;
+    /** Number of independent MCMC chains that are run in parallel. */
+    private int numChains = 1;
+    /** Number of MCMC steps of the intermediate EM iterations; 0 uses mcmcSteps. */
+    private int emStepsPerIteration = 0;
+    /** Maximal change of the EM parameters between two iterations for convergence; NaN runs all iterations. */
+    private double emTolerance = Double.NaN;
+    /** Tolerance of the running marginals for adaptive runs; NaN runs a fixed number of steps. */
+    private double convergenceTolerance = Double.NaN;
+    /** File to which the state of a running calculation is written periodically, or null. */
+    private Path checkpointFile = null;
+    /** Number of MCMC steps between two checkpoints. */
+    private int checkpointInterval = 0;
+    /** Number of temperatures of the replica exchange ladder of each chain; 1 switches tempering off. */
+    private int numTemperatures = 1;
+    /** Temperature of the hottest replica. */
+    private double maxTemperature = 1;
+    /** Number of MCMC steps between two rounds of replica exchanges. */
+    private int swapInterval = 100;
+    /** Method by which the marginals are calculated. */
+    private Engine engine = Engine.MCMC;
+    /** Maximal number of sweeps of the variational engine. */
+    private final int vbMaxIterations = 1000;
+    /** Maximal change of an activation probability at which the variational engine has converged. */
+    private final double vbTolerance = 1e-6;
+    /** Receives the metrics of the chains, or null. */
+    private MgsaSamplerListener samplerListener = null;
+
+    private final AssociationContainer goAssociations;
+
+    /** Term to gene matrix of the population; built once and shared by all study set calculations. */
+    private final TermToItemMatrix termToItemMatrix;
     /**
      * Reference to ontology (usually Gene Ontology).
      */
-    private Ontology ontology;
-
-    private final StudySet populationSet;
+    private final Ontology ontology;
 
 
     /**
@@ -64,24 +134,66 @@ public class MgsaCalculation {
     public MgsaCalculation(Ontology ontology,
                            AssociationContainer goAssociations,
                            int mcmcSteps) {
+        this(ontology, goAssociations, buildTermToItemMatrix(goAssociations), mcmcSteps);
+    }
+
+    /**
+     * Use this constructor to share a term to gene matrix that has already been built for the
+     * association container between several calculations (e.g., with different settings).
+     *
+     * @param ontology         reference to Gene Ontology
+     * @param goAssociations   reference to contained with GO <-> gene associations
+     * @param termToItemMatrix matrix that has been built from goAssociations (or loaded from a
+     *                         {@link TermToItemMatrixSnapshot} of such a matrix)
+     * @param mcmcSteps        Number of iterations of MCMC to perform
+     */
+    public MgsaCalculation(Ontology ontology,
+                           AssociationContainer goAssociations,
+                           TermToItemMatrix termToItemMatrix,
+                           int mcmcSteps) {
         this.ontology = ontology;
+        this.goAssociations = Objects.requireNonNull(goAssociations);
+        this.termToItemMatrix = Objects.requireNonNull(termToItemMatrix);
         this.mcmcSteps = mcmcSteps;
+    }
+
+    private MgsaCalculation(TermToItemMatrix termToItemMatrix, int mcmcSteps) {
+        this.ontology = null;
+        this.goAssociations = null;
+        this.termToItemMatrix = termToItemMatrix;
+        this.mcmcSteps = mcmcSteps;
+    }
+
+    /**
+     * Creates a calculation from a {@link TermToItemMatrixSnapshot} alone, i.e., without parsing the
+     * ontology and the annotations. The population consists of the genes of the snapshot. Only the
+     * gene set of a study set is used, so a study set may be created without annotations, e.g.,
+     * {@code new StudySet(genes, name, Collections.emptyMap())}. The results have no ontology and
+     * no association container.
+     *
+     * @param snapshot  the snapshot file
+     * @param mcmcSteps Number of iterations of MCMC to perform
+     * @return the calculation
+     * @throws IOException if the snapshot cannot be read or is damaged
+     */
+    public static MgsaCalculation fromSnapshot(Path snapshot, int mcmcSteps) throws IOException {
+        return new MgsaCalculation(TermToItemMatrixSnapshot.read(snapshot), mcmcSteps);
+    }
+
+    private static TermToItemMatrix buildTermToItemMatrix(AssociationContainer goAssociations) {
         Objects.requireNonNull(goAssociations);
         try {
-            this.termToItemMatrix = new TermToItemMatrix(goAssociations);
+            return new TermToItemMatrix(goAssociations);
         } catch (PhenolException e) {
             throw new RuntimeException(e.getMessage());
         }
-        Set<TermId> allAnnotatedGenes = goAssociations.getAllAnnotatedGenes();
-        Map<TermId, DirectAndIndirectTermAnnotations> assocs = goAssociations.getAssociationMap(allAnnotatedGenes);
-        this.populationSet = new StudySet(goAssociations.getAllAnnotatedGenes(), "study", assocs);
     }
 
     /**
      * @return the total count of genes (items) in the population set.
      */
     public int getPopulationSetCount() {
-        return populationSet.getAnnotatedItemCount();
+        return termToItemMatrix.getNumGenes();
     }
 
     /**
@@ -180,7 +292,9 @@ public class MgsaCalculation {
 
     /**
      * Sets whether all terms that are annotated to the population set should be
-     * considered.
+     * considered. If not, the terms without any gene of the study set are pruned before the
+     * calculation and get a marginal of 0. Such terms can only explain unobserved genes, so they
+     * are rarely active in the sampled states. The default is true.
      *
      * @param takePopulationAsReference
      */
@@ -188,6 +302,66 @@ public class MgsaCalculation {
         this.takePopulationAsReference = takePopulationAsReference;
     }
 
+    /**
+     * Prunes the terms whose number of population genes is outside of the given bounds before the
+     * calculation. Pruned terms get a marginal of 0. Terms without any population gene are always
+     * pruned.
+     *
+     * @param min smallest number of genes of a term that is considered
+     * @param max largest number of genes of a term that is considered
+     */
+    public void setTermSizeBounds(int min, int max) {
+        if (min > max)
+            throw new IllegalArgumentException("Minimal term size " + min + " is larger than the maximal size " + max);
+        this.minTermSize = Math.max(1, min);
+        this.maxTermSize = max;
+    }
+
+    /**
+     * Sets whether terms that are annotated to exactly the same genes are merged into one state
+     * variable of the sampler. Such terms cannot be distinguished by the data; separately, they only
+     * slow down the mixing, because the sampler has to move between them. The prior accounts for
+     * the number of merged terms, and each of them gets the probability that at least one of them
+     * is active, instead of a share of it. The default is true.
+     *
+     * @param mergeIdenticalTerms whether terms with identical genes are merged
+     */
+    public void setMergeIdenticalTerms(boolean mergeIdenticalTerms) {
+        this.mergeIdenticalTerms = mergeIdenticalTerms;
+    }
+
+    /**
+     * Sets whether the terms are decomposed into the connected components of the term to gene graph
+     * (terms are connected if they share a gene), which are sampled by chains of their own in
+     * parallel. Between rounds of the chains, the parameters alpha, beta and p that are not fixed
+     * are drawn given the states of all components (parameters estimated by EM are sampled as
+     * well). This pays off if the terms that take part in the calculation (e.g., after pruning the
+     * terms without study genes) fall apart into several components. The number of chains,
+     * parallel tempering and checkpoints do not apply, and the results have no convergence
+     * diagnostics or sampler metrics. It is not used if the parameters are integrated out. The
+     * default is false.
+     *
+     * @param decomposeComponents whether the components are sampled separately
+     */
+    public void setComponentDecomposition(boolean decomposeComponents) {
+        this.decomposeComponents = decomposeComponents;
+    }
+
+    /**
+     * @param index         index of all terms of the population
+     * @param observedItems the observed state of each gene
+     * @return the terms that take part in the calculation
+     */
+    private TermPruning pruneTerms(TermGeneIndex index, boolean[] observedItems) {
+        TermPruning pruning = TermPruning.prune(index, observedItems, !takePopulationAsReference, minTermSize, maxTermSize,
+                mergeIdenticalTerms);
+        if (pruning.getNumPruned() > 0)
+            logger.log(INFO, "Pruned " + pruning.getNumPruned() + " of " + index.getNumTerms() + " terms");
+        if (pruning.getNumMerged() > 0)
+            logger.log(INFO, "Merged " + pruning.getNumMerged() + " terms into terms with identical genes");
+        return pruning;
+    }
+
     /**
      * Sets whether a random start should be used.
      *
@@ -206,271 +380,768 @@ public class MgsaCalculation {
         this.updateReportTime = updateReportTime;
     }
 
-    public MgsaEnrichedGOTermsResult calculateStudySet(StudySet studySet) {
-        MgsaEnrichedGOTermsResult result = new MgsaEnrichedGOTermsResult(ontology,
-                goAssociations,
-                studySet,
-                getPopulationSetCount());
-        if (studySet.getAnnotatedItemCount() == 0) {
-            System.err.println("[WARNING] Study set empty! Returning specious result");
-            return result;
-        }
-
-        //  TermEnumerator populationEnumerator = populationSet.enumerateTerms(graph, goAssociations);
-        // TermEnumerator studyEnumerator = studySet.enumerateTerms(graph, goAssociations);
-
-        logger.log(INFO, "Starting calculation: expectedNumberOfTerms=" + expectedNumberOfTerms +
-                " alpha=" + alpha +
-                " beta=" + beta +
-                " numberOfPop=" + getPopulationSetCount() +
-                " numberOfStudy=" + studySet.getAnnotatedItemCount());
+    /**
+     * Sets the factory for the random sources of the calculation. It is called with the seed; the
+     * sources of parallel chains and of the study sets of a batch are split off the returned source.
+     * The default is {@link XoroshiroRandom}; use {@code JdkRandomSource::new} to reproduce the random
+     * streams of java.util.Random.
+     *
+     * @param randomSourceFactory creates a random source from a seed
+     */
+    public void setRandomSourceFactory(LongFunction<RandomSource> randomSourceFactory) {
+        this.randomSourceFactory = Objects.requireNonNull(randomSourceFactory);
+    }
 
-        long start = System.currentTimeMillis();
-        try {
-            calculateByMCMC(result, studySet);//, llr);
-        } catch (PhenolException e) {
-            e.printStackTrace();
-            System.exit(1); // TODO make more robust
+    /**
+     * @return a new random source for the seed (or a random seed if no seed has been set).
+     */
+    private RandomSource createRandomSource() {
+        long s = seed;
+        if (s == 0) {
+            s = new Random().nextLong();
         }
-        long end = System.currentTimeMillis();
-        logger.log(INFO, (end - start) + "ms");
-        return result;
+        logger.log(INFO, "Using random seed of: " + s);
+        return randomSourceFactory.apply(s);
     }
 
+    /**
+     * Sets the number of independent MCMC chains. Each chain is run on its own thread with its own
+     * random stream that is derived from the seed. The activation counts of all chains are merged,
+     * and if more than one chain is used, the Gelman-Rubin R-hat of each term is reported.
+     *
+     * @param numChains number of chains (at least one)
+     */
+    public void setNumChains(int numChains) {
+        if (numChains < 1)
+            throw new IllegalArgumentException("Number of chains must be at least 1 but was " + numChains);
+        this.numChains = numChains;
+    }
 
-    public void setUsePrior(boolean usePrior) {
-        this.usePrior = usePrior;
+    /**
+     * Switches to adaptive mode. The burn-in is then detected from the score trace (with the fixed
+     * burn-in as the maximum) and each chain stops as soon as the Monte Carlo standard error of every
+     * running term marginal, estimated by batch means, is at most the tolerance. The number of MCMC
+     * steps becomes the maximum.
+     *
+     * @param convergenceTolerance maximal standard error of the marginals, e.g. 0.01; NaN switches adaptive mode off
+     */
+    public void setConvergenceTolerance(double convergenceTolerance) {
+        if (convergenceTolerance <= 0)
+            throw new IllegalArgumentException("Convergence tolerance must be positive but was " + convergenceTolerance);
+        this.convergenceTolerance = convergenceTolerance;
     }
 
-    private void calculateByMCMC(MgsaEnrichedGOTermsResult result,
-                                 StudySet studySet) throws PhenolException {
-        //List<TermId> relevantTermList = new ArrayList<>(populationSet.getAnnotatingTermIds());// graph.filterRelevant(populationEnumerator.getAllAnnotatedTermsAsList());
-        //IntMapper<TermId> termMapper = IntMapper.create(relevantTermList);
-        // IntMapper<ByteString> geneMapper = IntMapper.create(populationEnumerator.getGenesAsList());
-        TermToItemMatrix calcUtils = new TermToItemMatrix(goAssociations);
-        int[][] termLinks = calcUtils.getTermLinks();
-        boolean[] observedItems = calcUtils.getBooleanArrayobservedItems(studySet.getGeneSet()); //geneMapper.getDense(studyEnumerator.getGenes());
-        double[] r = calculate(termLinks, observedItems);
+    /**
+     * Sets the number of MCMC steps after the burn-in of the intermediate iterations if some parameters are
+     * estimated by EM.
+     * The chains are carried over from one iteration to the next, so that only the first iteration
+     * needs the full burn-in. The final iteration, which yields the marginals, always uses the
+     * number of MCMC steps of the calculation.
+     *
+     * @param emStepsPerIteration steps of the intermediate iterations; 0 uses the number of MCMC steps
+     */
+    public void setEmStepsPerIteration(int emStepsPerIteration) {
+        if (emStepsPerIteration < 0)
+            throw new IllegalArgumentException("Number of EM steps must not be negative but was " + emStepsPerIteration);
+        this.emStepsPerIteration = emStepsPerIteration;
+    }
 
-        for (int i = 0; i < r.length; i++) {
-            TermId tid = calcUtils.getGoTermAtIndex(i);
-            MgsaGOTermProperties prop = new MgsaGOTermProperties();
-            prop.term = tid;
-            prop.annotatedStudyGenes = calcUtils.getAnnotatedGeneCount(tid);
-            // studyEnumerator.getAnnotatedGenes(tid).totalAnnotatedCount();
-            prop.annotatedPopulationGenes = populationSet.getAnnotatedItemCount();
-            //populationEnumerator.getAnnotatedGenes(tid).totalAnnotatedCount();
-            prop.marg = r[i];
-            result.addGOTermProperties(prop);
-        }
+    /**
+     * Sets the tolerance for the convergence of the EM iterations. Once alpha and beta change by no
+     * more than the tolerance, and the expected number of terms by no more than the tolerance
+     * relative to its value, the next iteration is the final one.
+     *
+     * @param emTolerance tolerance of the parameters; NaN always runs all iterations
+     */
+    public void setEmTolerance(double emTolerance) {
+        if (emTolerance <= 0)
+            throw new IllegalArgumentException("EM tolerance must be positive but was " + emTolerance);
+        this.emTolerance = emTolerance;
+    }
 
+    /**
+     * Lets {@link #calculateStudySet(StudySet)} write the complete state of the sampler to the given
+     * file every intervalSteps MCMC steps (of each chain), so that an interrupted calculation can be
+     * continued with {@link #resumeStudySet(StudySet, Path)}. The random source must be a
+     * {@link XoroshiroRandom} (the default). Batch calculations are not checkpointed.
+     *
+     * @param checkpointFile the file, which is replaced by each checkpoint; null switches checkpointing off
+     * @param intervalSteps  number of steps between two checkpoints
+     */
+    public void setCheckpoint(Path checkpointFile, int intervalSteps) {
+        if (checkpointFile != null && intervalSteps < 1)
+            throw new IllegalArgumentException("Checkpoint interval must be positive but was " + intervalSteps);
+        this.checkpointFile = checkpointFile;
+        this.checkpointInterval = intervalSteps;
     }
 
+    /**
+     * Sets a listener that receives the throughput and acceptance metrics of the chains while they
+     * are running (about every update report time) and when they have finished. It must be
+     * thread-safe if several chains or study sets are calculated in parallel.
+     *
+     * @param samplerListener the listener, or null
+     */
+    public void setSamplerListener(MgsaSamplerListener samplerListener) {
+        this.samplerListener = samplerListener;
+    }
 
-    public String getDescription() {
-        // TODO Auto-generated method stub
-        return null;
+    /**
+     * Runs each chain with parallel tempering (replica exchange). In addition to the chain itself,
+     * numTemperatures - 1 replicas sample the posterior at temperatures that increase geometrically up
+     * to maxTemperature, i.e., with a flattened score, and move more freely between competing terms.
+     * Every swapInterval steps, the states of neighboring temperatures are exchanged with the
+     * Metropolis probability. The replicas of all chains are run on their own threads (unless
+     * study sets are calculated in a batch); only the marginals of the chains at temperature 1 are
+     * reported.
+     *
+     * @param numTemperatures number of temperatures including temperature 1; 1 switches tempering off
+     * @param maxTemperature  temperature of the hottest replica (larger than 1)
+     * @param swapInterval    number of steps between two rounds of exchanges
+     */
+    public void setParallelTempering(int numTemperatures, double maxTemperature, int swapInterval) {
+        if (numTemperatures < 1)
+            throw new IllegalArgumentException("Number of temperatures must be at least 1 but was " + numTemperatures);
+        if (numTemperatures > 1 && !(maxTemperature > 1))
+            throw new IllegalArgumentException("Maximal temperature must be larger than 1 but was " + maxTemperature);
+        if (swapInterval < 1)
+            throw new IllegalArgumentException("Swap interval must be positive but was " + swapInterval);
+        this.numTemperatures = numTemperatures;
+        this.maxTemperature = numTemperatures > 1 ? maxTemperature : 1;
+        this.swapInterval = swapInterval;
     }
 
-    public String getName() {
-        return "MGSA";
+    /**
+     * Selects the method by which the marginals are calculated. The variational engine approximates
+     * the posterior in milliseconds to seconds, which is useful to screen many study sets, but it tends
+     * to concentrate the probability on a single term of a group of terms that explain the same
+     * genes. Parameters that are estimated by MCMC or EM are inferred by the variational engine as
+     * well. The settings of the chains (including checkpoints) do not apply to it, and the results
+     * have no convergence diagnostics or sampler metrics.
+     *
+     * @param engine the engine, MCMC by default
+     */
+    public void setEngine(Engine engine) {
+        this.engine = Objects.requireNonNull(engine);
     }
 
+    /**
+     * Sets the number of MCMC steps with which the chains are re-equilibrated in
+     * {@link #updateStudySet(MgsaIncrementalState, StudySet)}; a tenth of them is burn-in.
+     *
+     * @param incrementalSteps the number of steps, 0 for a tenth of the steps of a full calculation
+     */
+    public void setIncrementalSteps(int incrementalSteps) {
+        if (incrementalSteps < 0)
+            throw new IllegalArgumentException("Number of incremental steps must not be negative but was " + incrementalSteps);
+        this.incrementalSteps = incrementalSteps;
+    }
 
-    public boolean supportsTestCorrection() {
-        return false;
+    public MgsaEnrichedGOTermsResult calculateStudySet(StudySet studySet) {
+        return calculateStudySet(studySet, true, createRandomSource(), null, checkpointFile);
     }
 
+    /**
+     * Calculates the study set like {@link #calculateStudySet(StudySet)} and keeps the final
+     * states of the chains, so that a study set that differs by a few genes can be calculated with
+     * {@link #updateStudySet(MgsaIncrementalState, StudySet)}. Checkpoints are not written.
+     *
+     * @param studySet the study set
+     * @return the result together with the final chain states
+     */
+    public MgsaIncrementalState calculateIncremental(StudySet studySet) {
+        return calculateState(studySet, true, createRandomSource(), null, null);
+    }
 
-    private MgsaGOTermProperties[] calculate2(StudySet studySet) {
-        int[][] term2Items = termToItemMatrix.getTermLinks();
-        boolean[] observedItems = this.termToItemMatrix.getBooleanArrayobservedItems(studySet.getGeneSet()); //geneMapper.getDense(studyEnumerator.getGenes());
-        int numTerms = termToItemMatrix.getNumTerms();
-        MgsaGOTermProperties res[] = new MgsaGOTermProperties[numTerms];
-        Random rnd;
-        if (seed != 0) {
-            rnd = new Random(seed);
-            logger.log(INFO, "Using random seed of: " + seed);
-        } else {
-            long newSeed = new Random().nextLong();
-            logger.log(INFO, "Using random seed of: " + newSeed);
-            rnd = new Random(newSeed);
+    /**
+     * Calculates a study set that differs by a few genes from the one of a previous run, e.g., after
+     * re-thresholding or removing a batch artifact. Instead of starting from the empty state, the
+     * final chain states of the previous run are continued: the changed genes are switched in the
+     * n00/n01/n10/n11 counts of each chain, and the chains are re-equilibrated with
+     * {@link #setIncrementalSteps(int) a short run}, at the parameters of the end of the previous
+     * run (EM is not repeated). Replicas of parallel tempering are not continued. If the previous
+     * run has no chain states (e.g., with the variational engine or with component decomposition),
+     * or if other terms are pruned for the new study set, a full calculation is run instead, which
+     * does not take over the previous state. The random source of the update is split off the one
+     * of the previous run, so that consecutive updates do not repeat the draws of the previous run.
+     *
+     * @param previous the state of the previous run of this calculation, which is taken over
+     * @param studySet the new study set
+     * @return the result together with the final chain states
+     * @throws IllegalStateException if the previous state has been updated before
+     */
+    public MgsaIncrementalState updateStudySet(MgsaIncrementalState previous, StudySet studySet) {
+        boolean[] observedItems = termToItemMatrix.getBooleanArrayobservedItems(studySet.getGeneSet());
+        TermPruning pruning = pruneTerms(termToItemMatrix.getIndex(), observedItems);
+        if (previous.scores == null || countObserved(observedItems) == 0 || !pruning.hasSameTerms(previous.pruning)) {
+            logger.log(INFO, "Previous state cannot be continued, calculating the study set from scratch");
+            return calculateState(studySet, true, previous.splitRandomSource(), null, null);
         }
-        boolean doAlphaEm = false;
-        boolean doBetaEm = false;
-        boolean doPEm = false;
-
-        int maxIter;
-
-        double alpha;
-        double beta;
-        double expectedNumberOfTerms;
-        alpha = Double.NaN;
-        beta = Double.NaN;
-        expectedNumberOfTerms = Double.NaN;
-
-        FixedAlphaBetaScore fixedAlphaBetaScore = new FixedAlphaBetaScore(rnd, term2Items, observedItems);
-        fixedAlphaBetaScore.setIntegrateParams(integrateParams);
-        logger.log(INFO, "MCMC only: " + alpha + "  " + beta + "  " + expectedNumberOfTerms);
-        fixedAlphaBetaScore.setAlpha(alpha);
-        if (this.alpha.hasMax())
-            fixedAlphaBetaScore.setMaxAlpha(this.alpha.getMax());
-        fixedAlphaBetaScore.setBeta(beta);
-        if (this.beta.hasMax())
-            fixedAlphaBetaScore.setMaxBeta(this.beta.getMax());
-        fixedAlphaBetaScore.setExpectedNumberOfTerms(expectedNumberOfTerms);
-        fixedAlphaBetaScore.setUsePrior(usePrior);
+        previous.markUpdated();
 
-        logger.log(INFO, "Score of empty set: " + fixedAlphaBetaScore.getScore());
+        long start = System.currentTimeMillis();
+        List<FixedAlphaBetaScore> scores = previous.scores;
+        int numChanged = 0;
+        for (int g = 0; g < observedItems.length; g++) {
+            if (observedItems[g] != previous.observedItems[g]) {
+                for (FixedAlphaBetaScore score : scores)
+                    score.setObserved(g, observedItems[g]);
+                numChanged++;
+            }
+        }
 
-        /* Provide a starting point */
-        if (randomStart) {
-            int numberOfTerms = fixedAlphaBetaScore.EXPECTED_NUMBER_OF_TERMS[rnd.nextInt(fixedAlphaBetaScore.EXPECTED_NUMBER_OF_TERMS.length)];
-            double pForStart = ((double) numberOfTerms) / term2Items.length;
+        int steps = incrementalSteps > 0 ? incrementalSteps : Math.max(1, mcmcSteps / 10);
+        RandomSource rnd = previous.splitRandomSource();
+        List<MgsaChain> chains = new ArrayList<>(scores.size());
+        for (int c = 0; c < scores.size(); c++) {
+            FixedAlphaBetaScore score = scores.get(c);
+            score.resetRecords();
+            MgsaChain chain = new MgsaChain(c, score, scores.size() == 1 ? rnd : rnd.split(), steps, steps / 10, updateReportTime);
+            chain.setListener(samplerListener);
+            chains.add(chain);
+        }
+        ExecutorService executor = chains.size() > 1 ? Executors.newFixedThreadPool(
+                Math.min(chains.size(), Runtime.getRuntime().availableProcessors())) : null;
+        try {
+            runChains(chains, executor);
+        } finally {
+            if (executor != null)
+                executor.shutdown();
+        }
+        Posterior posterior = coldPosterior(chains, pruning.getIndex().getNumTerms());
+        for (MgsaChain chain : chains)
+            logChainSummary(chain);
 
-            for (int j = 0; j < term2Items.length; j++)
-                if (rnd.nextDouble() < pForStart) fixedAlphaBetaScore.switchState(j);
+        MgsaEnrichedGOTermsResult result = new MgsaEnrichedGOTermsResult(ontology, goAssociations, studySet,
+                getPopulationSetCount());
+        addTermProperties(result, observedItems, pruning, posterior);
+        long end = System.currentTimeMillis();
+        logger.log(INFO, "Updated " + numChanged + " genes and re-equilibrated in " + (end - start) + "ms");
+        return new MgsaIncrementalState(result, observedItems, pruning, scores, rnd);
+    }
 
-            logger.log(INFO, "Starting with " + fixedAlphaBetaScore.getActiveTerms().length + " terms (p=" + pForStart + ")");
+    /**
+     * Continues a calculation of the study set from a checkpoint that has been written during
+     * {@link #calculateStudySet(StudySet)}. This object must have the same settings as the one that
+     * wrote the checkpoint (the seed is irrelevant). The result is identical to the one that the
+     * interrupted calculation would have produced. If checkpointing is enabled, the calculation
+     * continues to write checkpoints.
+     *
+     * @param studySet   the study set of the interrupted calculation
+     * @param checkpoint the checkpoint file
+     * @return the result of the study set
+     * @throws IOException if the checkpoint cannot be read or does not match the calculation
+     */
+    public MgsaEnrichedGOTermsResult resumeStudySet(StudySet studySet, Path checkpoint) throws IOException {
+        MgsaCheckpoint resume = MgsaCheckpoint.read(checkpoint);
+        boolean[] observedItems = termToItemMatrix.getBooleanArrayobservedItems(studySet.getGeneSet());
+        int numTerms = pruneTerms(termToItemMatrix.getIndex(), observedItems).getIndex().getNumTerms();
+        if (resume.numTerms != numTerms || resume.numGenes != termToItemMatrix.getNumGenes())
+            throw new IOException("Checkpoint of " + resume.numTerms + " terms and " + resume.numGenes +
+                    " genes does not match the population of " + numTerms + " terms and " +
+                    termToItemMatrix.getNumGenes() + " genes");
+        if (resume.getNumChains() != numChains * numTemperatures)
+            throw new IOException("Checkpoint has " + resume.getNumChains() + " chains but " + numChains * numTemperatures +
+                    " are configured");
+        try {
+            return calculateStudySet(studySet, true, createRandomSource(), resume, checkpointFile);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+    }
 
-        double score = fixedAlphaBetaScore.getScore();
-        logger.log(INFO, "Score of initial set: " + score);
+    /**
+     * Searches the single best-scoring explanation of the study set instead of sampling the
+     * posterior: each of {@link #numChains} restarts runs the configured number of MCMC steps
+     * through a simulated annealing schedule (temperature 10 down to 0.01), followed by a greedy
+     * improvement of single terms, and the best state of all restarts is returned. Parameters that
+     * are estimated by MCMC or EM are optimized together with the terms. The restarts run in
+     * parallel, and the terms are pruned and merged like in the posterior calculation.
+     *
+     * @param studySet the study set
+     * @return the best term combination found, with its parameters
+     */
+    public MgsaMapResult calculateMap(StudySet studySet) {
+        TermGeneIndex fullIndex = termToItemMatrix.getIndex();
+        boolean[] observedItems = termToItemMatrix.getBooleanArrayobservedItems(studySet.getGeneSet());
+        TermPruning pruning = pruneTerms(fullIndex, observedItems);
+        TermGeneIndex index = pruning.getIndex();
+        if (index.getNumTerms() == 0)
+            return new MgsaMapResult(Collections.emptyList(), Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+
+        double alpha = this.alpha.isFixed() ? this.alpha.getValue() : Double.NaN;
+        double beta = this.beta.isFixed() ? this.beta.getValue() : Double.NaN;
+        double terms = expectedNumberOfTerms.isFixed() ? expectedNumberOfTerms.getValue() : Double.NaN;
+        RandomSource rnd = createRandomSource();
+        List<FixedAlphaBetaScore> scores = new ArrayList<>(numChains);
+        List<MgsaChain> chains = new ArrayList<>(numChains);
+        for (int c = 0; c < numChains; c++) {
+            RandomSource chainRnd = numChains == 1 ? rnd : rnd.split();
+            FixedAlphaBetaScore score = createScore(chainRnd, index, pruning.getMultiplicities(), observedItems, alpha, beta, terms);
+            scores.add(score);
+            /* The states are not recorded */
+            chains.add(new MgsaChain(c, score, chainRnd, mcmcSteps, mcmcSteps, updateReportTime));
+        }
 
-        int maxSteps = mcmcSteps;
+        ExecutorService executor = numChains > 1 ? Executors.newFixedThreadPool(
+                Math.min(numChains, Runtime.getRuntime().availableProcessors())) : null;
+        List<Callable<Double>> restarts = new ArrayList<>(numChains);
+        for (int c = 0; c < numChains; c++) {
+            MgsaChain chain = chains.get(c);
+            FixedAlphaBetaScore score = scores.get(c);
+            restarts.add(() -> {
+                MgsaAnnealer.anneal(chain, mcmcSteps, annealingStartTemperature, annealingEndTemperature, annealingStages);
+                return MgsaAnnealer.polish(score);
+            });
+        }
+        double[] polished = new double[numChains];
+        try {
+            if (executor == null) {
+                polished[0] = restarts.get(0).call();
+            } else {
+                List<Future<Double>> futures = executor.invokeAll(restarts);
+                for (int c = 0; c < numChains; c++)
+                    polished[c] = futures.get(c).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("MGSA MAP search was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("MGSA MAP search failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (Exception e) {
+            throw new RuntimeException("MGSA MAP search failed: " + e.getMessage(), e);
+        } finally {
+            if (executor != null)
+                executor.shutdownNow();
+        }
 
-        int numAccepts = 0;
-        int numRejects = 0;
+        /* The best of the polished final states and the best states seen during the annealing */
+        double bestScore = Double.NEGATIVE_INFINITY;
+        int[] bestTerms = null;
+        double bestAlpha = Double.NaN;
+        double bestBeta = Double.NaN;
+        double bestP = Double.NaN;
+        for (int c = 0; c < numChains; c++) {
+            MgsaChain chain = chains.get(c);
+            FixedAlphaBetaScore score = scores.get(c);
+            if (polished[c] >= chain.getMaxScore() && polished[c] > bestScore) {
+                bestScore = polished[c];
+                bestTerms = score.getActiveTerms();
+                bestAlpha = score.getAlpha();
+                bestBeta = score.getBeta();
+                bestP = score.getP();
+            } else if (chain.getMaxScore() > polished[c] && chain.getMaxScore() > bestScore) {
+                bestScore = chain.getMaxScore();
+                bestTerms = chain.getMaxScoredTerms();
+                bestAlpha = chain.getMaxScoredAlpha();
+                bestBeta = chain.getMaxScoredBeta();
+                bestP = chain.getMaxScoredP();
+            }
+        }
+        if (bestTerms == null) {
+            /* no restart reached a finite score */
+            logger.log(INFO, "MAP search found no term combination with a finite score");
+            return new MgsaMapResult(Collections.emptyList(), Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        }
 
+        boolean[] active = new boolean[index.getNumTerms()];
+        for (int t : bestTerms)
+            active[t] = true;
+        List<TermId> mapTerms = new ArrayList<>();
+        for (int t = 0; t < fullIndex.getNumTerms(); t++) {
+            int k = pruning.getKeptPosition(t);
+            if (k >= 0 && active[k])
+                mapTerms.add(termToItemMatrix.getGoTermAtIndex(t));
+        }
+        logger.log(INFO, "MAP search found " + mapTerms.size() + " terms with score " + bestScore);
+        if (integrateParams)
+            return new MgsaMapResult(Collections.unmodifiableList(mapTerms), bestScore, Double.NaN, Double.NaN, Double.NaN);
+        return new MgsaMapResult(Collections.unmodifiableList(mapTerms), bestScore, bestAlpha, bestBeta, bestP);
+    }
 
-        double maxScore = score;
-        int[] maxScoredTerms = fixedAlphaBetaScore.getActiveTerms();
-        double maxScoredAlpha = Double.NaN;
-        double maxScoredBeta = Double.NaN;
-        double maxScoredP = Double.NaN;
-        int maxWhenSeen = -1;
+    /**
+     * Scores candidate term sets, e.g., curated sets or the result of {@link #calculateMap(StudySet)},
+     * with fixed parameters. This does not run a sampler and does not change any state; the sets
+     * are scored in parallel. The terms are pruned and merged like in {@link #calculateMap(StudySet)},
+     * i.e., members of a merged term count as one active term whose prior takes its multiplicity into
+     * account, and p refers to the number of kept terms. With the parameters of a
+     * {@link MgsaMapResult}, its terms therefore get its score, unless the parameters are integrated
+     * out. The prior is included if it is used by this calculation.
+     *
+     * @param studySet   the study set
+     * @param termSets   the candidate sets; each term must be in the term matrix and must not be pruned
+     * @param alpha      false positive rate
+     * @param beta       false negative rate
+     * @param p          prior probability of a term to be active
+     * @param numThreads number of worker threads
+     * @return the log score of each candidate set, in the order of the sets
+     */
+    public double[] scoreTermSets(StudySet studySet,
+                                  List<? extends Collection<TermId>> termSets,
+                                  double alpha,
+                                  double beta,
+                                  double p,
+                                  int numThreads) {
+        if (!(alpha > 0 && alpha < 1) || !(beta > 0 && beta < 1) || !(p > 0 && p < 1))
+            throw new IllegalArgumentException("alpha, beta and p must be in (0, 1)");
+        boolean[] observedItems = termToItemMatrix.getBooleanArrayobservedItems(studySet.getGeneSet());
+        TermPruning pruning = pruneTerms(termToItemMatrix.getIndex(), observedItems);
+        List<int[]> candidates = new ArrayList<>(termSets.size());
+        for (Collection<TermId> termSet : termSets) {
+            int[] terms = new int[termSet.size()];
+            int i = 0;
+            for (TermId term : termSet) {
+                int t = termToItemMatrix.getGoTermIndex(term);
+                if (t < 0)
+                    throw new IllegalArgumentException("Term " + term.getValue() + " is not in the term matrix");
+                int k = pruning.getKeptPosition(t);
+                if (k < 0)
+                    throw new IllegalArgumentException("Term " + term.getValue() + " has been pruned for this study set");
+                terms[i++] = k;
+            }
+            candidates.add(terms);
+        }
+        MgsaBatchScorer scorer = new MgsaBatchScorer(pruning.getIndex(), observedItems, pruning.getMultiplicities());
+        return scorer.scoreAll(candidates, alpha, beta, usePrior ? p : Double.NaN, numThreads);
+    }
 
+    /**
+     * Calculates many study sets against the population of this calculation. The study sets are
+     * scheduled on a pool of numThreads workers that share the ontology, the associations and the
+     * term matrix. At most twice as many study sets as there are workers are in flight at any time,
+     * so the study sets may be produced lazily. Each result is passed to the consumer as soon as it
+     * is complete, i.e., not necessarily in the order of the input. Each study set gets its own random
+     * stream, split off the seeded source in input order, so the results do not depend on the
+     * scheduling. The consumer is always called on
+     * the calling thread. When run in a batch, the chains of each study set are run sequentially on
+     * its worker. The settings of this object must not be changed while a batch is running.
+     *
+     * @param studySets  the study sets to calculate
+     * @param numThreads number of worker threads
+     * @param consumer   receives the results
+     */
+    public void calculateStudySets(Iterable<StudySet> studySets,
+                                   int numThreads,
+                                   Consumer<MgsaEnrichedGOTermsResult> consumer) {
+        if (numThreads < 1)
+            throw new IllegalArgumentException("Number of threads must be at least 1 but was " + numThreads);
+        int maxInFlight = 2 * numThreads;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CompletionService<MgsaEnrichedGOTermsResult> completionService = new ExecutorCompletionService<>(executor);
+        int inFlight = 0;
+        int done = 0;
         long start = System.currentTimeMillis();
-
-        for (int t = 0; t < maxSteps; t++) {
-            /* Remember maximum score and terms */
-            if (score > maxScore) {
-                maxScore = score;
-                maxScoredTerms = fixedAlphaBetaScore.getActiveTerms();
-                if (fixedAlphaBetaScore != null) {
-                    maxScoredAlpha = fixedAlphaBetaScore.getAlpha();
-                    maxScoredBeta = fixedAlphaBetaScore.getBeta();
-                    maxScoredP = fixedAlphaBetaScore.getP();
+        RandomSource batchRnd = createRandomSource();
+        try {
+            Iterator<StudySet> it = studySets.iterator();
+            while (it.hasNext() || inFlight > 0) {
+                while (it.hasNext() && inFlight < maxInFlight) {
+                    StudySet studySet = it.next();
+                    RandomSource studyRnd = batchRnd.split();
+                    completionService.submit(() -> calculateStudySet(studySet, false, studyRnd, null, null));
+                    inFlight++;
                 }
-                maxWhenSeen = t;
+                Future<MgsaEnrichedGOTermsResult> future = completionService.take();
+                inFlight--;
+                consumer.accept(future.get());
+                done++;
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("MGSA batch calculation was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("MGSA calculation failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        long end = System.currentTimeMillis();
+        logger.log(INFO, "Calculated " + done + " study sets in " + (end - start) + "ms");
+    }
 
-            long now = System.currentTimeMillis();
-            if (now - start > updateReportTime) {
-                logger.log(INFO, (t * 100 / maxSteps) + "% (score=" + score + " maxScore=" + maxScore + " #terms=" + fixedAlphaBetaScore.getActiveTerms().length +
-                        " accept/reject=" + Double.toString((double) numAccepts / (double) numRejects) +
-                        " accept/steps=" + Double.toString((double) numAccepts / (double) t) +
-                        " exp=" + expectedNumberOfTerms + " usePrior=" + usePrior + ")");
-                start = now;
-
+    /**
+     * Calculates MGSA for each of several cutoffs of per-gene values (e.g., p values or fold
+     * changes): at each threshold, the genes whose value is at least as good as the threshold are
+     * the observed genes. The calculations share the term matrix of this object and run in parallel
+     * on a pool of numThreads workers; each gets its own random stream, split off the seeded source
+     * in the order of the thresholds, so the result does not depend on the scheduling. The chains of
+     * each calculation run sequentially on its worker.
+     *
+     * @param geneValues      provides the value of each gene, indexed like the genes of the term
+     *                        matrix; its threshold is ignored
+     * @param thresholds      the cutoffs
+     * @param numThreads      number of worker threads
+     * @return the marginals of each term at each threshold
+     */
+    public MgsaThresholdSweepResult calculateThresholdSweep(MgsaScore.IGeneValueProvider geneValues,
+                                                            double[] thresholds,
+                                                            int numThreads) {
+        if (numThreads < 1)
+            throw new IllegalArgumentException("Number of threads must be at least 1 but was " + numThreads);
+        TermGeneIndex index = termToItemMatrix.getIndex();
+        int numGenes = index.getNumGenes();
+        thresholds = thresholds.clone();
+        int[] numObserved = new int[thresholds.length];
+        double[][] marginals = new double[thresholds.length][];
+        long start = System.currentTimeMillis();
+        RandomSource sweepRnd = createRandomSource();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<double[]>> futures = new ArrayList<>(thresholds.length);
+            for (int k = 0; k < thresholds.length; k++) {
+                boolean[] observedItems = MgsaScore.observe(numGenes, geneValues, thresholds[k]);
+                for (boolean o : observedItems)
+                    if (o) numObserved[k]++;
+                RandomSource rnd = sweepRnd.split();
+                futures.add(executor.submit(() -> calculate(index, observedItems, false, rnd)));
             }
+            for (int k = 0; k < thresholds.length; k++)
+                marginals[k] = futures.get(k).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("MGSA threshold sweep was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("MGSA calculation failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        long end = System.currentTimeMillis();
+        logger.log(INFO, "Calculated " + thresholds.length + " thresholds in " + (end - start) + "ms");
+        return new MgsaThresholdSweepResult(termToItemMatrix, thresholds, numObserved, marginals);
+    }
 
-            long oldPossibilities = fixedAlphaBetaScore.getNeighborhoodSize();
-            long r = rnd.nextLong();
-            fixedAlphaBetaScore.proposeNewState(r);
-            double newScore = fixedAlphaBetaScore.getScore();
-            long newPossibilities = fixedAlphaBetaScore.getNeighborhoodSize();
+    /**
+     * Calculates a threshold sweep for values of genes given by their ids. Genes without a value are
+     * never observed. See {@link #calculateThresholdSweep(MgsaScore.IGeneValueProvider, double[], int)}.
+     *
+     * @param geneValues      the value of each gene
+     * @param smallerIsBetter whether smaller values are better (e.g., for p values)
+     * @param thresholds      the cutoffs
+     * @param numThreads      number of worker threads
+     * @return the marginals of each term at each threshold
+     */
+    public MgsaThresholdSweepResult calculateThresholdSweep(Map<TermId, Double> geneValues,
+                                                            boolean smallerIsBetter,
+                                                            double[] thresholds,
+                                                            int numThreads) {
+        double[] values = new double[termToItemMatrix.getNumGenes()];
+        Arrays.fill(values, Double.NaN);
+        for (Map.Entry<TermId, Double> e : geneValues.entrySet()) {
+            int i = termToItemMatrix.getItemIndex(e.getKey());
+            if (i >= 0)
+                values[i] = e.getValue();
+        }
+        return calculateThresholdSweep(new MgsaScore.IGeneValueProvider() {
+            @Override
+            public double getGeneValue(int gid) {
+                return values[gid];
+            }
 
-            double acceptProb = Math.exp(newScore - score) * (double) oldPossibilities / (double) newPossibilities; /* last quotient is the hasting ratio */
+            @Override
+            public double getThreshold() {
+                return Double.NaN;
+            }
 
-            double u = rnd.nextDouble();
-            if (u >= acceptProb) {
-                fixedAlphaBetaScore.undoProposal();
-                numRejects++;
-            } else {
-                score = newScore;
-                numAccepts++;
+            @Override
+            public boolean smallerIsBetter() {
+                return smallerIsBetter;
             }
-            //System.err.println("t="+t);
-            if (t > burnin)
-                fixedAlphaBetaScore.record();
+        }, thresholds, numThreads);
+    }
 
-        }
+    /**
+     * Calculates the study sets of a stream. See {@link #calculateStudySets(Iterable, int, Consumer)}.
+     *
+     * @param studySets  the study sets to calculate
+     * @param numThreads number of worker threads
+     * @param consumer   receives the results
+     */
+    public void calculateStudySets(Stream<StudySet> studySets,
+                                   int numThreads,
+                                   Consumer<MgsaEnrichedGOTermsResult> consumer) {
+        calculateStudySets(studySets::iterator, numThreads, consumer);
+    }
 
+    /**
+     * @param studySet       the study set to calculate
+     * @param parallelChains whether several chains are run on their own threads
+     * @param rnd            the random source of the calculation
+     * @param resume         checkpoint from which the calculation is continued, or null
+     * @param checkpointFile file to which checkpoints are written, or null
+     * @return the result of the study set
+     */
+    private MgsaEnrichedGOTermsResult calculateStudySet(StudySet studySet, boolean parallelChains, RandomSource rnd,
+                                                        MgsaCheckpoint resume, Path checkpointFile) {
+        return calculateState(studySet, parallelChains, rnd, resume, checkpointFile).getResult();
+    }
 
-        for (int t = 0; t < numTerms; t++) {
-            TermId tid = termToItemMatrix.getGoTermAtIndex(t);
-            MgsaGOTermProperties prop = new MgsaGOTermProperties();
-            prop.term = tid;
-            prop.annotatedStudyGenes = termToItemMatrix.getAnnotatedGeneCount(tid);
-            // studyEnumerator.getAnnotatedGenes(tid).totalAnnotatedCount();
-            prop.annotatedPopulationGenes = getPopulationSetCount();
-            //populationEnumerator.getAnnotatedGenes(tid).totalAnnotatedCount();
-            prop.marg = fixedAlphaBetaScore.termActivationCounts[t] / fixedAlphaBetaScore.numRecords;
+    /**
+     * Like {@link #calculateStudySet(StudySet, boolean, RandomSource, MgsaCheckpoint, Path)}, but
+     * returns the final chain states as well.
+     */
+    private MgsaIncrementalState calculateState(StudySet studySet, boolean parallelChains, RandomSource rnd,
+                                                MgsaCheckpoint resume, Path checkpointFile) {
+        MgsaEnrichedGOTermsResult result = new MgsaEnrichedGOTermsResult(ontology,
+                goAssociations,
+                studySet,
+                getPopulationSetCount());
+        boolean[] observedItems = termToItemMatrix.getBooleanArrayobservedItems(studySet.getGeneSet());
+        int numObserved = countObserved(observedItems);
+        if (numObserved == 0) {
+            System.err.println("[WARNING] Study set empty! Returning specious result");
+            return new MgsaIncrementalState(result, null, null, null, rnd);
         }
 
+        //  TermEnumerator populationEnumerator = populationSet.enumerateTerms(graph, goAssociations);
+        // TermEnumerator studyEnumerator = studySet.enumerateTerms(graph, goAssociations);
 
-        if (fixedAlphaBetaScore != null) {
-            if (Double.isNaN(alpha)) {
-                for (int j = 0; j < fixedAlphaBetaScore.totalAlpha.length; j++)
-                    logger.log(INFO, "alpha(" + fixedAlphaBetaScore.ALPHA[j] + ")=" + (double) fixedAlphaBetaScore.totalAlpha[j] / fixedAlphaBetaScore.numRecords);
-            }
+        logger.log(INFO, "Starting calculation: expectedNumberOfTerms=" + expectedNumberOfTerms +
+                " alpha=" + alpha +
+                " beta=" + beta +
+                " numberOfPop=" + getPopulationSetCount() +
+                " numberOfStudy=" + numObserved);
 
-            if (Double.isNaN(beta)) {
-                for (int j = 0; j < fixedAlphaBetaScore.totalBeta.length; j++)
-                    logger.log(INFO, "beta(" + fixedAlphaBetaScore.BETA[j] + ")=" + (double) fixedAlphaBetaScore.totalBeta[j] / fixedAlphaBetaScore.numRecords);
-            }
+        long start = System.currentTimeMillis();
+        MgsaIncrementalState state = calculateByMCMC(result, observedItems, parallelChains, rnd, resume, checkpointFile);
+        long end = System.currentTimeMillis();
+        logger.log(INFO, (end - start) + "ms");
+        return state;
+    }
 
-            if (Double.isNaN(expectedNumberOfTerms)) {
-                for (int j = 0; j < fixedAlphaBetaScore.totalExp.length; j++)
-                    logger.log(INFO, "exp(" + fixedAlphaBetaScore.EXPECTED_NUMBER_OF_TERMS[j] + ")=" + (double) fixedAlphaBetaScore.totalExp[j] / fixedAlphaBetaScore.numRecords);
 
-            }
-        }
+    /**
+     * @return the number of genes of the population that are in the study set.
+     */
+    private static int countObserved(boolean[] observedItems) {
+        int n = 0;
+        for (boolean o : observedItems)
+            if (o) n++;
+        return n;
+    }
 
-        logger.log(INFO, "numAccepts=" + numAccepts + "  numRejects = " + numRejects);
+    public void setUsePrior(boolean usePrior) {
+        this.usePrior = usePrior;
+    }
 
-        if (logger.isLoggable(INFO)) {
-            StringBuilder b = new StringBuilder();
+    private MgsaIncrementalState calculateByMCMC(MgsaEnrichedGOTermsResult result,
+                                                 boolean[] observedItems,
+                                                 boolean parallelChains,
+                                                 RandomSource rnd,
+                                                 MgsaCheckpoint resume,
+                                                 Path checkpointFile) {
+        TermGeneIndex index = termToItemMatrix.getIndex();
+        TermPruning pruning = pruneTerms(index, observedItems);
+        Posterior posterior = null;
+        if (pruning.getIndex().getNumTerms() > 0) {
+            if (engine == Engine.VARIATIONAL_BAYES)
+                posterior = calculateVariationalPosterior(pruning, observedItems);
+            else if (useComponentDecomposition())
+                posterior = calculateComponentPosterior(pruning, observedItems, parallelChains, rnd);
+            else
+                posterior = calculatePosterior(pruning, observedItems, parallelChains, rnd, resume, checkpointFile);
+            result.setConvergenceDiagnostics(posterior.diagnostics);
+            result.setSamplerMetrics(posterior.metrics);
+        } else {
+            logger.log(WARNING, "All " + index.getNumTerms() + " terms have been pruned (term sizes " + minTermSize + " to " +
+                    maxTermSize + (takePopulationAsReference ? "" : ", terms without study genes") +
+                    "), every term gets the marginal " + PRUNED_TERM_MARGINAL);
+        }
+        addTermProperties(result, observedItems, pruning, posterior);
+        return new MgsaIncrementalState(result, observedItems, pruning, posterior != null ? posterior.scores : null, rnd);
+    }
 
-            logger.log(INFO, "Term combination that reaches score of " + maxScore +
-                    " when alpha=" + maxScoredAlpha +
-                    ", beta=" + maxScoredBeta +
-                    ", p=" + maxScoredP +
-                    " at step " + maxWhenSeen);
-            b.append("Indices: ");
-            for (int t : maxScoredTerms) {
-                b.append(t);
-                b.append(", ");
+    /**
+     * Adds the marginals of all terms of the population to the result.
+     *
+     * @param posterior the posterior of the kept terms, or null if all terms have been pruned
+     */
+    private void addTermProperties(MgsaEnrichedGOTermsResult result, boolean[] observedItems, TermPruning pruning,
+                                   Posterior posterior) {
+        TermGeneIndex index = termToItemMatrix.getIndex();
+        for (int i = 0; i < index.getNumTerms(); i++) {
+            TermId tid = termToItemMatrix.getGoTermAtIndex(i);
+            MgsaGOTermProperties prop = new MgsaGOTermProperties();
+            prop.term = tid;
+            prop.annotatedStudyGenes = termToItemMatrix.getObservedGeneCount(i, observedItems);
+            prop.annotatedPopulationGenes = index.getTermDegree(i);
+            int k = pruning.getKeptPosition(i);
+            if (k < 0) {
+                prop.marg = PRUNED_TERM_MARGINAL;
+            } else {
+                prop.marg = posterior.marginals[k];
+                if (posterior.diagnostics != null) {
+                    prop.rHat = posterior.diagnostics.getRHat(k);
+                    prop.ess = posterior.diagnostics.getEss(k);
+                }
             }
-            logger.log(INFO, b.toString());
+            result.addGOTermProperties(prop);
         }
 
-        return res;
+    }
+
+
+    public String getDescription() {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
+    public String getName() {
+        return "MGSA";
+    }
 
 
+    public boolean supportsTestCorrection() {
+        return false;
     }
 
+
     /**
      * Perform the calculation.
      *
-     * @param term2Items
+     * @param index
      * @param observedItems
      * @return a vector of marginal probabilities for each term.
      */
-    private double[] calculate(int[][] term2Items, boolean[] observedItems) {
-        int numTerms = term2Items.length;
-        double[] res = new double[numTerms];
+    private double[] calculate(TermGeneIndex index, boolean[] observedItems) {
+        return calculate(index, observedItems, true, createRandomSource());
+    }
 
-        Random rnd;
-        if (seed != 0) {
-            rnd = new Random(seed);
-            logger.log(INFO, "Using random seed of: " + seed);
-        } else {
-            long newSeed = new Random().nextLong();
-            logger.log(INFO, "Using random seed of: " + newSeed);
-            rnd = new Random(newSeed);
-        }
+    /**
+     * @param index
+     * @param observedItems
+     * @param parallelChains whether several chains are run on their own threads
+     * @param rnd the random source of the calculation
+     * @return a vector of marginal probabilities for each term.
+     */
+    private double[] calculate(TermGeneIndex index, boolean[] observedItems, boolean parallelChains, RandomSource rnd) {
+        TermPruning pruning = pruneTerms(index, observedItems);
+        double[] marginals = new double[0];
+        if (pruning.getIndex().getNumTerms() > 0 && engine == Engine.VARIATIONAL_BAYES)
+            marginals = calculateVariationalPosterior(pruning, observedItems).marginals;
+        else if (pruning.getIndex().getNumTerms() > 0 && useComponentDecomposition())
+            marginals = calculateComponentPosterior(pruning, observedItems, parallelChains, rnd).marginals;
+        else if (pruning.getIndex().getNumTerms() > 0)
+            marginals = calculatePosterior(pruning, observedItems, parallelChains, rnd, null, null).marginals;
+        return pruning.expand(marginals, PRUNED_TERM_MARGINAL);
+    }
+
+    /**
+     * Perform the calculation with {@link #numChains} chains and return the marginals together with
+     * the convergence diagnostics of the final iteration.
+     *
+     * @param pruning the terms that take part in the calculation
+     * @param observedItems
+     * @param parallelChains whether several chains are run on their own threads
+     * @param rnd the random source of the calculation; the sources of the chains are split off it
+     * @param resume checkpoint from which the calculation is continued, or null
+     * @param checkpointFile file to which checkpoints are written, or null
+     * @return marginal probabilities and diagnostics for each term.
+     */
+    private Posterior calculatePosterior(TermPruning pruning, boolean[] observedItems, boolean parallelChains, RandomSource rnd,
+                                         MgsaCheckpoint resume, Path checkpointFile) {
+        TermGeneIndex index = pruning.getIndex();
+        int[] multiplicities = pruning.getMultiplicities();
+        int numTerms = index.getNumTerms();
+        Posterior posterior = null;
 
         boolean doAlphaEm = false;
         boolean doBetaEm = false;
@@ -527,104 +1198,101 @@ public class MgsaCalculation {
         if (doEm) maxIter = 12;
         else maxIter = 1;
 
-        for (int i = 0; i < maxIter; i++) {
-            FixedAlphaBetaScore fixedAlphaBetaScore = new FixedAlphaBetaScore(rnd, term2Items, observedItems);
-            fixedAlphaBetaScore.setIntegrateParams(integrateParams);
+        /* Each chain is a ladder of replicas; replica k of chain c is element c * numTemperatures + k */
+        int numReplicas = numChains * numTemperatures;
+        double[] temperatures = MgsaReplicaExchange.temperatures(numTemperatures, maxTemperature);
 
-            if (doEm) {
-                logger.log(INFO, "EM-Iter(" + i + ")" + alpha + "  " + beta + "  " + expectedNumberOfTerms);
-            } else {
-                logger.log(INFO, "MCMC only: " + alpha + "  " + beta + "  " + expectedNumberOfTerms);
-            }
-
-            fixedAlphaBetaScore.setAlpha(alpha);
-            if (this.alpha.hasMax())
-                fixedAlphaBetaScore.setMaxAlpha(this.alpha.getMax());
-            fixedAlphaBetaScore.setBeta(beta);
-            if (this.beta.hasMax())
-                fixedAlphaBetaScore.setMaxBeta(this.beta.getMax());
-            fixedAlphaBetaScore.setExpectedNumberOfTerms(expectedNumberOfTerms);
-            fixedAlphaBetaScore.setUsePrior(usePrior);
-
-            logger.log(INFO, "Score of empty set: " + fixedAlphaBetaScore.getScore());
+        ExecutorService executor = null;
+        if (numReplicas > 1 && parallelChains) {
+            int numThreads = Math.min(numReplicas, Runtime.getRuntime().availableProcessors());
+            executor = Executors.newFixedThreadPool(numThreads);
+            logger.log(INFO, "Running " + numReplicas + " chains on " + numThreads + " threads");
+        }
 
-            /* Provide a starting point */
-            if (randomStart) {
-                int numberOfTerms = fixedAlphaBetaScore.EXPECTED_NUMBER_OF_TERMS[rnd.nextInt(fixedAlphaBetaScore.EXPECTED_NUMBER_OF_TERMS.length)];
-                double pForStart = ((double) numberOfTerms) / term2Items.length;
+        /* The scores (i.e., the chain states) and random sources are carried over between EM iterations */
+        List<FixedAlphaBetaScore> scores = new ArrayList<>(numReplicas);
+        List<RandomSource> chainRnds = new ArrayList<>(numReplicas);
+        boolean lastIteration = maxIter == 1;
+        int firstIteration = 0;
+        if (resume != null) {
+            firstIteration = resume.iteration;
+            lastIteration = resume.lastIteration;
+            alpha = resume.alpha;
+            beta = resume.beta;
+            expectedNumberOfTerms = resume.expectedNumberOfTerms;
+            logger.log(INFO, "Resuming from checkpoint at EM iteration " + firstIteration);
+        }
 
-                for (int j = 0; j < term2Items.length; j++)
-                    if (rnd.nextDouble() < pForStart) fixedAlphaBetaScore.switchState(j);
+        try {
+            for (int i = firstIteration; i < maxIter; i++) {
+                if (i == maxIter - 1)
+                    lastIteration = true;
 
-                logger.log(INFO, "Starting with " + fixedAlphaBetaScore.getActiveTerms().length + " terms (p=" + pForStart + ")");
-            }
+                if (doEm) {
+                    logger.log(INFO, "EM-Iter(" + i + ")" + alpha + "  " + beta + "  " + expectedNumberOfTerms);
+                } else {
+                    logger.log(INFO, "MCMC only: " + alpha + "  " + beta + "  " + expectedNumberOfTerms);
+                }
 
-            double score = fixedAlphaBetaScore.getScore();
-            logger.log(INFO, "Score of initial set: " + score);
-
-            int maxSteps = mcmcSteps;
-            int burnin = 20000;
-            int numAccepts = 0;
-            int numRejects = 0;
-
-
-            double maxScore = score;
-            int[] maxScoredTerms = fixedAlphaBetaScore.getActiveTerms();
-            double maxScoredAlpha = Double.NaN;
-            double maxScoredBeta = Double.NaN;
-            double maxScoredP = Double.NaN;
-            int maxWhenSeen = -1;
-
-            long start = System.currentTimeMillis();
-
-            for (int t = 0; t < maxSteps; t++) {
-                /* Remember maximum score and terms */
-                if (score > maxScore) {
-                    maxScore = score;
-                    maxScoredTerms = fixedAlphaBetaScore.getActiveTerms();
-                    if (fixedAlphaBetaScore != null) {
-                        maxScoredAlpha = fixedAlphaBetaScore.getAlpha();
-                        maxScoredBeta = fixedAlphaBetaScore.getBeta();
-                        maxScoredP = fixedAlphaBetaScore.getP();
+                if (i == firstIteration) {
+                    chainRnds.addAll(MgsaReplicaExchange.replicaSources(rnd, numReplicas));
+                    for (RandomSource replicaRnd : chainRnds)
+                        scores.add(createScore(replicaRnd, index, multiplicities, observedItems, alpha, beta, expectedNumberOfTerms));
+                } else {
+                    for (FixedAlphaBetaScore fixedAlphaBetaScore : scores) {
+                        fixedAlphaBetaScore.resetRecords();
+                        fixedAlphaBetaScore.setAlpha(alpha);
+                        fixedAlphaBetaScore.setBeta(beta);
+                        fixedAlphaBetaScore.setExpectedNumberOfTerms(expectedNumberOfTerms);
                     }
-                    maxWhenSeen = t;
                 }
 
-                long now = System.currentTimeMillis();
-                if (now - start > updateReportTime) {
-                    logger.log(INFO, (t * 100 / maxSteps) + "% (score=" + score + " maxScore=" + maxScore + " #terms=" + fixedAlphaBetaScore.getActiveTerms().length +
-                            " accept/reject=" + Double.toString((double) numAccepts / (double) numRejects) +
-                            " accept/steps=" + Double.toString((double) numAccepts / (double) t) +
-                            " exp=" + expectedNumberOfTerms + " usePrior=" + usePrior + ")");
-                    start = now;
-
+                /* Intermediate EM iterations may use a shorter budget after the burn-in, and the warm chains need less burn-in */
+                int steps = mcmcSteps;
+                int iterationBurnin = burnin;
+                if (!lastIteration && emStepsPerIteration > 0) {
+                    iterationBurnin = i == 0 ? burnin : emStepsPerIteration / 10;
+                    steps = iterationBurnin + emStepsPerIteration;
+                } else if (i > 0) {
+                    iterationBurnin = Math.min(burnin, steps / 10);
                 }
 
-                long oldPossibilities = fixedAlphaBetaScore.getNeighborhoodSize();
-                long r = rnd.nextLong();
-                fixedAlphaBetaScore.proposeNewState(r);
-                double newScore = fixedAlphaBetaScore.getScore();
-                long newPossibilities = fixedAlphaBetaScore.getNeighborhoodSize();
-
-                double acceptProb = Math.exp(newScore - score) * (double) oldPossibilities / (double) newPossibilities; /* last quotient is the hasting ratio */
-
-                double u = rnd.nextDouble();
-                if (u >= acceptProb) {
-                    fixedAlphaBetaScore.undoProposal();
-                    numRejects++;
-                } else {
-                    score = newScore;
-                    numAccepts++;
+                /* The chains at temperature 1, whose records are reported */
+                List<MgsaChain> chains = new ArrayList<>(numChains);
+                List<MgsaChain> replicas = new ArrayList<>(numReplicas);
+                List<MgsaReplicaExchange> ladders = new ArrayList<>(numChains);
+                for (int r = 0; r < numReplicas; r++) {
+                    int k = r % numTemperatures;
+                    /* Only the cold replica stops early in adaptive mode, the hot ones follow it */
+                    MgsaChain replica = new MgsaChain(r, scores.get(r), chainRnds.get(r), steps, iterationBurnin, updateReportTime,
+                            k == 0 ? convergenceTolerance : Double.NaN);
+                    replica.setTemperature(temperatures[k]);
+                    if (k == 0) {
+                        replica.setListener(samplerListener);
+                        chains.add(replica);
+                    }
+                    replicas.add(replica);
+                }
+                if (i == firstIteration && resume != null) {
+                    for (int r = 0; r < numReplicas; r++)
+                        restoreChain(resume, r, replicas.get(r));
+                }
+                if (numTemperatures > 1) {
+                    for (int c = 0; c < numChains; c++)
+                        ladders.add(new MgsaReplicaExchange(replicas.subList(c * numTemperatures, (c + 1) * numTemperatures), swapInterval));
                 }
-                //System.err.println("t="+t);
-                if (t > burnin)
-                    fixedAlphaBetaScore.record();
+                runChains(replicas, ladders, executor, checkpointFile, index, i, lastIteration, alpha, beta, expectedNumberOfTerms);
+                for (MgsaReplicaExchange ladder : ladders)
+                    logger.log(INFO, ladder.getSummary());
 
-            }
+                double oldAlpha = alpha;
+                double oldBeta = beta;
+                double oldExpectedNumberOfTerms = expectedNumberOfTerms;
 
-            if (fixedAlphaBetaScore != null) {
                 if (doAlphaEm) {
-                    double newAlpha = fixedAlphaBetaScore.getAvgN10() / (fixedAlphaBetaScore.getAvgN00() + fixedAlphaBetaScore.getAvgN10());
+                    double avgN00 = pooledAverage(chains, FixedAlphaBetaScore::getAvgN00);
+                    double avgN10 = pooledAverage(chains, FixedAlphaBetaScore::getAvgN10);
+                    double newAlpha = avgN10 / (avgN00 + avgN10);
                     if (newAlpha < 0.0000001) newAlpha = 0.0000001;
                     if (newAlpha > 0.9999999) newAlpha = 0.9999999;
                     logger.log(INFO, "alpha=" + alpha + "  newAlpha=" + newAlpha);
@@ -632,7 +1300,9 @@ public class MgsaCalculation {
                 }
 
                 if (doBetaEm) {
-                    double newBeta = fixedAlphaBetaScore.getAvgN01() / (fixedAlphaBetaScore.getAvgN01() + fixedAlphaBetaScore.getAvgN11());
+                    double avgN01 = pooledAverage(chains, FixedAlphaBetaScore::getAvgN01);
+                    double avgN11 = pooledAverage(chains, FixedAlphaBetaScore::getAvgN11);
+                    double newBeta = avgN01 / (avgN01 + avgN11);
                     if (newBeta < 0.0000001) newBeta = 0.0000001;
                     if (newBeta > 0.9999999) newBeta = 0.9999999;
                     logger.log(INFO, "beta=" + beta + "  newBeta=" + newBeta);
@@ -640,63 +1310,354 @@ public class MgsaCalculation {
                 }
 
                 if (doPEm) {
-                    double newExpectedNumberOfTerms = fixedAlphaBetaScore.getAvgT();
+                    double newExpectedNumberOfTerms = pooledAverage(chains, FixedAlphaBetaScore::getAvgT);
                     if (newExpectedNumberOfTerms < 0.0000001) newExpectedNumberOfTerms = 0.0000001;
                     logger.log(INFO, "expectedNumberOfTerms=" + expectedNumberOfTerms + "  newExpectedNumberOfTerms=" + newExpectedNumberOfTerms);
                     expectedNumberOfTerms = newExpectedNumberOfTerms;
                 }
-            }
 
-            if (i == maxIter - 1) {
-                for (int t = 0; t < numTerms; t++) {
-                    res[t] = fixedAlphaBetaScore.termActivationCounts[t] / fixedAlphaBetaScore.numRecords;
+                if (lastIteration)
+                    posterior = coldPosterior(chains, numTerms);
+
+                logParameterDistributions(chains, alpha, beta, expectedNumberOfTerms);
+                for (MgsaChain chain : chains)
+                    logChainSummary(chain);
+
+                if (lastIteration)
+                    break;
+
+                if (doEm && !Double.isNaN(emTolerance) &&
+                        !hasChanged(oldAlpha, alpha, emTolerance) &&
+                        !hasChanged(oldBeta, beta, emTolerance) &&
+                        !hasChanged(oldExpectedNumberOfTerms, expectedNumberOfTerms, emTolerance * Math.max(1, oldExpectedNumberOfTerms))) {
+                    logger.log(INFO, "EM converged after " + (i + 1) + " iterations");
+                    lastIteration = true;
                 }
             }
+        } finally {
+            if (executor != null)
+                executor.shutdown();
+        }
+        return posterior != null ? posterior : new Posterior(new double[numTerms], null, null);
+    }
 
-            if (fixedAlphaBetaScore != null) {
-                if (Double.isNaN(alpha)) {
-                    for (int j = 0; j < fixedAlphaBetaScore.totalAlpha.length; j++)
-                        logger.log(INFO, "alpha(" + fixedAlphaBetaScore.ALPHA[j] + ")=" + (double) fixedAlphaBetaScore.totalAlpha[j] / fixedAlphaBetaScore.numRecords);
-                }
+    /**
+     * Approximates the marginals with the variational engine. Fixed parameters are used as they are,
+     * all others are inferred.
+     *
+     * @param index
+     * @param observedItems
+     * @return the activation probabilities, without diagnostics.
+     */
+    private Posterior calculateVariationalPosterior(TermPruning pruning, boolean[] observedItems) {
+        MgsaVariationalBayes vb = new MgsaVariationalBayes(pruning.getIndex(), observedItems);
+        vb.setTermMultiplicities(pruning.getMultiplicities());
+        if (alpha.isFixed())
+            vb.setAlpha(alpha.getValue());
+        if (beta.isFixed())
+            vb.setBeta(beta.getValue());
+        if (expectedNumberOfTerms.isFixed())
+            vb.setExpectedNumberOfTerms(expectedNumberOfTerms.getValue());
+        vb.setUsePrior(usePrior);
+        double[] marginals = vb.run(vbMaxIterations, vbTolerance);
+        logger.log(INFO, "Variational Bayes " + (vb.hasConverged() ? "converged" : "did not converge") + " after " +
+                vb.getIterations() + " iterations (alpha=" + vb.getAlpha() + " beta=" + vb.getBeta() + " p=" + vb.getP() + ")");
+        return new Posterior(marginals, null, Collections.emptyList());
+    }
 
-                if (Double.isNaN(beta)) {
-                    for (int j = 0; j < fixedAlphaBetaScore.totalBeta.length; j++)
-                        logger.log(INFO, "beta(" + fixedAlphaBetaScore.BETA[j] + ")=" + (double) fixedAlphaBetaScore.totalBeta[j] / fixedAlphaBetaScore.numRecords);
-                }
+    /**
+     * Samples the posterior with one chain per connected component of the terms.
+     *
+     * @param pruning        the terms that take part in the calculation
+     * @param observedItems
+     * @param parallelChains whether the chains of the components are run on several threads
+     * @param rnd            the random source of the calculation
+     * @return the marginals, without diagnostics.
+     */
+    private Posterior calculateComponentPosterior(TermPruning pruning, boolean[] observedItems, boolean parallelChains,
+                                                  RandomSource rnd) {
+        MgsaComponentSampler sampler = new MgsaComponentSampler(pruning.getIndex(), pruning.getMultiplicities(), observedItems, rnd);
+        if (alpha.isFixed())
+            sampler.setAlpha(alpha.getValue());
+        if (alpha.hasMax())
+            sampler.setMaxAlpha(alpha.getMax());
+        if (beta.isFixed())
+            sampler.setBeta(beta.getValue());
+        if (beta.hasMax())
+            sampler.setMaxBeta(beta.getMax());
+        if (expectedNumberOfTerms.isFixed())
+            sampler.setExpectedNumberOfTerms(expectedNumberOfTerms.getValue());
+        sampler.setUsePrior(usePrior);
+        int numThreads = parallelChains ? Runtime.getRuntime().availableProcessors() : 1;
+        double[] marginals = sampler.run(mcmcSteps, Math.min(burnin, mcmcSteps / 2), componentRoundSteps, numThreads,
+                updateReportTime);
+        return new Posterior(marginals, null, Collections.emptyList());
+    }
 
-                if (Double.isNaN(expectedNumberOfTerms)) {
-                    for (int j = 0; j < fixedAlphaBetaScore.totalExp.length; j++)
-                        logger.log(INFO, "exp(" + fixedAlphaBetaScore.EXPECTED_NUMBER_OF_TERMS[j] + ")=" + (double) fixedAlphaBetaScore.totalExp[j] / fixedAlphaBetaScore.numRecords);
+    private boolean useComponentDecomposition() {
+        return decomposeComponents && !integrateParams;
+    }
 
-                }
+    /**
+     * @return whether a parameter changed by more than the tolerance (parameters that are not estimated are NaN).
+     */
+    private static boolean hasChanged(double oldValue, double newValue, double tolerance) {
+        if (Double.isNaN(oldValue) && Double.isNaN(newValue))
+            return false;
+        return !(Math.abs(newValue - oldValue) <= tolerance);
+    }
+
+    /**
+     * Creates a new score object for one chain that starts from the empty (or, if requested, a random) state.
+     */
+    private FixedAlphaBetaScore createScore(RandomSource rnd, TermGeneIndex index, int[] multiplicities, boolean[] observedItems,
+                                            double alpha, double beta, double expectedNumberOfTerms) {
+        FixedAlphaBetaScore fixedAlphaBetaScore = new FixedAlphaBetaScore(rnd, index, observedItems);
+        fixedAlphaBetaScore.setTermMultiplicities(multiplicities);
+        fixedAlphaBetaScore.setIntegrateParams(integrateParams);
+        fixedAlphaBetaScore.setAlpha(alpha);
+        if (this.alpha.hasMax())
+            fixedAlphaBetaScore.setMaxAlpha(this.alpha.getMax());
+        fixedAlphaBetaScore.setBeta(beta);
+        if (this.beta.hasMax())
+            fixedAlphaBetaScore.setMaxBeta(this.beta.getMax());
+        fixedAlphaBetaScore.setExpectedNumberOfTerms(expectedNumberOfTerms);
+        fixedAlphaBetaScore.setUsePrior(usePrior);
+
+        logger.log(INFO, "Score of empty set: " + fixedAlphaBetaScore.getScore());
+
+        /* Provide a starting point */
+        if (randomStart) {
+            int numberOfTerms = fixedAlphaBetaScore.EXPECTED_NUMBER_OF_TERMS[rnd.nextInt(fixedAlphaBetaScore.EXPECTED_NUMBER_OF_TERMS.length)];
+            double pForStart = ((double) numberOfTerms) / index.getNumTerms();
+
+            for (int j = 0; j < index.getNumTerms(); j++)
+                if (rnd.nextDouble() < pForStart) fixedAlphaBetaScore.switchState(j);
+
+            logger.log(INFO, "Starting with " + fixedAlphaBetaScore.getActiveTerms().length + " terms (p=" + pForStart + ")");
+        }
+        logger.log(INFO, "Score of initial set: " + fixedAlphaBetaScore.getScore());
+        return fixedAlphaBetaScore;
+    }
+
+    private static void restoreChain(MgsaCheckpoint resume, int c, MgsaChain chain) {
+        try {
+            resume.restoreChain(c, chain);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Runs the given chains to completion. If a checkpoint file is given, the chains are paused every
+     * {@link #checkpointInterval} steps and their state is written together with the state of the
+     * EM iteration. If replica exchange ladders are given (which then contain all chains), the
+     * chains are also paused at every swap step to exchange the states of the replicas.
+     */
+    private void runChains(List<MgsaChain> chains, List<MgsaReplicaExchange> ladders, ExecutorService executor,
+                           Path checkpointFile, TermGeneIndex index, int iteration, boolean lastIteration,
+                           double alpha, double beta, double expectedNumberOfTerms) {
+        if (checkpointFile == null && ladders.isEmpty()) {
+            runChains(chains, executor);
+            return;
+        }
+        /* The cold replicas are the ones that determine when to stop and when to write a checkpoint */
+        List<MgsaChain> coldChains = chains;
+        if (!ladders.isEmpty()) {
+            coldChains = new ArrayList<>(ladders.size());
+            for (MgsaReplicaExchange ladder : ladders)
+                coldChains.add(ladder.getColdChain());
+        }
+        int interval = checkpointFile == null ? Integer.MAX_VALUE - mcmcSteps : checkpointInterval;
+        int nextCheckpoint = maxStepsRun(coldChains) + interval;
+        while (true) {
+            boolean finished = true;
+            for (MgsaChain chain : coldChains) {
+                chain.setPauseStep(chain.getStepsRun() + interval);
+                finished &= chain.isFinished();
+            }
+            for (MgsaReplicaExchange ladder : ladders)
+                ladder.setPauseStep(ladder.getColdChain().getStepsRun() + interval);
+            if (finished)
+                break;
+            runChains(chains, executor);
+            for (MgsaReplicaExchange ladder : ladders)
+                ladder.swap();
+            if (checkpointFile == null || maxStepsRun(coldChains) < nextCheckpoint && !allFinished(coldChains))
+                continue;
+            nextCheckpoint = maxStepsRun(coldChains) + interval;
+            try {
+                MgsaCheckpoint.write(checkpointFile, index, iteration, lastIteration, alpha, beta, expectedNumberOfTerms, chains);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write checkpoint " + checkpointFile, e);
             }
+        }
+    }
 
-            logger.log(INFO, "numAccepts=" + numAccepts + "  numRejects = " + numRejects);
+    private static int maxStepsRun(List<MgsaChain> chains) {
+        int max = 0;
+        for (MgsaChain chain : chains)
+            max = Math.max(max, chain.getStepsRun());
+        return max;
+    }
 
-            if (logger.isLoggable(INFO)) {
-                StringBuilder b = new StringBuilder();
+    private static boolean allFinished(List<MgsaChain> chains) {
+        for (MgsaChain chain : chains)
+            if (!chain.isFinished())
+                return false;
+        return true;
+    }
 
-                logger.log(INFO, "Term combination that reaches score of " + maxScore +
-                        " when alpha=" + maxScoredAlpha +
-                        ", beta=" + maxScoredBeta +
-                        ", p=" + maxScoredP +
-                        " at step " + maxWhenSeen);
-                b.append("Indices: ");
-                for (int t : maxScoredTerms) {
-                    b.append(t);
-                    b.append(", ");
-                }
-                logger.log(INFO, b.toString());
+    /**
+     * Runs the given chains to completion (or to their pause step), in parallel if an executor is given.
+     */
+    private static void runChains(List<MgsaChain> chains, ExecutorService executor) {
+        if (executor == null) {
+            for (MgsaChain chain : chains)
+                chain.run();
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>(chains.size());
+        for (MgsaChain chain : chains)
+            futures.add(executor.submit(chain));
+        try {
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Future<?> future : futures)
+                future.cancel(true);
+            throw new RuntimeException("MGSA calculation was interrupted", e);
+        } catch (ExecutionException e) {
+            for (Future<?> future : futures)
+                future.cancel(true);
+            throw new RuntimeException("MCMC chain failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * @return the average of the given per-chain statistic over all chains.
+     */
+    private static double pooledAverage(List<MgsaChain> chains, ToDoubleFunction<FixedAlphaBetaScore> statistic) {
+        double sum = 0;
+        for (MgsaChain chain : chains)
+            sum += statistic.applyAsDouble(chain.getScore());
+        return sum / chains.size();
+    }
+
+    private void logParameterDistributions(List<MgsaChain> chains, double alpha, double beta, double expectedNumberOfTerms) {
+        if (!logger.isLoggable(INFO))
+            return;
+        FixedAlphaBetaScore first = chains.get(0).getScore();
+        long numRecords = 0;
+        for (MgsaChain chain : chains)
+            numRecords += chain.getNumRecords();
+
+        if (Double.isNaN(alpha)) {
+            for (int j = 0; j < first.totalAlpha.length; j++) {
+                long total = 0;
+                for (MgsaChain chain : chains)
+                    total += chain.getScore().totalAlpha[j];
+                logger.log(INFO, "alpha(" + first.ALPHA[j] + ")=" + (double) total / numRecords);
             }
         }
-        return res;
 
+        if (Double.isNaN(beta)) {
+            for (int j = 0; j < first.totalBeta.length; j++) {
+                long total = 0;
+                for (MgsaChain chain : chains)
+                    total += chain.getScore().totalBeta[j];
+                logger.log(INFO, "beta(" + first.BETA[j] + ")=" + (double) total / numRecords);
+            }
+        }
+
+        if (Double.isNaN(expectedNumberOfTerms)) {
+            for (int j = 0; j < first.totalExp.length; j++) {
+                long total = 0;
+                for (MgsaChain chain : chains)
+                    total += chain.getScore().totalExp[j];
+                logger.log(INFO, "exp(" + first.EXPECTED_NUMBER_OF_TERMS[j] + ")=" + (double) total / numRecords);
+            }
+        }
+    }
+
+    private static void logChainSummary(MgsaChain chain) {
+        logger.log(INFO, "Chain " + chain.getChainId() + ": numAccepts=" + chain.getNumAccepts() + "  numRejects = " + chain.getNumRejects() +
+                "  steps=" + chain.getStepsRun() + "  burnin=" + chain.getBurnin());
+
+        if (logger.isLoggable(INFO)) {
+            StringBuilder b = new StringBuilder();
+
+            logger.log(INFO, "Term combination that reaches score of " + chain.getMaxScore() +
+                    " when alpha=" + chain.getMaxScoredAlpha() +
+                    ", beta=" + chain.getMaxScoredBeta() +
+                    ", p=" + chain.getMaxScoredP() +
+                    " at step " + chain.getMaxWhenSeen());
+            b.append("Indices: ");
+            for (int t : chain.getMaxScoredTerms()) {
+                b.append(t);
+                b.append(", ");
+            }
+            logger.log(INFO, b.toString());
+        }
     }
 
     public double[] calculate(int[][] term2Items, int[] studyIds, int numItems) {
         boolean[] observedItems = new boolean[numItems];
         for (int i = 0; i < studyIds.length; i++)
             observedItems[studyIds[i]] = true;
-        return calculate(term2Items, observedItems);
+        return calculate(TermGeneIndex.fromTermLinks(term2Items, numItems), observedItems);
+    }
+
+    /**
+     * @param chains   the chains at temperature 1 after their final run
+     * @param numTerms number of terms of the chains
+     * @return the pooled marginals, diagnostics and metrics of the chains, together with their final states.
+     */
+    private Posterior coldPosterior(List<MgsaChain> chains, int numTerms) {
+        double[] marginals = new double[numTerms];
+        long numRecords = 0;
+        for (MgsaChain chain : chains)
+            numRecords += chain.getNumRecords();
+        for (int t = 0; t < numTerms; t++) {
+            long count = 0;
+            for (MgsaChain chain : chains)
+                count += chain.getActivationCount(t);
+            marginals[t] = (double) count / numRecords;
+        }
+        MgsaConvergenceDiagnostics diagnostics = MgsaConvergenceDiagnostics.fromChains(chains);
+        List<MgsaSamplerMetrics> metrics = new ArrayList<>(chains.size());
+        List<FixedAlphaBetaScore> scores = new ArrayList<>(chains.size());
+        for (MgsaChain chain : chains) {
+            metrics.add(chain.getMetrics());
+            scores.add(chain.getScore());
+        }
+        logger.log(INFO, "Sampler metrics: " + MgsaSamplerMetrics.toJson(metrics));
+        if (chains.size() > 1)
+            logger.log(INFO, "max R-hat=" + diagnostics.getMaxRHat() + "  min ESS=" + diagnostics.getMinEss());
+        return new Posterior(marginals, diagnostics, metrics, scores);
+    }
+
+    /**
+     * Term marginals of a calculation together with the diagnostics and metrics of the chains that produced them.
+     */
+    private static class Posterior {
+        final double[] marginals;
+        final MgsaConvergenceDiagnostics diagnostics;
+        final List<MgsaSamplerMetrics> metrics;
+        /** Final states of the chains at temperature 1, or null if the posterior has not been sampled by chains */
+        final List<FixedAlphaBetaScore> scores;
+
+        Posterior(double[] marginals, MgsaConvergenceDiagnostics diagnostics, List<MgsaSamplerMetrics> metrics) {
+            this(marginals, diagnostics, metrics, null);
+        }
+
+        Posterior(double[] marginals, MgsaConvergenceDiagnostics diagnostics, List<MgsaSamplerMetrics> metrics,
+                  List<FixedAlphaBetaScore> scores) {
+            this.marginals = marginals;
+            this.diagnostics = diagnostics;
+            this.metrics = metrics;
+            this.scores = scores;
+        }
     }
 }
@@ -0,0 +1,666 @@
+package org.jax.gotools.mgsa;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.INFO;
+
+/**
+ * A single Metropolis-Hastings chain over a {@link FixedAlphaBetaScore}. Each chain owns its score
+ * object and its random source, so that several chains can be run on different threads against the
+ * same (read-only) term links and observations.
+ * <p>
+ * Besides the activation counts that are kept by the score, the chain collects batch statistics
+ * of the term activations after the burn-in. These are used by {@link MgsaConvergenceDiagnostics}
+ * to compute the effective sample size of each term.
+ * <p>
+ * If a convergence tolerance is given, the chain runs in adaptive mode. The burn-in then ends as
+ * soon as the mean score of a window of steps no longer increases significantly (but at the latest
+ * after the given number of burn-in steps), and the chain stops before the maximum number of steps
+ * once the Monte Carlo standard error of every running term marginal, estimated from the batch
+ * means, is at most the tolerance. The batches then have a fixed size of a tenth of the check
+ * interval, so that each check sees complete batches however large the maximum number of steps is.
+ * <p>
+ * A chain can be paused after a given step (see {@link #setPauseStep(int)}) and continued by
+ * another call to {@link #run()}. The complete state of a paused chain, including its random
+ * source, can be written with {@link #writeState(DataOutput)} and restored into a new chain with
+ * the same settings, which then continues exactly as the original chain would have.
+ * <p>
+ * The chain keeps {@link MgsaSamplerMetrics} at little cost: move and activation counters are
+ * plain increments, while the clock is read only every {@link #SAMPLE_INTERVAL} steps.
+ * <p>
+ * A chain may sample a tempered target, i.e., the score divided by a temperature larger than 1.
+ * Such chains are the hot replicas of a {@link MgsaReplicaExchange}, which exchanges their states
+ * with those of the colder chains.
+ */
+class MgsaChain implements Runnable {
+    private static final Logger logger = Logger.getLogger(MgsaChain.class.getName());
+
+    /** Number of batches into which the recorded steps are divided for the batch means. */
+    static final int DEFAULT_NUM_BATCHES = 50;
+
+    /** Size of the windows of steps whose mean scores are compared to detect the end of the burn-in. */
+    static final int BURNIN_WINDOW = 1000;
+
+    /** Number of recorded steps between two convergence checks in adaptive mode. */
+    static final int CONVERGENCE_CHECK_INTERVAL = 5000;
+
+    /** Number of recorded steps of a batch in adaptive mode. */
+    static final int ADAPTIVE_BATCH_SIZE = CONVERGENCE_CHECK_INTERVAL / 10;
+
+    /** Number of steps after which the incrementally updated score is recalculated from scratch. */
+    static final int RESYNC_INTERVAL = 100_000;
+
+    /** Number of steps between two readings of the clock (a power of two). */
+    static final int SAMPLE_INTERVAL = 1 << 12;
+
+    private final int chainId;
+    private final FixedAlphaBetaScore score;
+    private final RandomSource rnd;
+    private final int mcmcSteps;
+    /** Maximum number of burn-in steps */
+    private final int burnin;
+    private final int updateReportTime;
+    /** Maximal standard error of the running marginals for convergence, or NaN for a fixed number of steps */
+    private final double tolerance;
+
+    /** Step after which states are recorded (-1 while the burn-in has not been detected yet) */
+    private int burninEnd;
+    /** Number of steps that have actually been run */
+    private int stepsRun;
+    private boolean converged;
+    /** The chain pauses once this number of steps has been run */
+    private int pauseStep = Integer.MAX_VALUE;
+
+    private final int batchSize;
+    /** Activation counts at the end of the previous batch */
+    private final int[] countsAtLastBatch;
+    /** Sum of the squared per-batch activation counts of each term */
+    private final double[] sumSquaredBatchCounts;
+    private int numBatches;
+    private int recordsInBatch;
+    /* Sums of the recorded scores and of their squares, and sums of the batch means of the scores and of their squares */
+    private double recordedScoreSum;
+    private double recordedScoreSumSquares;
+    private double batchScoreSum;
+    private double sumBatchScoreMeans;
+    private double sumSquaredBatchScoreMeans;
+
+    /* Sums of the scores in the current and the mean and variance of the previous burn-in window */
+    private double windowSum;
+    private double windowSumSquares;
+    private double previousWindowMean = Double.NaN;
+    private double previousWindowVar = Double.NaN;
+
+    private double currentScore;
+    /** One divided by the temperature of the target */
+    private double inverseTemperature = 1;
+    private int numAccepts;
+    private int numRejects;
+
+    private double maxScore;
+    /** The terms of the maximum score are maxScoredTerms[0..numMaxScoredTerms) */
+    private final int[] maxScoredTerms;
+    private int numMaxScoredTerms;
+    private boolean started;
+    private double maxScoredAlpha = Double.NaN;
+    private double maxScoredBeta = Double.NaN;
+    private double maxScoredP = Double.NaN;
+    private int maxWhenSeen = -1;
+
+    private MgsaSamplerListener listener;
+    /* Metrics of the steps run so far, which are part of the checkpointed state */
+    private final long[] moveProposals = new long[MgsaSamplerMetrics.Move.values().length];
+    private final long[] moveAccepts = new long[MgsaSamplerMetrics.Move.values().length];
+    private final long[] activeTermHistogram;
+    private long timedSteps;
+    private long elapsedNanos;
+    private long sampledProposalNanos;
+    private long sampledProposals;
+
+    /**
+     * @param chainId          number of the chain (used for logging only)
+     * @param score            the (initialized) score object that is sampled
+     * @param rnd              random source of this chain
+     * @param mcmcSteps        number of steps to perform
+     * @param burnin           number of steps before the states are recorded
+     * @param updateReportTime time between progress reports in ms
+     */
+    MgsaChain(int chainId, FixedAlphaBetaScore score, RandomSource rnd, int mcmcSteps, int burnin, int updateReportTime) {
+        this(chainId, score, rnd, mcmcSteps, burnin, updateReportTime, Double.NaN);
+    }
+
+    /**
+     * @param chainId          number of the chain (used for logging only)
+     * @param score            the (initialized) score object that is sampled
+     * @param rnd              random source of this chain
+     * @param mcmcSteps        (maximum) number of steps to perform
+     * @param burnin           (maximum) number of steps before the states are recorded
+     * @param updateReportTime time between progress reports in ms
+     * @param tolerance        maximal standard error of the marginals for adaptive mode, NaN for a fixed number of steps
+     */
+    MgsaChain(int chainId, FixedAlphaBetaScore score, RandomSource rnd, int mcmcSteps, int burnin, int updateReportTime,
+              double tolerance) {
+        this.chainId = chainId;
+        this.score = score;
+        this.rnd = rnd;
+        this.mcmcSteps = mcmcSteps;
+        this.burnin = burnin;
+        this.updateReportTime = updateReportTime;
+        this.tolerance = tolerance;
+        this.burninEnd = isAdaptive() ? -1 : burnin;
+        int numRecordedSteps = Math.max(0, mcmcSteps - burnin - 1);
+        this.batchSize = isAdaptive() ? ADAPTIVE_BATCH_SIZE : Math.max(1, numRecordedSteps / DEFAULT_NUM_BATCHES);
+        this.countsAtLastBatch = new int[score.numTerms];
+        this.sumSquaredBatchCounts = new double[score.numTerms];
+        this.maxScoredTerms = new int[score.numTerms];
+        this.activeTermHistogram = new long[score.numTerms + 1];
+    }
+
+    @Override
+    public void run() {
+        if (!started) {
+            currentScore = score.getScore();
+            maxScore = currentScore;
+            numMaxScoredTerms = score.copyActiveTerms(maxScoredTerms);
+            maxScoredAlpha = score.getAlpha();
+            maxScoredBeta = score.getBeta();
+            maxScoredP = score.getP();
+            maxWhenSeen = 0;
+            started = true;
+        }
+        if (isFinished())
+            return;
+
+        long runStart = System.nanoTime();
+        long lastReport = runStart;
+        long reportNanos = updateReportTime * 1_000_000L;
+        int firstStep = stepsRun;
+        int end = Math.min(mcmcSteps, pauseStep);
+
+        for (int t = stepsRun; t < end; t++) {
+            /* Remember maximum score and terms */
+            if (currentScore > maxScore) {
+                maxScore = currentScore;
+                numMaxScoredTerms = score.copyActiveTerms(maxScoredTerms);
+                maxScoredAlpha = score.getAlpha();
+                maxScoredBeta = score.getBeta();
+                maxScoredP = score.getP();
+                maxWhenSeen = t;
+            }
+
+            if (t % RESYNC_INTERVAL == 0) {
+                /* resynchronize the incrementally updated score */
+                currentScore = score.getScore();
+            }
+
+            long oldPossibilities = score.getNeighborhoodSize();
+            long r = rnd.nextLong();
+            if ((t & (SAMPLE_INTERVAL - 1)) == 0) {
+                long before = System.nanoTime();
+                score.proposeNewState(r);
+                long now = System.nanoTime();
+                sampledProposalNanos += now - before;
+                sampledProposals++;
+                if (now - lastReport > reportNanos) {
+                    timedSteps += t - firstStep;
+                    elapsedNanos += now - runStart;
+                    firstStep = t;
+                    runStart = now;
+                    lastReport = now;
+                    reportProgress(t);
+                }
+            } else {
+                score.proposeNewState(r);
+            }
+            double newScore = score.getNewScore(currentScore);
+            long newPossibilities = score.getNeighborhoodSize();
+            int move = score.getProposedMove();
+            moveProposals[move]++;
+
+            double acceptProb = Math.exp(inverseTemperature * (newScore - currentScore)) * (double) oldPossibilities / (double) newPossibilities; /* last quotient is the hasting ratio */
+
+            double u = rnd.nextDouble();
+            if (u >= acceptProb) {
+                score.undoProposal();
+                numRejects++;
+            } else {
+                currentScore = newScore;
+                numAccepts++;
+                moveAccepts[move]++;
+            }
+            activeTermHistogram[score.getNumActiveTerms()]++;
+
+            stepsRun = t + 1;
+
+            if (burninEnd >= 0) {
+                if (t > burninEnd) {
+                    score.record();
+                    recordedScoreSum += currentScore;
+                    recordedScoreSumSquares += currentScore * currentScore;
+                    batchScoreSum += currentScore;
+                    if (++recordsInBatch == batchSize)
+                        closeBatch();
+                    if (isAdaptive() && score.numRecords % CONVERGENCE_CHECK_INTERVAL == 0 && checkConvergence()) {
+                        logger.log(INFO, "Chain " + chainId + ": converged after " + stepsRun + " steps (burn-in " + burninEnd + ")");
+                        break;
+                    }
+                }
+            } else {
+                windowSum += currentScore;
+                windowSumSquares += currentScore * currentScore;
+                if ((t + 1) % BURNIN_WINDOW == 0) {
+                    double mean = windowSum / BURNIN_WINDOW;
+                    double var = Math.max(0, windowSumSquares / BURNIN_WINDOW - mean * mean);
+                    /* the burn-in is over once the mean score does not increase by more than two standard errors */
+                    boolean stationary = !Double.isNaN(previousWindowMean) &&
+                            mean - previousWindowMean <= 2 * Math.sqrt((var + previousWindowVar) / BURNIN_WINDOW);
+                    if (stationary || t + 1 >= burnin) {
+                        burninEnd = t;
+                        logger.log(INFO, "Chain " + chainId + ": burn-in ends at step " + burninEnd);
+                    }
+                    previousWindowMean = mean;
+                    previousWindowVar = var;
+                    windowSum = 0;
+                    windowSumSquares = 0;
+                }
+            }
+        }
+
+        timedSteps += stepsRun - firstStep;
+        elapsedNanos += System.nanoTime() - runStart;
+        if (isFinished()) {
+            score.flushRecords();
+            notifyFinished();
+        }
+    }
+
+    private void reportProgress(int t) {
+        if (logger.isLoggable(INFO)) {
+            logger.log(INFO, "Chain " + chainId + ": " + (t * 100L / mcmcSteps) + "% (score=" + currentScore + " maxScore=" + maxScore +
+                    " #terms=" + score.getNumActiveTerms() +
+                    " accept/reject=" + (double) numAccepts / (double) numRejects +
+                    " accept/steps=" + (double) numAccepts / (double) t + ")");
+        }
+        if (listener != null)
+            listener.progress(getMetrics());
+    }
+
+    private void notifyFinished() {
+        if (listener != null)
+            listener.finished(getMetrics());
+    }
+
+    /**
+     * @param listener receives the metrics of this chain, may be null
+     */
+    void setListener(MgsaSamplerListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return a snapshot of the metrics of the chain.
+     */
+    MgsaSamplerMetrics getMetrics() {
+        double switchNanos = sampledProposals > 0 ? (double) sampledProposalNanos / sampledProposals * timedSteps : 0;
+        return new MgsaSamplerMetrics(chainId, stepsRun, mcmcSteps, timedSteps, elapsedNanos,
+                moveProposals.clone(), moveAccepts.clone(), activeTermHistogram.clone(),
+                switchNanos, currentScore, maxScore);
+    }
+
+    /**
+     * Recalculates the score of the current state, e.g., after the fixed parameters of the score
+     * have been changed while the chain was paused.
+     */
+    void resyncScore() {
+        currentScore = score.getScore();
+    }
+
+    /**
+     * Lets the next call to {@link #run()} return once the given number of steps has been run.
+     *
+     * @param pauseStep number of steps after which the chain pauses
+     */
+    void setPauseStep(int pauseStep) {
+        this.pauseStep = pauseStep;
+    }
+
+    /**
+     * @return true if the chain has run all its steps or has converged.
+     */
+    boolean isFinished() {
+        return converged || stepsRun >= mcmcSteps;
+    }
+
+    /**
+     * Writes the complete state of the paused chain, including the score and the random source.
+     * Only chains that use a {@link XoroshiroRandom} can be written.
+     *
+     * @param out the destination
+     */
+    void writeState(DataOutput out) throws IOException {
+        if (!(rnd instanceof XoroshiroRandom))
+            throw new IllegalStateException("Checkpointing requires a " + XoroshiroRandom.class.getSimpleName() +
+                    " but chain " + chainId + " uses a " + rnd.getClass().getSimpleName());
+        long[] state = ((XoroshiroRandom) rnd).getState();
+        out.writeLong(state[0]);
+        out.writeLong(state[1]);
+        out.writeInt(mcmcSteps);
+        out.writeInt(burnin);
+        out.writeInt(burninEnd);
+        out.writeInt(stepsRun);
+        out.writeBoolean(converged);
+        MgsaCheckpoint.writeInts(out, countsAtLastBatch);
+        MgsaCheckpoint.writeDoubles(out, sumSquaredBatchCounts);
+        out.writeInt(numBatches);
+        out.writeInt(recordsInBatch);
+        out.writeDouble(recordedScoreSum);
+        out.writeDouble(recordedScoreSumSquares);
+        out.writeDouble(batchScoreSum);
+        out.writeDouble(sumBatchScoreMeans);
+        out.writeDouble(sumSquaredBatchScoreMeans);
+        out.writeDouble(windowSum);
+        out.writeDouble(windowSumSquares);
+        out.writeDouble(previousWindowMean);
+        out.writeDouble(previousWindowVar);
+        out.writeDouble(currentScore);
+        out.writeInt(numAccepts);
+        out.writeInt(numRejects);
+        out.writeDouble(maxScore);
+        MgsaCheckpoint.writeInts(out, getMaxScoredTerms());
+        out.writeDouble(maxScoredAlpha);
+        out.writeDouble(maxScoredBeta);
+        out.writeDouble(maxScoredP);
+        out.writeInt(maxWhenSeen);
+        MgsaCheckpoint.writeLongs(out, moveProposals);
+        MgsaCheckpoint.writeLongs(out, moveAccepts);
+        MgsaCheckpoint.writeLongs(out, activeTermHistogram);
+        out.writeLong(timedSteps);
+        out.writeLong(elapsedNanos);
+        out.writeLong(sampledProposalNanos);
+        out.writeLong(sampledProposals);
+        score.writeState(out);
+    }
+
+    /**
+     * Restores a state written by {@link #writeState(DataOutput)} into this chain, which must have
+     * been created with the same number of steps and burn-in and must not have been started.
+     *
+     * @param in the source
+     */
+    void readState(DataInput in) throws IOException {
+        if (!(rnd instanceof XoroshiroRandom))
+            throw new IllegalStateException("Checkpointing requires a " + XoroshiroRandom.class.getSimpleName());
+        if (started)
+            throw new IllegalStateException("Chain " + chainId + " has already been started");
+        long s0 = in.readLong();
+        long s1 = in.readLong();
+        int steps = in.readInt();
+        int maxBurnin = in.readInt();
+        if (steps != mcmcSteps || maxBurnin != burnin)
+            throw new IOException("Checkpoint of a chain with " + steps + " steps and burn-in " + maxBurnin +
+                    " does not match a chain with " + mcmcSteps + " steps and burn-in " + burnin);
+        ((XoroshiroRandom) rnd).setState(s0, s1);
+        burninEnd = in.readInt();
+        stepsRun = in.readInt();
+        converged = in.readBoolean();
+        MgsaCheckpoint.readInts(in, countsAtLastBatch);
+        MgsaCheckpoint.readDoubles(in, sumSquaredBatchCounts);
+        numBatches = in.readInt();
+        recordsInBatch = in.readInt();
+        recordedScoreSum = in.readDouble();
+        recordedScoreSumSquares = in.readDouble();
+        batchScoreSum = in.readDouble();
+        sumBatchScoreMeans = in.readDouble();
+        sumSquaredBatchScoreMeans = in.readDouble();
+        windowSum = in.readDouble();
+        windowSumSquares = in.readDouble();
+        previousWindowMean = in.readDouble();
+        previousWindowVar = in.readDouble();
+        currentScore = in.readDouble();
+        numAccepts = in.readInt();
+        numRejects = in.readInt();
+        maxScore = in.readDouble();
+        numMaxScoredTerms = in.readInt();
+        if (numMaxScoredTerms < 0 || numMaxScoredTerms > maxScoredTerms.length)
+            throw new IOException("Invalid number of terms " + numMaxScoredTerms);
+        for (int i = 0; i < numMaxScoredTerms; i++)
+            maxScoredTerms[i] = in.readInt();
+        started = true;
+        maxScoredAlpha = in.readDouble();
+        maxScoredBeta = in.readDouble();
+        maxScoredP = in.readDouble();
+        maxWhenSeen = in.readInt();
+        MgsaCheckpoint.readLongs(in, moveProposals);
+        MgsaCheckpoint.readLongs(in, moveAccepts);
+        MgsaCheckpoint.readLongs(in, activeTermHistogram);
+        timedSteps = in.readLong();
+        elapsedNanos = in.readLong();
+        sampledProposalNanos = in.readLong();
+        sampledProposals = in.readLong();
+        score.readState(in);
+    }
+
+    /**
+     * The Monte Carlo standard error of a marginal m is sqrt(s^2 / ESS), where s^2 = m (1 - m) and
+     * the effective sample size is estimated by batch means. A term that has not changed its state
+     * since the burn-in has no variance estimate of its own; its marginal is bounded by the rule of
+     * three, 3 / ESS, with the smallest effective sample size of the other terms and of the score
+     * trace. A chain whose score has not changed has not mixed and does not stop.
+     *
+     * @return true if at least two batches are complete and the standard error of every running
+     * marginal is at most the tolerance.
+     */
+    private boolean checkConvergence() {
+        score.flushRecords();
+        if (numBatches < 2)
+            return false;
+        double minEss = scoreEss();
+        if (!(minEss > 0))
+            return false;
+        int[] counts = score.termActivationCounts;
+        int n = score.numRecords;
+        double maxError = 0;
+        boolean constantTerm = false;
+        for (int i = 0; i < counts.length; i++) {
+            double m = (double) counts[i] / n;
+            double s2 = m * (1 - m) * n / (n - 1);
+            if (s2 == 0) {
+                constantTerm = true;
+                continue;
+            }
+            double ess = MgsaConvergenceDiagnostics.batchMeansEss(this, i, s2);
+            minEss = Math.min(minEss, ess);
+            maxError = Math.max(maxError, Math.sqrt(s2 / ess));
+        }
+        if (constantTerm)
+            maxError = Math.max(maxError, 3 / minEss);
+        converged = maxError <= tolerance;
+        return converged;
+    }
+
+    /**
+     * @return the batch means estimate of the effective sample size of the recorded scores, 0 if
+     * the score has not changed.
+     */
+    private double scoreEss() {
+        int n = score.numRecords;
+        double mean = recordedScoreSum / n;
+        double s2 = (recordedScoreSumSquares - n * mean * mean) / (n - 1);
+        if (!(s2 > 0))
+            return 0;
+        double batchMean = sumBatchScoreMeans / numBatches;
+        double varOfBatchMeans = (sumSquaredBatchScoreMeans - numBatches * batchMean * batchMean) / (numBatches - 1);
+        double sigma2 = batchSize * varOfBatchMeans;
+        if (sigma2 <= 0)
+            return n;
+        return Math.min(n, n * s2 / sigma2);
+    }
+
+    private boolean isAdaptive() {
+        return !Double.isNaN(tolerance);
+    }
+
+    /**
+     * @return the number of steps that have been run (smaller than the maximum if the chain converged early).
+     */
+    int getStepsRun() {
+        return stepsRun;
+    }
+
+    /**
+     * @return the step after which the states were recorded, or -1 if the burn-in did not end.
+     */
+    int getBurnin() {
+        return burninEnd;
+    }
+
+    /**
+     * @return true if the chain stopped early because the marginals converged.
+     */
+    boolean hasConverged() {
+        return converged;
+    }
+
+    /**
+     * Accumulates the activation counts of the batch that has just been completed.
+     */
+    private void closeBatch() {
+        score.flushRecords();
+        int[] counts = score.termActivationCounts;
+        for (int i = 0; i < counts.length; i++) {
+            double d = counts[i] - countsAtLastBatch[i];
+            sumSquaredBatchCounts[i] += d * d;
+            countsAtLastBatch[i] = counts[i];
+        }
+        double scoreMean = batchScoreSum / batchSize;
+        sumBatchScoreMeans += scoreMean;
+        sumSquaredBatchScoreMeans += scoreMean * scoreMean;
+        batchScoreSum = 0;
+        numBatches++;
+        recordsInBatch = 0;
+    }
+
+    /**
+     * @param temperature temperature of the target (1 samples the posterior, smaller values
+     *                    concentrate the chain on the modes, as in simulated annealing)
+     */
+    void setTemperature(double temperature) {
+        if (!(temperature > 0))
+            throw new IllegalArgumentException("Temperature must be positive but was " + temperature);
+        this.inverseTemperature = 1 / temperature;
+    }
+
+    double getTemperature() {
+        return 1 / inverseTemperature;
+    }
+
+    /**
+     * Proposes to exchange the states of two started chains and accepts the exchange with the
+     * Metropolis probability of the product of their tempered targets.
+     *
+     * @param a a chain
+     * @param b a chain at another temperature
+     * @param u uniform random number in [0,1)
+     * @return whether the states have been exchanged
+     */
+    static boolean exchangeStates(MgsaChain a, MgsaChain b, double u) {
+        double acceptProb = Math.exp((a.inverseTemperature - b.inverseTemperature) * (b.currentScore - a.currentScore));
+        if (u >= acceptProb)
+            return false;
+        a.score.exchangeState(b.score);
+        double s = a.currentScore;
+        a.currentScore = b.currentScore;
+        b.currentScore = s;
+        return true;
+    }
+
+    RandomSource getRandomSource() {
+        return rnd;
+    }
+
+    FixedAlphaBetaScore getScore() {
+        return score;
+    }
+
+    int getChainId() {
+        return chainId;
+    }
+
+    /**
+     * @return the number of recorded (post burn-in) steps.
+     */
+    int getNumRecords() {
+        return score.numRecords;
+    }
+
+    /**
+     * @param term index of the term
+     * @return how often the term was active in the recorded steps.
+     */
+    int getActivationCount(int term) {
+        return score.getActivationCount(term);
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return number of completed batches.
+     */
+    int getNumBatches() {
+        return numBatches;
+    }
+
+    /**
+     * @param term index of the term
+     * @return the number of activations of the term within the completed batches.
+     */
+    int getBatchedActivationCount(int term) {
+        return countsAtLastBatch[term];
+    }
+
+    /**
+     * @param term index of the term
+     * @return the sum of the squared activation counts of the term per completed batch.
+     */
+    double getSumSquaredBatchCounts(int term) {
+        return sumSquaredBatchCounts[term];
+    }
+
+    int getNumAccepts() {
+        return numAccepts;
+    }
+
+    int getNumRejects() {
+        return numRejects;
+    }
+
+    double getMaxScore() {
+        return maxScore;
+    }
+
+    int[] getMaxScoredTerms() {
+        return Arrays.copyOf(maxScoredTerms, numMaxScoredTerms);
+    }
+
+    double getMaxScoredAlpha() {
+        return maxScoredAlpha;
+    }
+
+    double getMaxScoredBeta() {
+        return maxScoredBeta;
+    }
+
+    double getMaxScoredP() {
+        return maxScoredP;
+    }
+
+    int getMaxWhenSeen() {
+        return maxWhenSeen;
+    }
+}
@@ -0,0 +1,195 @@
+package org.jax.gotools.mgsa;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Complete state of an MGSA calculation at a point where all chains have been paused: the EM
+ * iteration, the current parameters and, for each chain, its random source, its score (term
+ * partition, parameter indices, activation counts and totals) and its statistics. A calculation
+ * that is resumed from a checkpoint continues exactly as the original calculation would have.
+ * <p>
+ * The file is a compact binary (big-endian) format that starts with a magic number and a version.
+ * It is written to a temporary file first and then moved over the previous checkpoint, so that an
+ * interrupted write does not destroy the last complete checkpoint.
+ */
+final class MgsaCheckpoint {
+
+    private static final int MAGIC = 0x4d475341; /* "MGSA" */
+    private static final int VERSION = 3;
+
+    final int numTerms;
+    final int numGenes;
+    /** Index of the EM iteration that was running */
+    final int iteration;
+    /** Whether the running iteration is the last one */
+    final boolean lastIteration;
+    final double alpha;
+    final double beta;
+    final double expectedNumberOfTerms;
+    /** Serialized state of each chain, see {@link MgsaChain#writeState(DataOutput)} */
+    private final List<byte[]> chainStates;
+
+    private MgsaCheckpoint(int numTerms, int numGenes, int iteration, boolean lastIteration,
+                           double alpha, double beta, double expectedNumberOfTerms, List<byte[]> chainStates) {
+        this.numTerms = numTerms;
+        this.numGenes = numGenes;
+        this.iteration = iteration;
+        this.lastIteration = lastIteration;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.expectedNumberOfTerms = expectedNumberOfTerms;
+        this.chainStates = chainStates;
+    }
+
+    /**
+     * Writes the state of the paused chains.
+     *
+     * @param file                  the checkpoint file (replaced if it exists)
+     * @param index                 the term to gene links of the calculation
+     * @param iteration             index of the running EM iteration
+     * @param lastIteration         whether the running iteration is the last one
+     * @param alpha                 current alpha (NaN if sampled)
+     * @param beta                  current beta (NaN if sampled)
+     * @param expectedNumberOfTerms current expected number of terms (NaN if sampled)
+     * @param chains                the chains, none of which may be running
+     */
+    static void write(Path file, TermGeneIndex index, int iteration, boolean lastIteration,
+                      double alpha, double beta, double expectedNumberOfTerms, List<MgsaChain> chains) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            DataOutputStream out = new DataOutputStream(os);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(index.getNumTerms());
+            out.writeInt(index.getNumGenes());
+            out.writeInt(iteration);
+            out.writeBoolean(lastIteration);
+            out.writeDouble(alpha);
+            out.writeDouble(beta);
+            out.writeDouble(expectedNumberOfTerms);
+            out.writeInt(chains.size());
+            for (MgsaChain chain : chains) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                chain.writeState(new DataOutputStream(bytes));
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+            }
+            out.flush();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a checkpoint that has been written by {@link #write}.
+     *
+     * @param file the checkpoint file
+     * @return the checkpoint
+     * @throws IOException if the file cannot be read or is not a checkpoint
+     */
+    static MgsaCheckpoint read(Path file) throws IOException {
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(file))) {
+            DataInputStream in = new DataInputStream(is);
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not an MGSA checkpoint");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported MGSA checkpoint version " + version + " in " + file);
+            int numTerms = in.readInt();
+            int numGenes = in.readInt();
+            int iteration = in.readInt();
+            boolean lastIteration = in.readBoolean();
+            double alpha = in.readDouble();
+            double beta = in.readDouble();
+            double expectedNumberOfTerms = in.readDouble();
+            int numChains = in.readInt();
+            List<byte[]> chainStates = new ArrayList<>(numChains);
+            for (int c = 0; c < numChains; c++) {
+                byte[] state = new byte[in.readInt()];
+                in.readFully(state);
+                chainStates.add(state);
+            }
+            return new MgsaCheckpoint(numTerms, numGenes, iteration, lastIteration, alpha, beta, expectedNumberOfTerms,
+                    Collections.unmodifiableList(chainStates));
+        }
+    }
+
+    int getNumChains() {
+        return chainStates.size();
+    }
+
+    /**
+     * Restores the state of a chain that has been created with the same settings as the checkpointed one.
+     *
+     * @param c     number of the chain
+     * @param chain the (not yet started) chain
+     */
+    void restoreChain(int c, MgsaChain chain) throws IOException {
+        chain.readState(new DataInputStream(new ByteArrayInputStream(chainStates.get(c))));
+    }
+
+    static void writeInts(DataOutput out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int v : values)
+            out.writeInt(v);
+    }
+
+    /**
+     * Reads an array written by {@link #writeInts} into the given array, whose length must match.
+     */
+    static void readInts(DataInput in, int[] values) throws IOException {
+        checkLength(in.readInt(), values.length);
+        for (int i = 0; i < values.length; i++)
+            values[i] = in.readInt();
+    }
+
+    static void writeLongs(DataOutput out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long v : values)
+            out.writeLong(v);
+    }
+
+    /**
+     * Reads an array written by {@link #writeLongs} into the given array, whose length must match.
+     */
+    static void readLongs(DataInput in, long[] values) throws IOException {
+        checkLength(in.readInt(), values.length);
+        for (int i = 0; i < values.length; i++)
+            values[i] = in.readLong();
+    }
+
+    static void writeDoubles(DataOutput out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double v : values)
+            out.writeDouble(v);
+    }
+
+    /**
+     * Reads an array written by {@link #writeDoubles} into the given array, whose length must match.
+     */
+    static void readDoubles(DataInput in, double[] values) throws IOException {
+        checkLength(in.readInt(), values.length);
+        for (int i = 0; i < values.length; i++)
+            values[i] = in.readDouble();
+    }
+
+    private static void checkLength(int length, int expected) throws IOException {
+        if (length != expected)
+            throw new IOException("Checkpoint does not match the calculation: expected " + expected + " values but found " + length);
+    }
+}
@@ -0,0 +1,464 @@
+package org.jax.gotools.mgsa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.INFO;
+
+/**
+ * Samples the MGSA posterior separately for each connected component of the term to gene graph.
+ * Terms of different components share no gene, so given alpha, beta and p, their activations are
+ * independent; the only coupling are the parameters. The sampler therefore alternates between
+ * <ol>
+ * <li>a round of Metropolis-Hastings steps of one chain per component, with the parameters fixed,
+ * which run in parallel, and</li>
+ * <li>a coordination step that draws the parameters that are not fixed from their grids given the
+ * counts n00, n01, n10, n11 and the active terms of all components (a Gibbs step).</li>
+ * </ol>
+ * Each chain only proposes moves within its component, so its neighborhood is much smaller than
+ * the one of a single chain over all terms. The steps of a round are distributed over the
+ * components in proportion to their number of terms. Genes that are annotated to no term are never
+ * hidden, since no active term can cover them; they belong to no component and only enter the
+ * counts n00 and n10 of the coordination step.
+ * <p>
+ * The chains get their own random sources, split off the given one in the order of the components,
+ * and the coordination steps draw from the given source; the result does therefore not depend on the
+ * number of threads.
+ */
+final class MgsaComponentSampler {
+
+    private static final Logger logger = Logger.getLogger(MgsaComponentSampler.class.getName());
+
+    private final int numTerms;
+    private final List<Component> components;
+    /** Observed and unobserved genes that are annotated to no term */
+    private final int uncoveredObserved;
+    private final int uncoveredUnobserved;
+    /** Multiplicity of each term, see {@link FixedAlphaBetaScore#setTermMultiplicities(int[])} */
+    private final int[] multiplicities;
+    private final int priorNumTerms;
+    private final RandomSource rnd;
+
+    /* Fixed parameters, NaN if they are sampled */
+    private double alpha = Double.NaN;
+    private double beta = Double.NaN;
+    private double expectedNumberOfTerms = Double.NaN;
+    private double[] alphaGrid = FixedAlphaBetaScore.parameterGrid(Double.NaN);
+    private double[] betaGrid = alphaGrid;
+    private boolean usePrior = true;
+
+    /* Current values of the parameters and their sums over the recorded rounds */
+    private double currentAlpha;
+    private double currentBeta;
+    private double currentP;
+    private double sumAlpha;
+    private double sumBeta;
+    private double sumP;
+    private int recordedRounds;
+
+    /**
+     * The terms of one component and the chain that samples them.
+     */
+    private static final class Component {
+        /** Terms of the index that belong to the component, in ascending order */
+        final int[] terms;
+        final TermGeneIndex index;
+        final boolean[] observed;
+        final int[] multiplicities;
+        final int priorNumTerms;
+        FixedAlphaBetaScore score;
+        MgsaChain chain;
+        int stepsPerRound;
+
+        Component(int[] terms, TermGeneIndex index, boolean[] observed, int[] multiplicities) {
+            this.terms = terms;
+            this.index = index;
+            this.observed = observed;
+            this.multiplicities = multiplicities;
+            int sum = 0;
+            for (int m : multiplicities)
+                sum += m;
+            this.priorNumTerms = sum;
+        }
+    }
+
+    /**
+     * @param index          the term to gene associations
+     * @param multiplicities the multiplicity of each term, or null if every term has multiplicity one
+     * @param observed       the observed state of each gene
+     * @param rnd            random source of the calculation
+     */
+    MgsaComponentSampler(TermGeneIndex index, int[] multiplicities, boolean[] observed, RandomSource rnd) {
+        if (observed.length != index.getNumGenes())
+            throw new IllegalArgumentException("Expected " + index.getNumGenes() + " observations but got " + observed.length);
+        this.numTerms = index.getNumTerms();
+        this.rnd = rnd;
+        if (multiplicities == null) {
+            multiplicities = new int[numTerms];
+            Arrays.fill(multiplicities, 1);
+        }
+        this.multiplicities = multiplicities.clone();
+        int sum = 0;
+        for (int m : multiplicities)
+            sum += m;
+        this.priorNumTerms = sum;
+
+        int[] componentOfTerm = findComponents(index);
+        int numComponents = 0;
+        for (int c : componentOfTerm)
+            numComponents = Math.max(numComponents, c + 1);
+        int[] componentSizes = new int[numComponents];
+        for (int c : componentOfTerm)
+            componentSizes[c]++;
+        int[][] componentTerms = new int[numComponents][];
+        for (int c = 0; c < numComponents; c++)
+            componentTerms[c] = new int[componentSizes[c]];
+        Arrays.fill(componentSizes, 0);
+        for (int t = 0; t < numTerms; t++)
+            componentTerms[componentOfTerm[t]][componentSizes[componentOfTerm[t]]++] = t;
+
+        /* Each gene belongs to at most one component, so the local gene numbers can share one array */
+        int[] termOffsets = index.getTermOffsets();
+        int[] termGenes = index.getTermGenes();
+        int[] localGene = new int[index.getNumGenes()];
+        Arrays.fill(localGene, -1);
+        components = new ArrayList<>(numComponents);
+        for (int[] terms : componentTerms) {
+            int numLocalGenes = 0;
+            int[] offsets = new int[terms.length + 1];
+            int numAnnotations = 0;
+            for (int t : terms)
+                numAnnotations += termOffsets[t + 1] - termOffsets[t];
+            int[] genes = new int[numAnnotations];
+            int k = 0;
+            for (int i = 0; i < terms.length; i++) {
+                int t = terms[i];
+                for (int j = termOffsets[t]; j < termOffsets[t + 1]; j++) {
+                    int g = termGenes[j];
+                    if (localGene[g] < 0)
+                        localGene[g] = numLocalGenes++;
+                    genes[k++] = localGene[g];
+                }
+                offsets[i + 1] = k;
+            }
+            boolean[] localObserved = new boolean[numLocalGenes];
+            for (int t : terms) {
+                for (int j = termOffsets[t]; j < termOffsets[t + 1]; j++)
+                    localObserved[localGene[termGenes[j]]] = observed[termGenes[j]];
+            }
+            int[] localMultiplicities = new int[terms.length];
+            for (int i = 0; i < terms.length; i++)
+                localMultiplicities[i] = this.multiplicities[terms[i]];
+            components.add(new Component(terms, new TermGeneIndex(numLocalGenes, offsets, genes), localObserved,
+                    localMultiplicities));
+        }
+
+        int observedCount = 0;
+        int unobservedCount = 0;
+        for (int g = 0; g < index.getNumGenes(); g++) {
+            if (index.getGeneDegree(g) > 0)
+                continue;
+            if (observed[g]) observedCount++;
+            else unobservedCount++;
+        }
+        uncoveredObserved = observedCount;
+        uncoveredUnobserved = unobservedCount;
+    }
+
+    /**
+     * Finds the connected components of the terms, where two terms are connected if they share a gene.
+     *
+     * @param index the term to gene associations
+     * @return the component of each term, numbered in the order of their first term
+     */
+    static int[] findComponents(TermGeneIndex index) {
+        int numGenes = index.getNumGenes();
+        int[] termOffsets = index.getTermOffsets();
+        int[] termGenes = index.getTermGenes();
+
+        /* Union-find over the genes, joining all genes of a term */
+        int[] parent = new int[numGenes];
+        for (int g = 0; g < numGenes; g++)
+            parent[g] = g;
+        for (int t = 0; t < index.getNumTerms(); t++) {
+            if (termOffsets[t] == termOffsets[t + 1])
+                continue;
+            int root = find(parent, termGenes[termOffsets[t]]);
+            for (int i = termOffsets[t] + 1; i < termOffsets[t + 1]; i++) {
+                int other = find(parent, termGenes[i]);
+                if (other != root)
+                    parent[other] = root;
+            }
+        }
+
+        int[] componentOfRoot = new int[numGenes];
+        Arrays.fill(componentOfRoot, -1);
+        int[] componentOfTerm = new int[index.getNumTerms()];
+        int numComponents = 0;
+        for (int t = 0; t < componentOfTerm.length; t++) {
+            if (termOffsets[t] == termOffsets[t + 1]) {
+                /* A term without genes is a component of its own */
+                componentOfTerm[t] = numComponents++;
+                continue;
+            }
+            int root = find(parent, termGenes[termOffsets[t]]);
+            if (componentOfRoot[root] < 0)
+                componentOfRoot[root] = numComponents++;
+            componentOfTerm[t] = componentOfRoot[root];
+        }
+        return componentOfTerm;
+    }
+
+    private static int find(int[] parent, int g) {
+        while (parent[g] != g) {
+            parent[g] = parent[parent[g]];
+            g = parent[g];
+        }
+        return g;
+    }
+
+    /**
+     * @param alpha fixed value of alpha, or NaN to sample alpha
+     */
+    void setAlpha(double alpha) {
+        this.alpha = alpha;
+    }
+
+    void setMaxAlpha(double maxAlpha) {
+        alphaGrid = FixedAlphaBetaScore.parameterGrid(maxAlpha);
+    }
+
+    /**
+     * @param beta fixed value of beta, or NaN to sample beta
+     */
+    void setBeta(double beta) {
+        this.beta = beta;
+    }
+
+    void setMaxBeta(double maxBeta) {
+        betaGrid = FixedAlphaBetaScore.parameterGrid(maxBeta);
+    }
+
+    /**
+     * @param terms fixed expected number of terms, or NaN to sample it
+     */
+    void setExpectedNumberOfTerms(double terms) {
+        this.expectedNumberOfTerms = terms;
+    }
+
+    void setUsePrior(boolean usePrior) {
+        this.usePrior = usePrior;
+    }
+
+    int getNumComponents() {
+        return components.size();
+    }
+
+    /**
+     * Runs the chains of the components.
+     *
+     * @param mcmcSteps        total number of steps of all chains
+     * @param burnin           total number of steps of all chains before the states are recorded
+     * @param roundSteps       total number of steps of all chains between two coordination steps
+     * @param numThreads       number of threads on which the chains are run
+     * @param updateReportTime time between progress reports of the chains in ms
+     * @return the marginal of each term
+     */
+    double[] run(int mcmcSteps, int burnin, int roundSteps, int numThreads, int updateReportTime) {
+        int numRounds = Math.max(1, (mcmcSteps + roundSteps - 1) / roundSteps);
+        int burninRounds = Math.min(numRounds - 1, burnin / roundSteps);
+        for (int c = 0; c < components.size(); c++) {
+            Component component = components.get(c);
+            component.stepsPerRound = (int) Math.max(1, Math.round((double) roundSteps * component.terms.length / numTerms));
+            RandomSource chainRnd = rnd.split();
+            component.score = new FixedAlphaBetaScore(chainRnd, component.index, component.observed);
+            component.score.setTermMultiplicities(component.multiplicities);
+            component.score.setUsePrior(usePrior);
+            /* The chain records the steps after its burn-in step, i.e., from the first step after the burn-in rounds */
+            component.chain = new MgsaChain(c, component.score, chainRnd, numRounds * component.stepsPerRound,
+                    Math.max(0, burninRounds * component.stepsPerRound - 1), updateReportTime);
+        }
+
+        /* The largest components first, each to the group with the fewest steps so far */
+        List<List<Component>> groups = new ArrayList<>();
+        long[] groupSteps = new long[Math.max(1, Math.min(numThreads, components.size()))];
+        for (int i = 0; i < groupSteps.length; i++)
+            groups.add(new ArrayList<>());
+        List<Component> bySize = new ArrayList<>(components);
+        bySize.sort(Comparator.comparingInt((Component component) -> component.stepsPerRound).reversed());
+        for (Component component : bySize) {
+            int smallest = 0;
+            for (int i = 1; i < groupSteps.length; i++)
+                if (groupSteps[i] < groupSteps[smallest]) smallest = i;
+            groups.get(smallest).add(component);
+            groupSteps[smallest] += component.stepsPerRound;
+        }
+
+        ExecutorService executor = groups.size() > 1 ? Executors.newFixedThreadPool(groups.size()) : null;
+        try {
+            for (int r = 0; r < numRounds; r++) {
+                sampleParameters();
+                if (r >= burninRounds) {
+                    sumAlpha += currentAlpha;
+                    sumBeta += currentBeta;
+                    sumP += currentP;
+                    recordedRounds++;
+                }
+                for (Component component : components) {
+                    component.score.setAlpha(currentAlpha);
+                    component.score.setBeta(currentBeta);
+                    component.score.setExpectedNumberOfTerms(currentP * component.priorNumTerms);
+                    component.chain.resyncScore();
+                    component.chain.setPauseStep((r + 1) * component.stepsPerRound);
+                }
+                runRound(groups, executor);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("MGSA calculation was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("MGSA chain failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            if (executor != null)
+                executor.shutdownNow();
+        }
+
+        double[] marginals = new double[numTerms];
+        for (Component component : components) {
+            MgsaChain chain = component.chain;
+            for (int i = 0; chain.getNumRecords() > 0 && i < component.terms.length; i++)
+                marginals[component.terms[i]] = (double) chain.getActivationCount(i) / chain.getNumRecords();
+        }
+        logger.log(INFO, "Sampled " + components.size() + " components in " + numRounds + " rounds (alpha=" + getAlpha() +
+                " beta=" + getBeta() + " p=" + getP() + ")");
+        return marginals;
+    }
+
+    private static void runRound(List<List<Component>> groups, ExecutorService executor)
+            throws InterruptedException, ExecutionException {
+        if (executor == null) {
+            for (Component component : groups.get(0))
+                component.chain.run();
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(groups.size());
+        for (List<Component> group : groups) {
+            tasks.add(() -> {
+                for (Component component : group)
+                    component.chain.run();
+                return null;
+            });
+        }
+        for (Future<Void> future : executor.invokeAll(tasks))
+            future.get();
+    }
+
+    /**
+     * Draws the parameters that are not fixed from their grids given the current states of all components.
+     */
+    private void sampleParameters() {
+        long n00 = uncoveredUnobserved;
+        long n10 = uncoveredObserved;
+        long n01 = 0;
+        long n11 = 0;
+        for (Component component : components) {
+            n00 += component.score.getN00();
+            n01 += component.score.getN01();
+            n10 += component.score.getN10();
+            n11 += component.score.getN11();
+        }
+        currentAlpha = Double.isNaN(alpha) ? draw(alphaGrid, n10, n00) : alpha;
+        currentBeta = Double.isNaN(beta) ? draw(betaGrid, n01, n11) : beta;
+
+        if (!Double.isNaN(expectedNumberOfTerms)) {
+            currentP = expectedNumberOfTerms / priorNumTerms;
+            return;
+        }
+        int[] expected = FixedAlphaBetaScore.EXPECTED_NUMBER_OF_TERMS_GRID;
+        int n = 0;
+        while (n < expected.length && expected[n] < priorNumTerms)
+            n++;
+        if (n == 0 || !usePrior) {
+            /* Without a valid grid (or without the prior) p does not matter */
+            currentP = n == 0 ? 0.5 : (double) expected[0] / priorNumTerms;
+            return;
+        }
+        List<Integer> activeMultiplicities = new ArrayList<>();
+        for (Component component : components) {
+            for (int t : component.score.getActiveTerms())
+                activeMultiplicities.add(component.multiplicities[t]);
+        }
+        double[] grid = new double[n];
+        double[] logWeights = new double[n];
+        for (int i = 0; i < n; i++) {
+            grid[i] = (double) expected[i] / priorNumTerms;
+            double log1mP = Math.log1p(-grid[i]);
+            int inactive = priorNumTerms;
+            double w = 0;
+            for (int m : activeMultiplicities) {
+                w += Math.log(-Math.expm1(m * log1mP));
+                inactive -= m;
+            }
+            logWeights[i] = w + inactive * log1mP;
+        }
+        currentP = grid[drawIndex(logWeights)];
+    }
+
+    /**
+     * @return a grid value x drawn with probability proportional to x^successes (1-x)^failures.
+     */
+    private double draw(double[] grid, long successes, long failures) {
+        double[] logWeights = new double[grid.length];
+        for (int i = 0; i < grid.length; i++)
+            logWeights[i] = successes * Math.log(grid[i]) + failures * Math.log1p(-grid[i]);
+        return grid[drawIndex(logWeights)];
+    }
+
+    private int drawIndex(double[] logWeights) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double w : logWeights)
+            max = Math.max(max, w);
+        double sum = 0;
+        double[] weights = new double[logWeights.length];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = Math.exp(logWeights[i] - max);
+            sum += weights[i];
+        }
+        double u = rnd.nextDouble() * sum;
+        for (int i = 0; i < weights.length - 1; i++) {
+            u -= weights[i];
+            if (u < 0)
+                return i;
+        }
+        return weights.length - 1;
+    }
+
+    /**
+     * @return the mean of alpha over the recorded rounds.
+     */
+    double getAlpha() {
+        return sumAlpha / recordedRounds;
+    }
+
+    /**
+     * @return the mean of beta over the recorded rounds.
+     */
+    double getBeta() {
+        return sumBeta / recordedRounds;
+    }
+
+    /**
+     * @return the mean of p over the recorded rounds.
+     */
+    double getP() {
+        return sumP / recordedRounds;
+    }
+}
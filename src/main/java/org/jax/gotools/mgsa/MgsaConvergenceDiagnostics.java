@@ -0,0 +1,150 @@
+package org.jax.gotools.mgsa;
+
+import java.util.List;
+
+/**
+ * Convergence diagnostics for the term marginals of one or more MCMC chains. For each term we
+ * calculate the Gelman-Rubin potential scale reduction factor (R-hat) of the activation indicator,
+ * which requires at least two chains, and the effective sample size (ESS), which is estimated by
+ * batch means within each chain and summed over the chains.
+ *
+ * @see <A HREF="https://doi.org/10.1214/ss/1177011136">Gelman and Rubin (1992) Inference from Iterative Simulation Using Multiple Sequences</A>
+ */
+public class MgsaConvergenceDiagnostics {
+
+    private final double[] rHat;
+
+    private final double[] ess;
+
+    private final int numChains;
+
+    MgsaConvergenceDiagnostics(double[] rHat, double[] ess, int numChains) {
+        this.rHat = rHat;
+        this.ess = ess;
+        this.numChains = numChains;
+    }
+
+    /**
+     * Calculates the diagnostics from chains that have been run to completion. All chains must
+     * have sampled the same terms.
+     *
+     * @param chains the chains
+     * @return diagnostics for each term
+     */
+    static MgsaConvergenceDiagnostics fromChains(List<MgsaChain> chains) {
+        int numChains = chains.size();
+        int numTerms = chains.get(0).getScore().numTerms;
+        double[] rHat = new double[numTerms];
+        double[] ess = new double[numTerms];
+        double[] means = new double[numChains];
+        double[] variances = new double[numChains];
+
+        for (int t = 0; t < numTerms; t++) {
+            double w = 0;
+            double meanOfMeans = 0;
+            double n = Double.MAX_VALUE;
+            double essSum = 0;
+            for (int j = 0; j < numChains; j++) {
+                MgsaChain chain = chains.get(j);
+                int records = chain.getNumRecords();
+                n = Math.min(n, records);
+                double m = records > 0 ? (double) chain.getActivationCount(t) / records : 0;
+                double s2 = records > 1 ? m * (1 - m) * records / (records - 1) : 0;
+                means[j] = m;
+                variances[j] = s2;
+                w += s2;
+                meanOfMeans += m;
+                essSum += batchMeansEss(chain, t, s2);
+            }
+            w /= numChains;
+            meanOfMeans /= numChains;
+            ess[t] = essSum;
+
+            if (numChains < 2 || n < 2) {
+                rHat[t] = Double.NaN;
+                continue;
+            }
+            double b = 0;
+            for (int j = 0; j < numChains; j++) {
+                double d = means[j] - meanOfMeans;
+                b += d * d;
+            }
+            b = b * n / (numChains - 1);
+            if (w == 0) {
+                /* every chain kept the term in a single state; they agree only if this is the same state */
+                rHat[t] = b == 0 ? 1.0 : Double.POSITIVE_INFINITY;
+            } else {
+                double varHat = (n - 1) / n * w + b / n;
+                rHat[t] = Math.sqrt(varHat / w);
+            }
+        }
+        return new MgsaConvergenceDiagnostics(rHat, ess, numChains);
+    }
+
+    /**
+     * Estimates the effective sample size of the activation indicator of a term in one chain
+     * as n * s^2 / sigma^2, where sigma^2 is the batch means estimate of the asymptotic variance.
+     */
+    static double batchMeansEss(MgsaChain chain, int term, double s2) {
+        int records = chain.getNumRecords();
+        int k = chain.getNumBatches();
+        if (k < 2)
+            return Double.NaN;
+        int b = chain.getBatchSize();
+        double batchMean = (double) chain.getBatchedActivationCount(term) / k / b;
+        double sumSquares = chain.getSumSquaredBatchCounts(term) / ((double) b * b);
+        double varOfBatchMeans = (sumSquares - k * batchMean * batchMean) / (k - 1);
+        double sigma2 = b * varOfBatchMeans;
+        if (sigma2 <= 0 || s2 == 0)
+            return records;
+        return Math.min(records, records * s2 / sigma2);
+    }
+
+    /**
+     * @param term index of the term
+     * @return the potential scale reduction factor of the term, or NaN if fewer than two chains have been run.
+     */
+    public double getRHat(int term) {
+        return rHat[term];
+    }
+
+    /**
+     * @param term index of the term
+     * @return the effective sample size of the term summed over all chains.
+     */
+    public double getEss(int term) {
+        return ess[term];
+    }
+
+    /**
+     * @return the largest R-hat over all terms (NaN if it could not be calculated).
+     */
+    public double getMaxRHat() {
+        double max = Double.NaN;
+        for (double r : rHat) {
+            if (Double.isNaN(max) || r > max)
+                max = r;
+        }
+        return max;
+    }
+
+    /**
+     * @return the smallest effective sample size over all terms.
+     */
+    public double getMinEss() {
+        double min = Double.NaN;
+        for (double e : ess) {
+            if (Double.isNaN(min) || e < min)
+                min = e;
+        }
+        return min;
+    }
+
+    public int getNumChains() {
+        return numChains;
+    }
+
+    public int getNumTerms() {
+        return rHat.length;
+    }
+}
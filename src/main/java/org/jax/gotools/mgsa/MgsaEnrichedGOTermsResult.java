@@ -7,6 +7,7 @@ import org.monarchinitiative.phenol.ontology.data.Ontology;
 import org.monarchinitiative.phenol.ontology.data.TermId;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -40,6 +41,12 @@ public class MgsaEnrichedGOTermsResult
 
     private final StudySet studySet;
 
+    /** Convergence diagnostics of the chains that produced the marginals */
+    private MgsaConvergenceDiagnostics convergenceDiagnostics;
+
+    /** Metrics of the chains of the final iteration */
+    private List<MgsaSamplerMetrics> samplerMetrics = Collections.emptyList();
+
     double p;
     double p_adjusted;
     double p_min;
@@ -73,6 +80,57 @@ public class MgsaEnrichedGOTermsResult
         return score;
     }
 
+    /**
+     * @return the study set this result was calculated for.
+     */
+    public StudySet getStudySet()
+    {
+        return studySet;
+    }
+
+    /**
+     * @return the properties of all terms in the order in which they were added.
+     */
+    public List<AbstractGOTermProperties> getGOTermProperties()
+    {
+        return Collections.unmodifiableList(list);
+    }
+
+    public void setConvergenceDiagnostics(MgsaConvergenceDiagnostics convergenceDiagnostics)
+    {
+        this.convergenceDiagnostics = convergenceDiagnostics;
+    }
+
+    /**
+     * @return the convergence diagnostics of the calculation, or null if no chain has been run. The
+     * terms are those that have not been pruned; the per-term values are also part of the term properties.
+     */
+    public MgsaConvergenceDiagnostics getConvergenceDiagnostics()
+    {
+        return convergenceDiagnostics;
+    }
+
+    public void setSamplerMetrics(List<MgsaSamplerMetrics> samplerMetrics)
+    {
+        this.samplerMetrics = samplerMetrics == null ? Collections.emptyList() : Collections.unmodifiableList(samplerMetrics);
+    }
+
+    /**
+     * @return the metrics of the chains that produced the marginals (empty if no chain has been run).
+     */
+    public List<MgsaSamplerMetrics> getSamplerMetrics()
+    {
+        return samplerMetrics;
+    }
+
+    /**
+     * @return a JSON summary of the sampler metrics of all chains.
+     */
+    public String getSamplerMetricsJson()
+    {
+        return MgsaSamplerMetrics.toJson(samplerMetrics);
+    }
+
 //    public void setTermMapper(IntMapper<TermID> termMapper)
 //    {
 //        this.termMapper = termMapper;
@@ -10,11 +10,17 @@ package org.jax.gotools.mgsa;
 public class MgsaGOTermProperties extends AbstractGOTermProperties
 {
     private static final String [] propertyNames = new String[]{
-            "ID","Pop.total","Pop.term","Study.total","Study.term","marg"
+            "ID","Pop.total","Pop.term","Study.total","Study.term","marg","rhat","ess"
     };
 
     public double marg;
 
+    /** Gelman-Rubin potential scale reduction factor of the marginal (NaN for a single chain) */
+    public double rHat = Double.NaN;
+
+    /** Effective sample size of the marginal */
+    public double ess = Double.NaN;
+
     @Override
     public int getNumberOfProperties()
     {
@@ -38,6 +44,8 @@ public class MgsaGOTermProperties extends AbstractGOTermProperties
             case	3: return null; /* study gene count */
             case 	4: return Integer.toString(annotatedStudyGenes);
             case	5: return Double.toString(marg);
+            case	6: return Double.toString(rHat);
+            case	7: return Double.toString(ess);
         }
         return null;
     }
@@ -0,0 +1,61 @@
+package org.jax.gotools.mgsa;
+
+import org.monarchinitiative.phenol.analysis.StudySet;
+
+import java.util.List;
+
+/**
+ * Result of an MGSA run together with the final states of its chains, from which a run on a study
+ * set that differs by a few genes can continue, see
+ * {@link MgsaCalculation#updateStudySet(MgsaIncrementalState, StudySet)}. The chain states are
+ * carried over into the updated run, so a state can be updated only once; the updated run
+ * returns a new state.
+ */
+public final class MgsaIncrementalState {
+
+    private final MgsaEnrichedGOTermsResult result;
+    /** Observed state of the genes of the population in the run */
+    final boolean[] observedItems;
+    /** The terms that took part in the run */
+    final TermPruning pruning;
+    /** Final states of the chains at temperature 1, or null if the run had no chains */
+    final List<FixedAlphaBetaScore> scores;
+    /** Random source of the run, from which the source of an update is split */
+    private final RandomSource rnd;
+    private boolean updated;
+
+    MgsaIncrementalState(MgsaEnrichedGOTermsResult result, boolean[] observedItems, TermPruning pruning,
+                         List<FixedAlphaBetaScore> scores, RandomSource rnd) {
+        this.result = result;
+        this.observedItems = observedItems;
+        this.pruning = pruning;
+        this.scores = scores;
+        this.rnd = rnd;
+    }
+
+    /**
+     * @return the result of the run.
+     */
+    public MgsaEnrichedGOTermsResult getResult() {
+        return result;
+    }
+
+    /**
+     * @return a new random source for a run that continues from this state. It is split off the
+     * source of this run, so that consecutive updates do not draw the same random numbers.
+     */
+    synchronized RandomSource splitRandomSource() {
+        return rnd.split();
+    }
+
+    /**
+     * Marks the chain states as taken over by an updated run.
+     *
+     * @throws IllegalStateException if the state has been updated before
+     */
+    synchronized void markUpdated() {
+        if (updated)
+            throw new IllegalStateException("MGSA state has already been updated; continue from the state of the update");
+        updated = true;
+    }
+}
@@ -0,0 +1,68 @@
+package org.jax.gotools.mgsa;
+
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.util.List;
+
+/**
+ * The best-scoring explanation of a study set that has been found by
+ * {@link MgsaCalculation#calculateMap(org.monarchinitiative.phenol.analysis.StudySet)}: the active
+ * terms together with the parameters at which their combination reaches the score. If terms with
+ * identical genes have been merged, all of them are listed, since the data do not distinguish them.
+ */
+public final class MgsaMapResult {
+
+    private final List<TermId> terms;
+    private final double score;
+    private final double alpha;
+    private final double beta;
+    private final double p;
+
+    MgsaMapResult(List<TermId> terms, double score, double alpha, double beta, double p) {
+        this.terms = terms;
+        this.score = score;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.p = p;
+    }
+
+    /**
+     * @return the active terms (unmodifiable).
+     */
+    public List<TermId> getTerms() {
+        return terms;
+    }
+
+    /**
+     * @return the logarithm of the (unnormalized) posterior of the term combination and parameters.
+     */
+    public double getScore() {
+        return score;
+    }
+
+    /**
+     * @return the false positive rate, or NaN if the parameters have been integrated out.
+     */
+    public double getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * @return the false negative rate, or NaN if the parameters have been integrated out.
+     */
+    public double getBeta() {
+        return beta;
+    }
+
+    /**
+     * @return the prior probability of a term to be active, or NaN if the parameters have been integrated out.
+     */
+    public double getP() {
+        return p;
+    }
+
+    @Override
+    public String toString() {
+        return "MgsaMapResult{terms=" + terms + ", score=" + score + ", alpha=" + alpha + ", beta=" + beta + ", p=" + p + "}";
+    }
+}
@@ -0,0 +1,156 @@
+package org.jax.gotools.mgsa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parallel tempering (replica exchange) for one MGSA chain. The replicas are chains over copies
+ * of the same score that sample the target at increasing temperatures; replica 0 samples the
+ * posterior itself. The hot replicas cross the valleys between competing explanations (e.g.,
+ * highly overlapping terms) much more easily than the cold one. Every {@link #getSwapInterval()}
+ * steps, states of neighboring temperatures are exchanged with the Metropolis probability of the
+ * product of the tempered targets, so that good states of the hot replicas move down to the cold
+ * one. Only the records of the cold replica are reported.
+ * <p>
+ * The replicas are run in lockstep: they are paused at each swap step (see
+ * {@link MgsaChain#setPauseStep(int)}), the exchanges are made, and they are continued. The swap
+ * decisions are drawn from the random source of the cold replica, so that a ladder is reproducible
+ * (also from a checkpoint of all its replicas).
+ *
+ * @see <A HREF="https://doi.org/10.1143/JPSJ.65.1604">Hukushima and Nemoto (1996) Exchange Monte Carlo Method and Application to Spin Glass Simulations</A>
+ */
+final class MgsaReplicaExchange {
+
+    /** The replicas in the order of increasing temperature */
+    private final List<MgsaChain> replicas;
+    private final int swapInterval;
+    /** Proposed and accepted exchanges between replica k and k + 1 */
+    private final long[] swapProposals;
+    private final long[] swapAccepts;
+    /** Steps of the cold replica at the last exchange */
+    private int lastSwapStep;
+
+    /**
+     * @param replicas     chains in the order of increasing temperature, starting with temperature 1
+     * @param swapInterval number of steps between two rounds of exchanges
+     */
+    MgsaReplicaExchange(List<MgsaChain> replicas, int swapInterval) {
+        if (replicas.isEmpty() || replicas.get(0).getTemperature() != 1)
+            throw new IllegalArgumentException("The first replica must have temperature 1");
+        if (swapInterval < 1)
+            throw new IllegalArgumentException("Swap interval must be positive but was " + swapInterval);
+        this.replicas = replicas;
+        this.swapInterval = swapInterval;
+        swapProposals = new long[replicas.size() - 1];
+        swapAccepts = new long[replicas.size() - 1];
+        lastSwapStep = replicas.get(0).getStepsRun();
+    }
+
+    /**
+     * Splits the random sources of all replicas of all ladders off the given source, in the order
+     * of the replicas. A single replica uses the given source itself, so that its results for a
+     * given seed do not depend on splitting.
+     *
+     * @param rnd         the random source of the calculation
+     * @param numReplicas number of replicas of all ladders
+     * @return the random source of each replica.
+     */
+    static List<RandomSource> replicaSources(RandomSource rnd, int numReplicas) {
+        List<RandomSource> sources = new ArrayList<>(numReplicas);
+        for (int r = 0; r < numReplicas; r++)
+            sources.add(numReplicas == 1 ? rnd : rnd.split());
+        return sources;
+    }
+
+    /**
+     * @param numTemperatures number of temperatures
+     * @param maxTemperature  temperature of the hottest replica
+     * @return a geometric ladder of temperatures from 1 to maxTemperature.
+     */
+    static double[] temperatures(int numTemperatures, double maxTemperature) {
+        double[] temperatures = new double[numTemperatures];
+        for (int k = 0; k < numTemperatures; k++)
+            temperatures[k] = numTemperatures == 1 ? 1 : Math.pow(maxTemperature, (double) k / (numTemperatures - 1));
+        return temperatures;
+    }
+
+    MgsaChain getColdChain() {
+        return replicas.get(0);
+    }
+
+    /**
+     * @param k index of the replica (0 is the cold one)
+     * @return the replica with the k-th lowest temperature.
+     */
+    MgsaChain getReplica(int k) {
+        return replicas.get(k);
+    }
+
+    int getNumReplicas() {
+        return replicas.size();
+    }
+
+    int getSwapInterval() {
+        return swapInterval;
+    }
+
+    /**
+     * @return true once the cold replica has finished.
+     */
+    boolean isFinished() {
+        return getColdChain().isFinished();
+    }
+
+    /**
+     * Lets the replicas pause at the next swap step, but not later than the given step. Once the
+     * cold replica has finished, the hot ones are not run any further.
+     *
+     * @param step step at which the replicas pause at the latest
+     */
+    void setPauseStep(int step) {
+        int stepsRun = getColdChain().getStepsRun();
+        int pause = isFinished() ? stepsRun : Math.min(step, (stepsRun / swapInterval + 1) * swapInterval);
+        for (MgsaChain replica : replicas)
+            replica.setPauseStep(pause);
+    }
+
+    /**
+     * Makes a round of exchanges if the replicas have arrived at a swap step. With more than two
+     * replicas, even rounds try the pairs (0,1), (2,3), ..., odd rounds the pairs (1,2), (3,4), ....
+     */
+    void swap() {
+        MgsaChain cold = getColdChain();
+        int stepsRun = cold.getStepsRun();
+        if (stepsRun == lastSwapStep || stepsRun % swapInterval != 0 || isFinished())
+            return;
+        lastSwapStep = stepsRun;
+        RandomSource rnd = cold.getRandomSource();
+        int first = replicas.size() > 2 ? (stepsRun / swapInterval) & 1 : 0;
+        for (int k = first; k + 1 < replicas.size(); k += 2) {
+            swapProposals[k]++;
+            if (MgsaChain.exchangeStates(replicas.get(k), replicas.get(k + 1), rnd.nextDouble()))
+                swapAccepts[k]++;
+        }
+    }
+
+    /**
+     * @param k index of the colder replica of the pair
+     * @return the fraction of accepted exchanges between replica k and k + 1.
+     */
+    double getSwapAcceptanceRate(int k) {
+        return swapProposals[k] == 0 ? Double.NaN : (double) swapAccepts[k] / swapProposals[k];
+    }
+
+    /**
+     * @return a description of the ladder and its exchange rates for logging.
+     */
+    String getSummary() {
+        StringBuilder b = new StringBuilder("Chain ").append(getColdChain().getChainId()).append(": temperatures");
+        for (MgsaChain replica : replicas)
+            b.append(' ').append(String.format("%.3f", replica.getTemperature()));
+        b.append("; exchange rates");
+        for (int k = 0; k < swapProposals.length; k++)
+            b.append(' ').append(String.format("%.3f", getSwapAcceptanceRate(k)));
+        return b.toString();
+    }
+}
@@ -0,0 +1,24 @@
+package org.jax.gotools.mgsa;
+
+/**
+ * Receives the metrics of the MCMC chains of an {@link MgsaCalculation} while they are running.
+ * If several chains are run in parallel, the methods are called concurrently from the threads of
+ * the chains, so implementations must be thread-safe.
+ */
+public interface MgsaSamplerListener {
+
+    /**
+     * Called periodically (about every report interval of the calculation) while a chain is running.
+     *
+     * @param metrics the current metrics of the chain
+     */
+    void progress(MgsaSamplerMetrics metrics);
+
+    /**
+     * Called once a chain has run all its steps or has converged.
+     *
+     * @param metrics the final metrics of the chain
+     */
+    default void finished(MgsaSamplerMetrics metrics) {
+    }
+}
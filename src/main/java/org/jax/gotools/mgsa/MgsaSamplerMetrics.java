@@ -0,0 +1,198 @@
+package org.jax.gotools.mgsa;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringJoiner;
+
+/**
+ * Snapshot of the throughput and mixing statistics of one MCMC chain: the number of steps and the
+ * steps per second, the proposals and acceptances per move type, a histogram of the number of
+ * active terms over all steps and the (estimated) time spent in proposing new states, i.e., mostly
+ * in {@link MgsaScoreBase#switchState(int)}. The proposal time is measured on every
+ * {@link MgsaChain#SAMPLE_INTERVAL}-th step only and extrapolated to all steps.
+ * <p>
+ * The counters cover the steps that have been run by the chain object in the current process,
+ * i.e., they are not restored from a checkpoint.
+ */
+public final class MgsaSamplerMetrics {
+
+    /**
+     * The types of moves that are proposed by the sampler.
+     */
+    public enum Move {
+        /** Switching a single term on or off */
+        TOGGLE,
+        /** Exchanging an active with an inactive term */
+        EXCHANGE,
+        /** Changing alpha */
+        ALPHA,
+        /** Changing beta */
+        BETA,
+        /** Changing the expected number of terms */
+        EXPECTED_NUMBER_OF_TERMS
+    }
+
+    private final int chainId;
+    private final int stepsRun;
+    private final int maxSteps;
+    private final long timedSteps;
+    private final long elapsedNanos;
+    private final long[] proposals;
+    private final long[] accepts;
+    private final long[] activeTermHistogram;
+    private final double switchStateNanos;
+    private final double score;
+    private final double maxScore;
+
+    MgsaSamplerMetrics(int chainId, int stepsRun, int maxSteps, long timedSteps, long elapsedNanos,
+                       long[] proposals, long[] accepts, long[] activeTermHistogram,
+                       double switchStateNanos, double score, double maxScore) {
+        this.chainId = chainId;
+        this.stepsRun = stepsRun;
+        this.maxSteps = maxSteps;
+        this.timedSteps = timedSteps;
+        this.elapsedNanos = elapsedNanos;
+        this.proposals = proposals;
+        this.accepts = accepts;
+        this.activeTermHistogram = activeTermHistogram;
+        this.switchStateNanos = switchStateNanos;
+        this.score = score;
+        this.maxScore = maxScore;
+    }
+
+    public int getChainId() {
+        return chainId;
+    }
+
+    /**
+     * @return the total number of steps of the chain (including steps before a resumed checkpoint).
+     */
+    public int getStepsRun() {
+        return stepsRun;
+    }
+
+    /**
+     * @return the maximum number of steps of the chain.
+     */
+    public int getMaxSteps() {
+        return maxSteps;
+    }
+
+    /**
+     * @return the wall-clock time in seconds the chain has been running.
+     */
+    public double getElapsedSeconds() {
+        return elapsedNanos / 1e9;
+    }
+
+    public double getStepsPerSecond() {
+        return elapsedNanos > 0 ? timedSteps * 1e9 / elapsedNanos : Double.NaN;
+    }
+
+    /**
+     * @param move type of the move
+     * @return how often the move has been proposed.
+     */
+    public long getProposals(Move move) {
+        return proposals[move.ordinal()];
+    }
+
+    /**
+     * @param move type of the move
+     * @return how often the move has been accepted.
+     */
+    public long getAccepts(Move move) {
+        return accepts[move.ordinal()];
+    }
+
+    /**
+     * @param move type of the move
+     * @return the fraction of accepted proposals of the move, or NaN if it was never proposed.
+     */
+    public double getAcceptanceRate(Move move) {
+        long n = proposals[move.ordinal()];
+        return n > 0 ? (double) accepts[move.ordinal()] / n : Double.NaN;
+    }
+
+    /**
+     * @return the number of steps after which exactly i terms were active, for each i.
+     */
+    public long[] getActiveTermHistogram() {
+        return activeTermHistogram.clone();
+    }
+
+    /**
+     * @return the estimated time in seconds spent in proposing new states.
+     */
+    public double getSwitchStateSeconds() {
+        return switchStateNanos / 1e9;
+    }
+
+    /**
+     * @return the score of the current state.
+     */
+    public double getScore() {
+        return score;
+    }
+
+    public double getMaxScore() {
+        return maxScore;
+    }
+
+    /**
+     * @return the metrics as a JSON object.
+     */
+    public String toJson() {
+        StringBuilder b = new StringBuilder();
+        b.append("{\"chain\":").append(chainId);
+        b.append(",\"steps\":").append(stepsRun);
+        b.append(",\"maxSteps\":").append(maxSteps);
+        b.append(",\"elapsedSeconds\":").append(number(getElapsedSeconds()));
+        b.append(",\"stepsPerSecond\":").append(number(getStepsPerSecond()));
+        b.append(",\"switchStateSeconds\":").append(number(getSwitchStateSeconds()));
+        b.append(",\"score\":").append(number(score));
+        b.append(",\"maxScore\":").append(number(maxScore));
+        b.append(",\"moves\":{");
+        for (Move move : Move.values()) {
+            if (move.ordinal() > 0)
+                b.append(',');
+            b.append('"').append(move.name().toLowerCase(Locale.ROOT)).append("\":{");
+            b.append("\"proposed\":").append(getProposals(move));
+            b.append(",\"accepted\":").append(getAccepts(move));
+            b.append(",\"acceptanceRate\":").append(number(getAcceptanceRate(move)));
+            b.append('}');
+        }
+        b.append("},\"activeTermHistogram\":");
+        /* trailing empty bins are left out */
+        int length = activeTermHistogram.length;
+        while (length > 0 && activeTermHistogram[length - 1] == 0)
+            length--;
+        b.append(Arrays.toString(Arrays.copyOf(activeTermHistogram, length)).replace(" ", ""));
+        b.append('}');
+        return b.toString();
+    }
+
+    /**
+     * @param metrics metrics of several chains
+     * @return the metrics as a JSON array.
+     */
+    public static String toJson(List<MgsaSamplerMetrics> metrics) {
+        StringJoiner joiner = new StringJoiner(",", "[", "]");
+        for (MgsaSamplerMetrics m : metrics)
+            joiner.add(m.toJson());
+        return joiner.toString();
+    }
+
+    /**
+     * JSON has no representation of NaN and the infinities, these become null.
+     */
+    private static String number(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value);
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+}
@@ -1,7 +1,9 @@
 package org.jax.gotools.mgsa;
 
-
-import java.util.Random;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Extends Bayes2GOScoreBase with p prior and the ability to count term activations.
@@ -11,14 +13,19 @@ import java.util.Random;
 public abstract class MgsaScore extends MgsaScoreBase
 {
     /** Source of randomness */
-    protected Random rnd;
+    protected RandomSource rnd;
 
     /** Array holding the observed values for each gene */
     protected double [] observedValueOfGene;
 
     protected int numRecords;
+
+    /** Number of records in which each term was active, up to its last deactivation or flush */
     protected int [] termActivationCounts;
 
+    /** numRecords at the time each active term was activated or flushed the last time */
+    private int [] activationStart;
+
     protected boolean usePrior = true;
     protected double p = Double.NaN;
 
@@ -54,42 +61,70 @@ public abstract class MgsaScore extends MgsaScoreBase
         boolean smallerIsBetter();
     }
 
-    public MgsaScore(Random rnd, int [][] termLinks, int numGenes, IGeneValueProvider geneValueProvider)
+    public MgsaScore(RandomSource rnd, TermGeneIndex index, IGeneValueProvider geneValueProvider)
     {
-        super(termLinks, numGenes);
+        super(index, observe(index.getNumGenes(), geneValueProvider));
+        int numGenes = index.getNumGenes();
 
         this.rnd = rnd;
 
-        double threshold = geneValueProvider.getThreshold();
-        boolean smallerIsBetter = geneValueProvider.smallerIsBetter();
-
         /* Initialize basics of genes */
         observedValueOfGene = new double[numGenes];
-
         for (int i = 0; i < numGenes; i++)
-        {
             observedValueOfGene[i] = geneValueProvider.getGeneValue(i);
-            if (smallerIsBetter) observedGenes[i] = observedValueOfGene[i] <= threshold;
-            else observedGenes[i] = observedValueOfGene[i] >= threshold;
-        }
 
         termActivationCounts = new int[numTerms];
+        activationStart = new int[numTerms];
+    }
+
+    /**
+     * Determines the observed state of the genes by applying the threshold of the provider.
+     *
+     * @param numGenes number of genes
+     * @param geneValueProvider provides the values and the threshold
+     * @return whether each gene is observed
+     */
+    private static boolean [] observe(int numGenes, IGeneValueProvider geneValueProvider)
+    {
+        return observe(numGenes, geneValueProvider, geneValueProvider.getThreshold());
+    }
+
+    /**
+     * Determines the observed state of the genes by applying the given threshold instead of the
+     * threshold of the provider.
+     *
+     * @param numGenes number of genes
+     * @param geneValueProvider provides the values and whether smaller values are better
+     * @param threshold the threshold
+     * @return whether each gene is observed
+     */
+    static boolean [] observe(int numGenes, IGeneValueProvider geneValueProvider, double threshold)
+    {
+        boolean smallerIsBetter = geneValueProvider.smallerIsBetter();
+        boolean [] observed = new boolean[numGenes];
+        for (int i = 0; i < numGenes; i++)
+        {
+            double value = geneValueProvider.getGeneValue(i);
+            if (smallerIsBetter) observed[i] = value <= threshold;
+            else observed[i] = value >= threshold;
+        }
+        return observed;
     }
 
     /**
      * Constructs a class for calculating the Bayes2GO score suitable for an MCMC algorithm.
      *
      * @param rnd Random source for proposing states.
-     * @param termLinks terms to genes.
+     * @param index terms to genes.
      * @param observedGenes state of each gene whether it is observed or not.
      */
-    public MgsaScore(Random rnd, int [][] termLinks, final boolean [] observedGenes)
+    public MgsaScore(RandomSource rnd, TermGeneIndex index, final boolean [] observedGenes)
     {
         /* Here a gene value provider is constructed that maps the boolean observed state back
          * to values some values. A gene, that is observed gets a -1, a gene that is not observed
          * gets a 1. Applied with a threshold of one, this gives back the same set of observed genes.
          */
-        this(rnd, termLinks, observedGenes.length, new IGeneValueProvider() {
+        this(rnd, index, new IGeneValueProvider() {
             @Override
             public boolean smallerIsBetter() {
                 return true;
@@ -201,14 +236,82 @@ public abstract class MgsaScore extends MgsaScoreBase
     public abstract long getNeighborhoodSize();
 
     /**
-     * Records the current settings.
+     * Switches the state of the given term. The activation counts are maintained event-driven:
+     * the number of records at activation is remembered and the elapsed number of records is
+     * added to the count of the term when it is deactivated again.
+     *
+     * @param toSwitch id of the term whose state should be switched
+     */
+    @Override
+    public void switchState(int toSwitch)
+    {
+        super.switchState(toSwitch);
+        if (isActive(toSwitch)) activationStart[toSwitch] = numRecords;
+        else termActivationCounts[toSwitch] += numRecords - activationStart[toSwitch];
+    }
+
+    /**
+     * Records the current settings. This takes constant time, the active terms are accounted
+     * when they are deactivated or the records are flushed.
      */
     public void record()
+    {
+        numRecords++;
+    }
+
+    /**
+     * Adds the records of the currently active terms to termActivationCounts, which is
+     * up-to-date afterwards.
+     */
+    public void flushRecords()
     {
         for (int i = numInactiveTerms; i < numTerms; i++)
-            termActivationCounts[termPartition[i]]++;
+        {
+            int t = termPartition[i];
+            termActivationCounts[t] += numRecords - activationStart[t];
+            activationStart[t] = numRecords;
+        }
+    }
 
-        numRecords++;
+    /**
+     * @param term id of the term
+     * @return in how many of the records the term was active.
+     */
+    public int getActivationCount(int term)
+    {
+        int count = termActivationCounts[term];
+        if (isActive(term)) count += numRecords - activationStart[term];
+        return count;
+    }
+
+    /**
+     * Discards all recorded settings, but keeps the current state.
+     */
+    public void resetRecords()
+    {
+        Arrays.fill(termActivationCounts, 0);
+        numRecords = 0;
+        for (int i = numInactiveTerms; i < numTerms; i++)
+            activationStart[termPartition[i]] = 0;
+    }
+
+    @Override
+    void writeState(DataOutput out) throws IOException
+    {
+        super.writeState(out);
+        flushRecords();
+        out.writeInt(numRecords);
+        MgsaCheckpoint.writeInts(out, termActivationCounts);
+    }
+
+    @Override
+    void readState(DataInput in) throws IOException
+    {
+        super.readState(in);
+        numRecords = in.readInt();
+        MgsaCheckpoint.readInts(in, termActivationCounts);
+        for (int i = numInactiveTerms; i < numTerms; i++)
+            activationStart[termPartition[i]] = numRecords;
     }
 
     /**
@@ -221,4 +324,25 @@ public abstract class MgsaScore extends MgsaScoreBase
             list[i-numInactiveTerms] = termPartition[i];
         return list;
     }
+
+    /**
+     * @return the number of terms that are currently activated
+     */
+    public int getNumActiveTerms()
+    {
+        return numTerms - numInactiveTerms;
+    }
+
+    /**
+     * Copies the terms that are currently activated without allocating.
+     *
+     * @param dest destination, must be able to hold all active terms
+     * @return the number of active terms
+     */
+    public int copyActiveTerms(int [] dest)
+    {
+        int n = numTerms - numInactiveTerms;
+        System.arraycopy(termPartition, numInactiveTerms, dest, 0, n);
+        return n;
+    }
 }
@@ -1,12 +1,39 @@
 package org.jax.gotools.mgsa;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Keeps track of the active terms and of the hidden genes, i.e., the genes that are covered by at
+ * least one active term.
+ * <p>
+ * The activation state of the terms and the observed state of the genes are kept in bitsets.
+ * Genes that are annotated to the same terms are collapsed into the {@link GeneClasses} of the
+ * index, which are hidden or not as a whole. Each instance counts the observed and unobserved genes
+ * of every class, and switching a term visits the classes of the term (shared by all instances)
+ * instead of its genes. The number of active terms covering a class is kept in a short array if no
+ * gene is annotated to more than {@link Short#MAX_VALUE} terms.
+ */
 public abstract class MgsaScoreBase
 {
-    /** Indicates the activation state of a term */
-    private boolean [] isActive;
+    /** Indicates the activation state of the terms (bitset) */
+    private final long [] isActive;
 
     /** Maps a term id to the ids of the genes to which the term is annotated */
-    private int [][] termLinks;
+    protected final TermGeneIndex index;
+
+    /** The classes of genes with identical terms, see {@link GeneClasses} */
+    private final GeneClasses geneClasses;
+
+    /** Offsets of the terms into {@link #termClasses} (CSR layout, see {@link TermGeneIndex}) */
+    private final int [] termOffsets;
+
+    /** Concatenated ids of the gene classes of all terms */
+    private final int [] termClasses;
+
+    /** Number of observed genes of each class in the upper and of unobserved genes in the lower 32 bits */
+    private final long [] classCounts;
 
     /**
      * Contains indices to terms of termsArray.
@@ -27,25 +54,61 @@ public abstract class MgsaScoreBase
      */
     protected int [] positionOfTermInPartition;
 
-    /** Array indicating the genes that have been observed */
-    protected boolean [] observedGenes;
+    /** Indicates the genes that have been observed (bitset) */
+    private final long [] observedGenes;
+
+    private int numObservedGenes;
 
-    /** Array that indicate the activation counts of the genes */
-    private int [] activeHiddenGenes;
+    /** Activation counts of the gene classes if no gene has more than Short.MAX_VALUE terms, otherwise null */
+    private final short [] activeHiddenGenesShort;
 
-    public MgsaScoreBase(int [][] termLinks, int numItems)
+    /** Activation counts of the gene classes if they do not fit into a short, otherwise null */
+    private final int [] activeHiddenGenesInt;
+
+    /**
+     * @param index the term to gene links
+     * @param observed state of each gene whether it is observed or not
+     */
+    public MgsaScoreBase(TermGeneIndex index, boolean [] observed)
     {
-        this.termLinks = termLinks;
+        int numGenes = index.getNumGenes();
+        if (observed.length != numGenes)
+            throw new IllegalArgumentException("Expected the observed state of " + numGenes + " genes but got " + observed.length);
 
-        numTerms = termLinks.length;
-        numInactiveTerms = termLinks.length;
-        isActive = new boolean[termLinks.length];
-        termPartition = new int[termLinks.length];
-        positionOfTermInPartition = new int[termLinks.length];
-        observedGenes = new boolean[numItems];
-        activeHiddenGenes = new int[numItems];
+        this.index = index;
+        numTerms = index.getNumTerms();
+        numInactiveTerms = numTerms;
+        isActive = new long[(numTerms + 63) >>> 6];
+        termPartition = new int[numTerms];
+        positionOfTermInPartition = new int[numTerms];
 
-        for (int i=0; i < termLinks.length; i++)
+        observedGenes = new long[(numGenes + 63) >>> 6];
+        int numObserved = 0;
+        for (int g = 0; g < numGenes; g++)
+        {
+            if (observed[g])
+            {
+                observedGenes[g >>> 6] |= 1L << g;
+                numObserved++;
+            }
+        }
+        numObservedGenes = numObserved;
+
+        geneClasses = index.getGeneClasses();
+        TermGeneIndex classIndex = geneClasses.getIndex();
+        termOffsets = classIndex.getTermOffsets();
+        termClasses = classIndex.getTermGenes();
+        classCounts = new long[geneClasses.getNumClasses()];
+        for (int g = 0; g < numGenes; g++)
+            classCounts[geneClasses.getClassOfGene(g)] += observed[g] ? 1L << 32 : 1;
+
+        int maxGeneDegree = 0;
+        for (int degree : classIndex.getGeneDegrees())
+            maxGeneDegree = Math.max(maxGeneDegree, degree);
+        activeHiddenGenesShort = maxGeneDegree <= Short.MAX_VALUE ? new short[classCounts.length] : null;
+        activeHiddenGenesInt = activeHiddenGenesShort == null ? new int[classCounts.length] : null;
+
+        for (int i=0; i < numTerms; i++)
         {
             termPartition[i] = i;
             positionOfTermInPartition[i] = i;
@@ -59,23 +122,15 @@ public abstract class MgsaScoreBase
      */
     public void switchState(int toSwitch)
     {
-        int [] geneIDs = termLinks[toSwitch];
+        int start = termOffsets[toSwitch];
+        int end = termOffsets[toSwitch + 1];
 
-        isActive[toSwitch] = !isActive[toSwitch];
-        if (isActive[toSwitch])
+        isActive[toSwitch >>> 6] ^= 1L << toSwitch;
+        if (isActive(toSwitch))
         {
-            /* A term was added, activate/deactivate genes */
-            for (int gid : geneIDs)
-            {
-                if (activeHiddenGenes[gid] == 0)
-                {
-                    activeHiddenGenes[gid] = 1;
-                    hiddenGeneActivated(gid);
-                } else
-                {
-                    activeHiddenGenes[gid]++;
-                }
-            }
+            /* A term was added, activate genes */
+            long counts = activate(start, end);
+            hiddenGenesActivated((int) (counts >>> 32), (int) counts);
 
             /* Move the added set from the 0 partition to the 1 partition (it essentially becomes the
              * new first element of the 1 element, while the last 0 element gets the original position
@@ -96,22 +151,13 @@ public abstract class MgsaScoreBase
         } else
         {
             /* Update hiddenActiveGenes */
-            for (int gid : geneIDs)
-            {
-                if (activeHiddenGenes[gid] == 1)
-                {
-                    activeHiddenGenes[gid] = 0;
-                    hiddenGeneDeactivated(gid);
-                } else
-                {
-                    activeHiddenGenes[gid]--;
-                }
-            }
+            long counts = deactivate(start, end);
+            hiddenGenesDeactivated((int) (counts >>> 32), (int) counts);
 
             /* Converse of above. Here the removed set, which belonged to the 1 partition,
              * is moved at the end of the 0 partition while the element at that place is
              * pushed to the original position of the removed element. */
-            if (numInactiveTerms != (isActive.length - 1))
+            if (numInactiveTerms != (numTerms - 1))
             {
                 int pos = positionOfTermInPartition[toSwitch];
                 int b1 = termPartition[numInactiveTerms];
@@ -126,16 +172,172 @@ public abstract class MgsaScoreBase
     }
 
     /**
-     * The given gene is now activated
+     * Increments the activation counts of the classes termClasses[from..to).
+     *
+     * @return the numbers of observed (upper 32 bits) and unobserved genes that were not hidden before
+     */
+    private long activate(int from, int to)
+    {
+        long activated = 0;
+        if (activeHiddenGenesShort != null)
+        {
+            short [] counts = activeHiddenGenesShort;
+            for (int i = from; i < to; i++)
+            {
+                int k = termClasses[i];
+                activated += counts[k]++ == 0 ? classCounts[k] : 0;
+            }
+        } else
+        {
+            int [] counts = activeHiddenGenesInt;
+            for (int i = from; i < to; i++)
+            {
+                int k = termClasses[i];
+                activated += counts[k]++ == 0 ? classCounts[k] : 0;
+            }
+        }
+        return activated;
+    }
+
+    /**
+     * Decrements the activation counts of the classes termClasses[from..to).
+     *
+     * @return the numbers of observed (upper 32 bits) and unobserved genes that are no longer hidden
+     */
+    private long deactivate(int from, int to)
+    {
+        long deactivated = 0;
+        if (activeHiddenGenesShort != null)
+        {
+            short [] counts = activeHiddenGenesShort;
+            for (int i = from; i < to; i++)
+            {
+                int k = termClasses[i];
+                deactivated += --counts[k] == 0 ? classCounts[k] : 0;
+            }
+        } else
+        {
+            int [] counts = activeHiddenGenesInt;
+            for (int i = from; i < to; i++)
+            {
+                int k = termClasses[i];
+                deactivated += --counts[k] == 0 ? classCounts[k] : 0;
+            }
+        }
+        return deactivated;
+    }
+
+    /**
+     * Writes the partition of the terms into active and inactive ones.
+     *
+     * @param out the destination
+     */
+    void writeState(DataOutput out) throws IOException
+    {
+        out.writeInt(numInactiveTerms);
+        MgsaCheckpoint.writeInts(out, termPartition);
+    }
+
+    /**
+     * Restores a partition written by {@link #writeState(DataOutput)}. The terms are switched such
+     * that the gene counts are updated, and the order of the partition is restored exactly.
+     *
+     * @param in the source
+     */
+    void readState(DataInput in) throws IOException
+    {
+        int inactive = in.readInt();
+        int [] partition = new int[numTerms];
+        MgsaCheckpoint.readInts(in, partition);
+        if (inactive < 0 || inactive > numTerms)
+            throw new IOException("Invalid number of inactive terms " + inactive);
+        boolean [] seen = new boolean[numTerms];
+        for (int t : partition)
+        {
+            if (t < 0 || t >= numTerms || seen[t])
+                throw new IOException("Invalid term partition");
+            seen[t] = true;
+        }
+
+        for (int t = 0; t < numTerms; t++)
+            if (isActive(t)) switchState(t);
+        for (int i = inactive; i < numTerms; i++)
+            switchState(partition[i]);
+
+        System.arraycopy(partition, 0, termPartition, 0, numTerms);
+        for (int i = 0; i < numTerms; i++)
+            positionOfTermInPartition[partition[i]] = i;
+    }
+
+    /**
+     * Changes the observed state of a gene, e.g., to update the state of a previous run to a study
+     * set that differs by a few genes. The terms stay as they are, and the change is reported with
+     * {@link #observedGeneChanged(boolean, boolean)}. Must not be called during a proposal.
+     *
+     * @param gid id of the gene
+     * @param observed the new observed state
+     */
+    void setObserved(int gid, boolean observed)
+    {
+        if (isObserved(gid) == observed)
+            return;
+        observedGenes[gid >>> 6] ^= 1L << gid;
+        numObservedGenes += observed ? 1 : -1;
+
+        /* Move the gene between the observed and the unobserved count of its class */
+        int k = geneClasses.getClassOfGene(gid);
+        classCounts[k] += observed ? (1L << 32) - 1 : 1 - (1L << 32);
+        boolean hidden = activeHiddenGenesShort != null ? activeHiddenGenesShort[k] != 0 : activeHiddenGenesInt[k] != 0;
+        observedGeneChanged(observed, hidden);
+    }
+
+    /**
+     * @param term id of the term
+     * @return whether the term is currently active
+     */
+    public final boolean isActive(int term)
+    {
+        return (isActive[term >>> 6] & (1L << term)) != 0;
+    }
+
+    /**
+     * @param gid id of the gene
+     * @return whether the gene has been observed
+     */
+    public final boolean isObserved(int gid)
+    {
+        return (observedGenes[gid >>> 6] & (1L << gid)) != 0;
+    }
+
+    /**
+     * @return the number of genes that have been observed
+     */
+    public final int getNumObservedGenes()
+    {
+        return numObservedGenes;
+    }
+
+    /**
+     * Genes became hidden, i.e., they are now covered by an active term.
+     *
+     * @param observed number of those genes that are observed
+     * @param unobserved number of those genes that are not observed
+     */
+    public abstract void hiddenGenesActivated(int observed, int unobserved);
+
+    /**
+     * Genes are no longer hidden, i.e., they are not covered by any active term anymore.
      *
-     * @param gid
+     * @param observed number of those genes that are observed
+     * @param unobserved number of those genes that are not observed
      */
-    public abstract void hiddenGeneActivated(int gid);
+    public abstract void hiddenGenesDeactivated(int observed, int unobserved);
 
     /**
-     * The given gene is now deactivated.
+     * The observed state of a gene has been changed with {@link #setObserved(int, boolean)}.
      *
-     * @param gid
+     * @param observed whether the gene is now observed
+     * @param hidden whether the gene is hidden, i.e., covered by an active term
      */
-    public abstract void hiddenGeneDeactivated(int gid);
-}
\ No newline at end of file
+    public abstract void observedGeneChanged(boolean observed, boolean hidden);
+}
@@ -0,0 +1,81 @@
+package org.jax.gotools.mgsa;
+
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+/**
+ * Marginals of an MGSA threshold sweep, i.e., of one calculation per cutoff of the gene values,
+ * as a term by threshold matrix. The terms are those of the population's {@link TermToItemMatrix},
+ * the thresholds are in the order in which they were given.
+ */
+public final class MgsaThresholdSweepResult {
+
+    private final TermToItemMatrix matrix;
+    private final double[] thresholds;
+    /** Number of observed genes at each threshold */
+    private final int[] numObserved;
+    /** marginals[k][t] is the marginal of term t at threshold k */
+    private final double[][] marginals;
+
+    MgsaThresholdSweepResult(TermToItemMatrix matrix, double[] thresholds, int[] numObserved, double[][] marginals) {
+        this.matrix = matrix;
+        this.thresholds = thresholds;
+        this.numObserved = numObserved;
+        this.marginals = marginals;
+    }
+
+    public int getNumThresholds() {
+        return thresholds.length;
+    }
+
+    public double getThreshold(int k) {
+        return thresholds[k];
+    }
+
+    /**
+     * @param k index of a threshold
+     * @return the number of genes that are observed at the threshold.
+     */
+    public int getNumObserved(int k) {
+        return numObserved[k];
+    }
+
+    public int getNumTerms() {
+        return matrix.getNumTerms();
+    }
+
+    /**
+     * @param t index of a term
+     * @return the id of the term.
+     */
+    public TermId getTerm(int t) {
+        return matrix.getGoTermAtIndex(t);
+    }
+
+    /**
+     * @param t index of a term
+     * @param k index of a threshold
+     * @return the marginal probability that the term is active at the threshold.
+     */
+    public double getMarginal(int t, int k) {
+        return marginals[k][t];
+    }
+
+    /**
+     * @param t index of a term
+     * @return the marginals of the term at each threshold.
+     */
+    public double[] getMarginalsOfTerm(int t) {
+        double[] row = new double[thresholds.length];
+        for (int k = 0; k < thresholds.length; k++)
+            row[k] = marginals[k][t];
+        return row;
+    }
+
+    /**
+     * @param k index of a threshold
+     * @return the marginals of all terms at the threshold.
+     */
+    public double[] getMarginalsAtThreshold(int k) {
+        return marginals[k].clone();
+    }
+}
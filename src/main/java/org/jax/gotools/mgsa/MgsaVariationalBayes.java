@@ -0,0 +1,369 @@
+package org.jax.gotools.mgsa;
+
+import java.util.Arrays;
+
+/**
+ * Mean-field variational Bayes for the MGSA model. Instead of sampling the posterior, the
+ * posterior is approximated by a product of independent factors: a Bernoulli distribution with
+ * probability pi[t] for the activation of each term, and a distribution over the grid values of
+ * each of alpha, beta and p that are not fixed (the same grids as sampled by
+ * {@link FixedAlphaBetaScore}). The factors are updated in turn (coordinate ascent) until the
+ * activation probabilities no longer change, which typically takes a few dozen sweeps over the
+ * term to gene associations. The result is deterministic.
+ * <p>
+ * If all other factors are kept, term t is active with log odds
+ * <pre>
+ *   E[log p] - E[log(1-p)] + sum over the genes g of t of P(no other term of g is active) * d(g)
+ * </pre>
+ * where d(g) is E[log(1-beta)] - E[log alpha] for an observed and E[log beta] - E[log(1-alpha)] for
+ * an unobserved gene. The factor of a parameter is proportional to its likelihood given the
+ * expected counts n00, n01, n10, n11 (or number of active terms).
+ * <p>
+ * If terms have been merged (see {@link #setTermMultiplicities(int[])}), a term of multiplicity m
+ * has the prior log odds E[log(1-(1-p)^m)] - m E[log(1-p)] instead, like in {@link FixedAlphaBetaScore}.
+ * <p>
+ * Mean-field approximations are known to underestimate the uncertainty: the activation
+ * probabilities are usually closer to 0 or 1 than the MCMC marginals, and of several terms that
+ * explain the same genes, typically only one gets a high probability.
+ */
+final class MgsaVariationalBayes {
+
+    /** Bounds of the activation probabilities, which keep their logarithms finite */
+    private static final double MIN_PROBABILITY = 1e-12;
+
+    private final TermGeneIndex index;
+    private final boolean[] observed;
+    private final int numTerms;
+    private final int numGenes;
+
+    private final double[] alphaGrid = FixedAlphaBetaScore.parameterGrid(Double.NaN);
+    private final double[] betaGrid = alphaGrid;
+    private double[] pGrid;
+    /** Number of terms that each term stands for, or null if every term has multiplicity one */
+    private int[] multiplicities;
+    /** Number of terms to which p refers, i.e., the sum of the multiplicities */
+    private int priorNumTerms;
+
+    /* Distributions over the grids; null if the parameter is fixed */
+    private double[] alphaWeights;
+    private double[] betaWeights;
+    private double[] pWeights;
+
+    private double alpha = Double.NaN;
+    private double beta = Double.NaN;
+    private double p = Double.NaN;
+    private boolean usePrior = true;
+
+    /** Activation probability of each term */
+    private final double[] pi;
+    /** Logarithm of the probability that no term of each gene is active */
+    private final double[] logNoneActive;
+
+    private int iterations;
+    private boolean converged;
+
+    /**
+     * @param index    the term to gene associations
+     * @param observed the observed state of each gene
+     */
+    MgsaVariationalBayes(TermGeneIndex index, boolean[] observed) {
+        if (observed.length != index.getNumGenes())
+            throw new IllegalArgumentException("Expected " + index.getNumGenes() + " observations but got " + observed.length);
+        this.index = index;
+        this.observed = observed;
+        this.numTerms = index.getNumTerms();
+        this.numGenes = index.getNumGenes();
+
+        priorNumTerms = numTerms;
+        pGrid = pGrid(numTerms);
+        pi = new double[numTerms];
+        logNoneActive = new double[numGenes];
+    }
+
+    /**
+     * @param priorNumTerms number of terms to which p refers
+     * @return the grid values of p.
+     */
+    private static double[] pGrid(int priorNumTerms) {
+        /* Grid values of p that are not smaller than one are not valid */
+        int[] expected = FixedAlphaBetaScore.EXPECTED_NUMBER_OF_TERMS_GRID;
+        int n = 0;
+        while (n < expected.length && expected[n] < priorNumTerms)
+            n++;
+        double[] grid = new double[Math.max(n, 1)];
+        for (int i = 0; i < grid.length; i++)
+            grid[i] = n == 0 ? 0.5 : (double) expected[i] / priorNumTerms;
+        return grid;
+    }
+
+    /**
+     * Sets the number of terms that each term stands for after terms with identical genes have
+     * been merged; p then refers to the sum of the multiplicities. Must be called before a fixed
+     * expected number of terms is set.
+     *
+     * @param multiplicities the multiplicity of each term
+     */
+    void setTermMultiplicities(int[] multiplicities) {
+        if (multiplicities.length != numTerms)
+            throw new IllegalArgumentException("Expected " + numTerms + " multiplicities but got " + multiplicities.length);
+        int total = 0;
+        for (int m : multiplicities)
+            total += m;
+        this.multiplicities = total == numTerms ? null : multiplicities.clone();
+        priorNumTerms = total;
+        pGrid = pGrid(total);
+    }
+
+    /**
+     * @param alpha fixed value of alpha, or NaN to infer alpha
+     */
+    void setAlpha(double alpha) {
+        this.alpha = alpha;
+    }
+
+    /**
+     * @param beta fixed value of beta, or NaN to infer beta
+     */
+    void setBeta(double beta) {
+        this.beta = beta;
+    }
+
+    /**
+     * @param terms fixed expected number of terms, or NaN to infer it
+     */
+    void setExpectedNumberOfTerms(double terms) {
+        this.p = terms / priorNumTerms;
+    }
+
+    void setUsePrior(boolean usePrior) {
+        this.usePrior = usePrior;
+    }
+
+    /**
+     * Runs the coordinate ascent from the state in which every term has the activation probability
+     * of the prior.
+     *
+     * @param maxIterations maximal number of sweeps over all terms and parameters
+     * @param tolerance     the iteration stops once no activation probability changes by more than this
+     * @return the activation probability of each term
+     */
+    double[] run(int maxIterations, double tolerance) {
+        alphaWeights = Double.isNaN(alpha) ? uniform(alphaGrid.length) : null;
+        betaWeights = Double.isNaN(beta) ? uniform(betaGrid.length) : null;
+        pWeights = Double.isNaN(p) ? uniform(pGrid.length) : null;
+        Arrays.fill(pi, Math.max(MIN_PROBABILITY, Math.min(1 - MIN_PROBABILITY, getP())));
+        converged = false;
+
+        int[] termOffsets = index.getTermOffsets();
+        int[] termGenes = index.getTermGenes();
+        for (iterations = 0; iterations < maxIterations && !converged; iterations++) {
+            /* Recalculated in every sweep so that rounding errors do not accumulate */
+            Arrays.fill(logNoneActive, 0);
+            for (int t = 0; t < numTerms; t++) {
+                double l = Math.log1p(-pi[t]);
+                for (int i = termOffsets[t]; i < termOffsets[t + 1]; i++)
+                    logNoneActive[termGenes[i]] += l;
+            }
+
+            double eLogAlpha = expectedLog(alphaWeights, alphaGrid, alpha);
+            double eLog1mAlpha = expectedLog1m(alphaWeights, alphaGrid, alpha);
+            double eLogBeta = expectedLog(betaWeights, betaGrid, beta);
+            double eLog1mBeta = expectedLog1m(betaWeights, betaGrid, beta);
+            double priorLogOdds = usePrior ? expectedLog(pWeights, pGrid, p) - expectedLog1m(pWeights, pGrid, p) : 0;
+            double[] priorLogOddsOfMultiplicity = usePrior && multiplicities != null ? priorLogOddsOfMultiplicity() : null;
+            double dObserved = eLog1mBeta - eLogAlpha;
+            double dUnobserved = eLogBeta - eLog1mAlpha;
+
+            double maxChange = 0;
+            for (int t = 0; t < numTerms; t++) {
+                double oldLog1m = Math.log1p(-pi[t]);
+                double logOdds = priorLogOddsOfMultiplicity != null ? priorLogOddsOfMultiplicity[multiplicities[t]] : priorLogOdds;
+                for (int i = termOffsets[t]; i < termOffsets[t + 1]; i++) {
+                    int g = termGenes[i];
+                    double noOther = Math.exp(logNoneActive[g] - oldLog1m);
+                    logOdds += noOther * (observed[g] ? dObserved : dUnobserved);
+                }
+                double newPi = 1 / (1 + Math.exp(-logOdds));
+                newPi = Math.max(MIN_PROBABILITY, Math.min(1 - MIN_PROBABILITY, newPi));
+                maxChange = Math.max(maxChange, Math.abs(newPi - pi[t]));
+                if (newPi != pi[t]) {
+                    double delta = Math.log1p(-newPi) - oldLog1m;
+                    for (int i = termOffsets[t]; i < termOffsets[t + 1]; i++)
+                        logNoneActive[termGenes[i]] += delta;
+                    pi[t] = newPi;
+                }
+            }
+
+            updateParameters();
+            converged = maxChange < tolerance;
+        }
+        return pi.clone();
+    }
+
+    /**
+     * Updates the distributions over the grids of the parameters that are inferred, given the
+     * expected counts of the current activation probabilities.
+     */
+    private void updateParameters() {
+        double n00 = 0, n01 = 0, n10 = 0, n11 = 0;
+        for (int g = 0; g < numGenes; g++) {
+            double hidden = -Math.expm1(logNoneActive[g]);
+            if (observed[g]) {
+                n11 += hidden;
+                n10 += 1 - hidden;
+            } else {
+                n01 += hidden;
+                n00 += 1 - hidden;
+            }
+        }
+        if (alphaWeights != null)
+            normalize(alphaWeights, alphaGrid, n10, n00);
+        if (betaWeights != null)
+            normalize(betaWeights, betaGrid, n01, n11);
+        if (pWeights != null && usePrior && multiplicities != null) {
+            normalizeMultiplicities();
+        } else if (pWeights != null && usePrior) {
+            double active = 0;
+            for (double x : pi)
+                active += x;
+            normalize(pWeights, pGrid, active, numTerms - active);
+        }
+    }
+
+    /**
+     * @return E[log(1-(1-p)^m)] - m E[log(1-p)] for each multiplicity m up to the largest one.
+     */
+    private double[] priorLogOddsOfMultiplicity() {
+        int max = 0;
+        for (int m : multiplicities)
+            max = Math.max(max, m);
+        double[] logOdds = new double[max + 1];
+        for (int m = 1; m <= max; m++) {
+            if (pWeights == null) {
+                logOdds[m] = logAnyActive(p, m) - m * Math.log1p(-p);
+            } else {
+                for (int i = 0; i < pGrid.length; i++)
+                    logOdds[m] += pWeights[i] * (logAnyActive(pGrid[i], m) - m * Math.log1p(-pGrid[i]));
+            }
+        }
+        return logOdds;
+    }
+
+    /**
+     * @return log(1-(1-p)^m), the log probability that at least one of m terms is active.
+     */
+    private static double logAnyActive(double p, int m) {
+        return Math.log(-Math.expm1(m * Math.log1p(-p)));
+    }
+
+    /**
+     * Sets the weights of p to the normalized expected log prior of the merged terms of the
+     * current activation probabilities.
+     */
+    private void normalizeMultiplicities() {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < pGrid.length; i++) {
+            double log1mP = Math.log1p(-pGrid[i]);
+            double w = 0;
+            for (int t = 0; t < numTerms; t++)
+                w += pi[t] * logAnyActive(pGrid[i], multiplicities[t]) + (1 - pi[t]) * multiplicities[t] * log1mP;
+            pWeights[i] = w;
+            max = Math.max(max, w);
+        }
+        double sum = 0;
+        for (int i = 0; i < pGrid.length; i++) {
+            pWeights[i] = Math.exp(pWeights[i] - max);
+            sum += pWeights[i];
+        }
+        for (int i = 0; i < pGrid.length; i++)
+            pWeights[i] /= sum;
+    }
+
+    /**
+     * Sets the weights to the normalized likelihood x^successes (1-x)^failures of each grid value x.
+     */
+    private static void normalize(double[] weights, double[] grid, double successes, double failures) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < grid.length; i++) {
+            weights[i] = successes * Math.log(grid[i]) + failures * Math.log1p(-grid[i]);
+            max = Math.max(max, weights[i]);
+        }
+        double sum = 0;
+        for (int i = 0; i < grid.length; i++) {
+            weights[i] = Math.exp(weights[i] - max);
+            sum += weights[i];
+        }
+        for (int i = 0; i < grid.length; i++)
+            weights[i] /= sum;
+    }
+
+    private static double[] uniform(int n) {
+        double[] weights = new double[n];
+        Arrays.fill(weights, 1.0 / n);
+        return weights;
+    }
+
+    private static double expectedLog(double[] weights, double[] grid, double fixed) {
+        if (weights == null)
+            return Math.log(fixed);
+        double e = 0;
+        for (int i = 0; i < grid.length; i++)
+            e += weights[i] * Math.log(grid[i]);
+        return e;
+    }
+
+    private static double expectedLog1m(double[] weights, double[] grid, double fixed) {
+        if (weights == null)
+            return Math.log1p(-fixed);
+        double e = 0;
+        for (int i = 0; i < grid.length; i++)
+            e += weights[i] * Math.log1p(-grid[i]);
+        return e;
+    }
+
+    private static double mean(double[] weights, double[] grid, double fixed) {
+        if (weights == null)
+            return fixed;
+        double m = 0;
+        for (int i = 0; i < grid.length; i++)
+            m += weights[i] * grid[i];
+        return m;
+    }
+
+    /**
+     * @return the number of sweeps of the last run.
+     */
+    int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return whether the last run converged before the maximal number of sweeps.
+     */
+    boolean hasConverged() {
+        return converged;
+    }
+
+    /**
+     * @return the posterior mean of alpha (or its fixed value).
+     */
+    double getAlpha() {
+        return mean(alphaWeights, alphaGrid, alpha);
+    }
+
+    /**
+     * @return the posterior mean of beta (or its fixed value).
+     */
+    double getBeta() {
+        return mean(betaWeights, betaGrid, beta);
+    }
+
+    /**
+     * @return the posterior mean of p (or its fixed value).
+     */
+    double getP() {
+        if (pWeights == null && Double.isNaN(p))
+            return mean(uniform(pGrid.length), pGrid, p);
+        return mean(pWeights, pGrid, p);
+    }
+}
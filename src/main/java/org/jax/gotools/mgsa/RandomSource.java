@@ -0,0 +1,39 @@
+package org.jax.gotools.mgsa;
+
+/**
+ * Source of random numbers for the MCMC sampler. Implementations need not be thread-safe; every
+ * chain owns its source. Independent streams for parallel chains or study sets are obtained
+ * with {@link #split()}, which is deterministic, so that parallel runs can be reproduced from
+ * a single seed.
+ */
+public interface RandomSource {
+
+    /**
+     * @return a uniformly distributed long value.
+     */
+    long nextLong();
+
+    /**
+     * @return a uniformly distributed value in [0,1).
+     */
+    double nextDouble();
+
+    /**
+     * @return a uniformly distributed boolean value.
+     */
+    boolean nextBoolean();
+
+    /**
+     * @param bound the upper bound (exclusive), must be positive
+     * @return a uniformly distributed value in [0,bound).
+     */
+    int nextInt(int bound);
+
+    /**
+     * Creates a new source whose stream does not overlap with the one of this source (for all
+     * practical purposes). Repeated calls on sources in the same state yield the same streams.
+     *
+     * @return the new source
+     */
+    RandomSource split();
+}
@@ -0,0 +1,226 @@
+package org.jax.gotools.mgsa;
+
+import java.util.Arrays;
+
+/**
+ * Immutable term to gene incidence structure in compressed sparse row (CSR) layout. The genes
+ * annotated to term {@code t} are {@code termGenes[termOffsets[t]] ... termGenes[termOffsets[t+1]-1]},
+ * stored in one contiguous array. The inverse (gene to term) index is stored in the same way.
+ * Degrees of terms and genes are precomputed.
+ * <p>
+ * Instances can be shared between threads. The arrays returned by the package-private getters
+ * are the internal arrays and must not be modified.
+ */
+public final class TermGeneIndex {
+
+    private final int numTerms;
+    private final int numGenes;
+
+    /** termGenes[termOffsets[t]..termOffsets[t+1]) are the genes annotated to term t */
+    private final int[] termOffsets;
+    private final int[] termGenes;
+
+    /** geneTerms[geneOffsets[g]..geneOffsets[g+1]) are the terms annotated to gene g */
+    private final int[] geneOffsets;
+    private final int[] geneTerms;
+
+    private final int[] termDegree;
+    private final int[] geneDegree;
+
+    /** Classes of the genes with identical terms, built on first use */
+    private volatile GeneClasses geneClasses;
+
+    /** Classes of the terms with identical genes, built on first use */
+    private volatile int[] termClasses;
+
+    /**
+     * Creates the index from the term part of the CSR layout. The gene to term part is derived.
+     *
+     * @param numGenes    number of genes (all gene indices must be smaller)
+     * @param termOffsets offsets into termGenes, of length numTerms + 1
+     * @param termGenes   concatenated gene indices of all terms
+     */
+    TermGeneIndex(int numGenes, int[] termOffsets, int[] termGenes) {
+        if (termOffsets.length == 0 || termOffsets[0] != 0 || termOffsets[termOffsets.length - 1] != termGenes.length)
+            throw new IllegalArgumentException("Term offsets are inconsistent with the term gene array");
+        this.numTerms = termOffsets.length - 1;
+        this.numGenes = numGenes;
+        this.termOffsets = termOffsets;
+        this.termGenes = termGenes;
+
+        termDegree = new int[numTerms];
+        for (int t = 0; t < numTerms; t++)
+            termDegree[t] = termOffsets[t + 1] - termOffsets[t];
+
+        geneDegree = new int[numGenes];
+        for (int gid : termGenes) {
+            if (gid < 0 || gid >= numGenes)
+                throw new IllegalArgumentException("Gene index " + gid + " out of range [0," + numGenes + ")");
+            geneDegree[gid]++;
+        }
+
+        /* Counting sort of the (term, gene) pairs by gene. As terms are visited in order, the terms
+         * of each gene end up sorted. */
+        geneOffsets = new int[numGenes + 1];
+        for (int g = 0; g < numGenes; g++)
+            geneOffsets[g + 1] = geneOffsets[g] + geneDegree[g];
+        geneTerms = new int[termGenes.length];
+        int[] fill = Arrays.copyOf(geneOffsets, numGenes);
+        for (int t = 0; t < numTerms; t++) {
+            for (int i = termOffsets[t]; i < termOffsets[t + 1]; i++)
+                geneTerms[fill[termGenes[i]]++] = t;
+        }
+    }
+
+    /**
+     * Converts the jagged term links representation (one row of gene indices per term).
+     *
+     * @param termLinks gene indices of each term
+     * @param numGenes  the number of genes
+     * @return the CSR index
+     */
+    public static TermGeneIndex fromTermLinks(int[][] termLinks, int numGenes) {
+        int[] offsets = new int[termLinks.length + 1];
+        for (int t = 0; t < termLinks.length; t++)
+            offsets[t + 1] = offsets[t] + termLinks[t].length;
+        int[] genes = new int[offsets[termLinks.length]];
+        for (int t = 0; t < termLinks.length; t++)
+            System.arraycopy(termLinks[t], 0, genes, offsets[t], termLinks[t].length);
+        return new TermGeneIndex(numGenes, offsets, genes);
+    }
+
+    /**
+     * Converts the jagged term links representation. The number of genes is taken to be one
+     * larger than the largest gene index.
+     *
+     * @param termLinks gene indices of each term
+     * @return the CSR index
+     */
+    public static TermGeneIndex fromTermLinks(int[][] termLinks) {
+        int max = -1;
+        for (int[] row : termLinks)
+            for (int gid : row)
+                max = Math.max(max, gid);
+        return fromTermLinks(termLinks, max + 1);
+    }
+
+    /**
+     * Creates the index of a subset of the terms. The genes keep their indices.
+     *
+     * @param terms indices of the terms to keep, in the order of the new index
+     * @return the index of the given terms
+     */
+    TermGeneIndex restrictToTerms(int[] terms) {
+        int[] offsets = new int[terms.length + 1];
+        for (int i = 0; i < terms.length; i++)
+            offsets[i + 1] = offsets[i] + termDegree[terms[i]];
+        int[] genes = new int[offsets[terms.length]];
+        for (int i = 0; i < terms.length; i++)
+            System.arraycopy(termGenes, termOffsets[terms[i]], genes, offsets[i], termDegree[terms[i]]);
+        return new TermGeneIndex(numGenes, offsets, genes);
+    }
+
+    public int getNumTerms() {
+        return numTerms;
+    }
+
+    public int getNumGenes() {
+        return numGenes;
+    }
+
+    /**
+     * @return total number of term-gene annotations.
+     */
+    public int getNumAnnotations() {
+        return termGenes.length;
+    }
+
+    /**
+     * @param term index of the term
+     * @return the number of genes annotated to the term.
+     */
+    public int getTermDegree(int term) {
+        return termDegree[term];
+    }
+
+    /**
+     * @param gene index of the gene
+     * @return the number of terms annotated to the gene.
+     */
+    public int getGeneDegree(int gene) {
+        return geneDegree[gene];
+    }
+
+    /**
+     * @param term index of the term
+     * @return a copy of the gene indices of the term.
+     */
+    public int[] getGenesOfTerm(int term) {
+        return Arrays.copyOfRange(termGenes, termOffsets[term], termOffsets[term + 1]);
+    }
+
+    /**
+     * @param gene index of the gene
+     * @return a copy of the term indices of the gene.
+     */
+    public int[] getTermsOfGene(int gene) {
+        return Arrays.copyOfRange(geneTerms, geneOffsets[gene], geneOffsets[gene + 1]);
+    }
+
+    /**
+     * @return the classes of the genes that are annotated to the same terms. They are built on the
+     * first call; concurrent first calls may build them more than once.
+     */
+    GeneClasses getGeneClasses() {
+        GeneClasses classes = geneClasses;
+        if (classes == null) {
+            classes = new GeneClasses(this);
+            geneClasses = classes;
+        }
+        return classes;
+    }
+
+    /**
+     * @return for each term, the class of the terms that are annotated to exactly the same genes
+     * (numbered in the order of their first term). They are built on the first call.
+     */
+    int[] getTermClasses() {
+        int[] classes = termClasses;
+        if (classes == null) {
+            /* The genes of each term in ascending order, by visiting the genes in order */
+            int[] sortedGenes = new int[termGenes.length];
+            int[] fill = Arrays.copyOf(termOffsets, numTerms);
+            for (int g = 0; g < numGenes; g++) {
+                for (int i = geneOffsets[g]; i < geneOffsets[g + 1]; i++)
+                    sortedGenes[fill[geneTerms[i]]++] = g;
+            }
+            classes = GeneClasses.classify(numTerms, termOffsets, sortedGenes);
+            termClasses = classes;
+        }
+        return classes;
+    }
+
+    int[] getTermOffsets() {
+        return termOffsets;
+    }
+
+    int[] getTermGenes() {
+        return termGenes;
+    }
+
+    int[] getGeneOffsets() {
+        return geneOffsets;
+    }
+
+    int[] getGeneTerms() {
+        return geneTerms;
+    }
+
+    int[] getTermDegrees() {
+        return termDegree;
+    }
+
+    int[] getGeneDegrees() {
+        return geneDegree;
+    }
+}
@@ -0,0 +1,169 @@
+package org.jax.gotools.mgsa;
+
+import java.util.Arrays;
+
+/**
+ * The terms of a population that take part in an MGSA calculation. Terms whose number of
+ * population genes lies outside of a size window are pruned and, if the study set is not compared
+ * against the whole population, also the terms without any study gene. The sampler then runs on
+ * the index of the remaining terms, whose neighborhood (numTerms + active * inactive) is much
+ * smaller, and the marginals are expanded back to all terms, with a fixed value for the pruned ones.
+ * <p>
+ * Optionally, kept terms that are annotated to exactly the same genes (e.g., a parent whose only
+ * annotated child is annotated to all of its genes) are merged into one term of the index. They
+ * are indistinguishable by the likelihood, and sampling them separately only wastes steps on moves
+ * between them. The number of members of each merged term is its multiplicity, which the prior has
+ * to take into account (see {@link FixedAlphaBetaScore#setTermMultiplicities(int[])}). All members
+ * get the marginal of the merged term, i.e., the probability that at least one of them is active.
+ */
+final class TermPruning {
+
+    /** Index of all terms */
+    private final TermGeneIndex fullIndex;
+    /** Index of the kept terms */
+    private final TermGeneIndex index;
+    /** keptPosition[t] is the index of term t in index, or -1 if t was pruned */
+    private final int[] keptPosition;
+    /** multiplicities[i] is the number of kept terms that have been merged into term i of index */
+    private final int[] multiplicities;
+    private final int numKept;
+
+    private TermPruning(TermGeneIndex fullIndex, TermGeneIndex index, int[] keptPosition, int[] multiplicities, int numKept) {
+        this.fullIndex = fullIndex;
+        this.index = index;
+        this.keptPosition = keptPosition;
+        this.multiplicities = multiplicities;
+        this.numKept = numKept;
+    }
+
+    /**
+     * @param fullIndex         index of all terms of the population
+     * @param observed          the observed state of each gene
+     * @param requireStudyGenes whether terms without an observed gene are pruned
+     * @param minTermSize       smallest number of population genes of a kept term
+     * @param maxTermSize       largest number of population genes of a kept term
+     * @return the pruning; its index is fullIndex itself if no term has been pruned
+     */
+    static TermPruning prune(TermGeneIndex fullIndex, boolean[] observed, boolean requireStudyGenes,
+                             int minTermSize, int maxTermSize) {
+        return prune(fullIndex, observed, requireStudyGenes, minTermSize, maxTermSize, false);
+    }
+
+    /**
+     * @param fullIndex         index of all terms of the population
+     * @param observed          the observed state of each gene
+     * @param requireStudyGenes whether terms without an observed gene are pruned
+     * @param minTermSize       smallest number of population genes of a kept term
+     * @param maxTermSize       largest number of population genes of a kept term
+     * @param mergeIdentical    whether kept terms with identical genes are merged
+     * @return the pruning; its index is fullIndex itself if no term has been pruned or merged
+     */
+    static TermPruning prune(TermGeneIndex fullIndex, boolean[] observed, boolean requireStudyGenes,
+                             int minTermSize, int maxTermSize, boolean mergeIdentical) {
+        int numTerms = fullIndex.getNumTerms();
+        int[] termOffsets = fullIndex.getTermOffsets();
+        int[] termGenes = fullIndex.getTermGenes();
+        int[] kept = new int[numTerms];
+        int numKept = 0;
+        for (int t = 0; t < numTerms; t++) {
+            int size = fullIndex.getTermDegree(t);
+            if (size < minTermSize || size > maxTermSize)
+                continue;
+            if (requireStudyGenes) {
+                int i = termOffsets[t];
+                while (i < termOffsets[t + 1] && !observed[termGenes[i]])
+                    i++;
+                if (i == termOffsets[t + 1])
+                    continue;
+            }
+            kept[numKept++] = t;
+        }
+
+        /* Terms with identical genes are either all kept or all pruned; the first one represents them */
+        int[] keptPosition = new int[numTerms];
+        Arrays.fill(keptPosition, -1);
+        int[] representatives = new int[numKept];
+        int[] multiplicities = new int[numKept];
+        int numMerged = 0;
+        int[] termClasses = mergeIdentical ? fullIndex.getTermClasses() : null;
+        int[] mergedOfClass = null;
+        if (mergeIdentical) {
+            mergedOfClass = new int[numTerms];
+            Arrays.fill(mergedOfClass, -1);
+        }
+        for (int i = 0; i < numKept; i++) {
+            int t = kept[i];
+            int m = mergeIdentical ? mergedOfClass[termClasses[t]] : -1;
+            if (m < 0) {
+                m = numMerged++;
+                representatives[m] = t;
+                if (mergeIdentical)
+                    mergedOfClass[termClasses[t]] = m;
+            }
+            multiplicities[m]++;
+            keptPosition[t] = m;
+        }
+        multiplicities = Arrays.copyOf(multiplicities, numMerged);
+        if (numMerged == numTerms)
+            return new TermPruning(fullIndex, fullIndex, keptPosition, multiplicities, numKept);
+        representatives = Arrays.copyOf(representatives, numMerged);
+        return new TermPruning(fullIndex, fullIndex.restrictToTerms(representatives), keptPosition, multiplicities, numKept);
+    }
+
+    /**
+     * @return the index of the kept terms.
+     */
+    TermGeneIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the number of pruned terms.
+     */
+    int getNumPruned() {
+        return fullIndex.getNumTerms() - numKept;
+    }
+
+    /**
+     * @return the number of kept terms that have been merged into another one.
+     */
+    int getNumMerged() {
+        return numKept - index.getNumTerms();
+    }
+
+    /**
+     * @return the number of kept terms that each term of {@link #getIndex()} stands for.
+     */
+    int[] getMultiplicities() {
+        return multiplicities.clone();
+    }
+
+    /**
+     * @param term index of a term of the population
+     * @return the index of the term (or the term it has been merged into) in {@link #getIndex()},
+     * or -1 if it was pruned.
+     */
+    int getKeptPosition(int term) {
+        return keptPosition[term];
+    }
+
+    /**
+     * @param other the pruning of another study set of the same population
+     * @return whether both keep and merge the same terms.
+     */
+    boolean hasSameTerms(TermPruning other) {
+        return Arrays.equals(keptPosition, other.keptPosition);
+    }
+
+    /**
+     * @param marginals      marginals of the kept terms
+     * @param prunedMarginal value that is reported for the pruned terms
+     * @return the marginals of all terms of the population.
+     */
+    double[] expand(double[] marginals, double prunedMarginal) {
+        double[] all = new double[keptPosition.length];
+        for (int t = 0; t < all.length; t++)
+            all[t] = keptPosition[t] < 0 ? prunedMarginal : marginals[keptPosition[t]];
+        return all;
+    }
+}
@@ -14,9 +14,14 @@ import java.util.*;
 
 /**
  * This replaces the original CalculationUtils.java and uses Java8 collections.
+ * <p>
+ * The matrix is immutable once it has been constructed and can therefore be built once per
+ * population (i.e., per {@link AssociationContainer}) and shared by any number of study set
+ * calculations, also from different threads. The term to gene associations are stored in
+ * compressed sparse row layout in a {@link TermGeneIndex}, which also provides the inverse
+ * gene to term associations.
  */
-
-class TermToItemMatrix {
+public final class TermToItemMatrix {
 
     private final int n_genes;
     private final int n_annotated_terms;
@@ -29,19 +34,18 @@ class TermToItemMatrix {
     /** The GO terms and their indices in {@link #goTermList}. */
     private final Map<TermId,Integer> goTermToIndexMap;
 
-    private final int [][] termLinks;
+    /** Genes of each term (and terms of each gene) in CSR layout */
+    private final TermGeneIndex index;
 
 
-    TermToItemMatrix(AssociationContainer assocs) throws PhenolException {
+    public TermToItemMatrix(AssociationContainer assocs) throws PhenolException {
         Objects.requireNonNull(assocs);
         Set<TermId> genes = assocs.getAllAnnotatedGenes();
-        Set<TermId> goTerms = new HashSet<>();
+        Set<TermId> goTerms = new LinkedHashSet<>();
         Multimap<TermId, TermId> goTermToAnnotatedGenesMap = ArrayListMultimap.create();
         ImmutableList.Builder<TermId> builder = new ImmutableList.Builder<>();
         ImmutableMap.Builder<TermId,Integer> mapBuilder = new ImmutableMap.Builder<>();
         n_genes = genes.size();
-        n_annotated_terms = assocs.getOntologyTermCount();
-        termLinks = new int[n_annotated_terms][];
         int i = 0;
         for (TermId tid : genes) {
             builder.add(tid);
@@ -52,7 +56,6 @@ class TermToItemMatrix {
                 goTermToAnnotatedGenesMap.put(goId,tid);
             }
             goTerms.addAll(assox);
-            termLinks[i] = new int[assox.size()];
             i++;
         }
         annotatedItemList = builder.build();
@@ -68,17 +71,18 @@ class TermToItemMatrix {
         }
         goTermList = builder.build();
         goTermToIndexMap = mapBuilder.build();
+        n_annotated_terms = goTermList.size();
+        int [] termOffsets = new int[n_annotated_terms + 1];
+        int [] termGenes = new int[goTermToAnnotatedGenesMap.size()];
         int gotIndex = 0;
         int missedIndex = 0;
-        // Now create the array. Each row represents one GO term, with the columns representing the genes that
-        // are annotated to the GO term. The matrix is not square, but instead we have an array of variable length
-        // arrays with the fields of the array holding the index of the gene as per annotatedItemList
+        // Now create the CSR arrays. The genes annotated to the j'th GO term are stored consecutively
+        // in termGenes, starting at termOffsets[j], with each field holding the index of the gene as
+        // per annotatedItemList
+        int k = 0;
         for (int j = 0; j < goTermList.size(); j++) {
             TermId goId = goTermList.get(j);
             Collection<TermId> geneCollection = goTermToAnnotatedGenesMap.get(goId);
-            int N = geneCollection.size();
-            termLinks[j] = new int[N];
-            int k = 0;
             for (TermId g : geneCollection) {
                 Integer idx = this.annotatedItemToIndexMap.get(g);
                 if (idx == null || idx < 0) {
@@ -89,29 +93,107 @@ class TermToItemMatrix {
                 } else {
                     gotIndex++;
                 }
-                termLinks[j][k] = idx;
+                termGenes[k] = idx;
                 k++;
             }
+            termOffsets[j + 1] = k;
+        }
+        if (k < termGenes.length) {
+            termGenes = Arrays.copyOf(termGenes, k);
         }
+        index = new TermGeneIndex(n_genes, termOffsets, termGenes);
+        // Group the genes with identical terms now, so that the classes are shared by all calculations
+        index.getGeneClasses();
+    }
+
+    /**
+     * Creates a matrix from its parts, e.g., from a {@link TermToItemMatrixSnapshot}.
+     *
+     * @param items the genes (items), in the order of the gene indices of index
+     * @param terms the GO terms, in the order of the term indices of index
+     * @param index the term to gene associations
+     */
+    TermToItemMatrix(List<TermId> items, List<TermId> terms, TermGeneIndex index) {
+        if (items.size() != index.getNumGenes() || terms.size() != index.getNumTerms())
+            throw new IllegalArgumentException("Expected " + index.getNumGenes() + " items and " + index.getNumTerms() +
+                    " terms but got " + items.size() + " and " + terms.size());
+        n_genes = items.size();
+        n_annotated_terms = terms.size();
+        annotatedItemList = items;
+        goTermList = terms;
+        annotatedItemToIndexMap = indexMap(items);
+        goTermToIndexMap = indexMap(terms);
+        this.index = index;
+        index.getGeneClasses();
+    }
+
+    private static Map<TermId, Integer> indexMap(List<TermId> ids) {
+        ImmutableMap.Builder<TermId, Integer> mapBuilder = new ImmutableMap.Builder<>();
+        for (int i = 0; i < ids.size(); i++)
+            mapBuilder.put(ids.get(i), i);
+        return mapBuilder.build();
     }
 
     public int getNumTerms() {
         return n_annotated_terms;
     }
 
+    /**
+     * @return the number of genes (items) that are annotated to at least one term.
+     */
+    public int getNumGenes() {
+        return n_genes;
+    }
+
 
     TermId getGoTermAtIndex(int i) {
         return this.goTermList.get(i);
     }
 
+    TermId getItemAtIndex(int i) {
+        return this.annotatedItemList.get(i);
+    }
+
     public int getAnnotatedGeneCount(TermId goTermId) {
         Integer i = goTermToIndexMap.get(goTermId);
         if (i == null || i < 0) {
             System.err.println("[ERROR] Could not find index for GO Term " + goTermId);
             return 0;
         }
-        int [] genes = this.termLinks[i];
-        return genes.length;
+        return index.getTermDegree(i);
+    }
+
+    /**
+     * @param i index of a GO term
+     * @param observed the observed state of each gene, as returned by {@link #getBooleanArrayobservedItems(Set)}
+     * @return the number of observed genes that are annotated to the term.
+     */
+    int getObservedGeneCount(int i, boolean [] observed) {
+        int [] termOffsets = index.getTermOffsets();
+        int [] termGenes = index.getTermGenes();
+        int count = 0;
+        for (int j = termOffsets[i]; j < termOffsets[i + 1]; j++) {
+            if (observed[termGenes[j]]) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param item id of a gene (item)
+     * @return the index of the gene, or -1 if it is not annotated to any term.
+     */
+    int getItemIndex(TermId item) {
+        Integer i = annotatedItemToIndexMap.get(item);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * @param goTermId id of a GO term
+     * @return the index of the term, or -1 if it is not in the matrix.
+     */
+    int getGoTermIndex(TermId goTermId) {
+        Integer i = goTermToIndexMap.get(goTermId);
+        return i == null ? -1 : i;
     }
 
     public boolean []  getBooleanArrayobservedItems(Set<TermId> geneIds) {
@@ -129,11 +211,9 @@ class TermToItemMatrix {
 
 
     /**
-     * Creates an array of term to item associations.
-     * @return the array.
+     * @return the term to item (and item to term) associations in CSR layout.
      */
-    public int [][] getTermLinks()
-    {
-        return this.termLinks;
+    public TermGeneIndex getIndex() {
+        return this.index;
     }
 }
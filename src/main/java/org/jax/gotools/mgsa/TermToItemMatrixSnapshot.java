@@ -0,0 +1,201 @@
+package org.jax.gotools.mgsa;
+
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of a {@link TermToItemMatrix}: the term to gene associations in CSR layout, the
+ * gene and term dictionaries, and a checksum of the source files (e.g., the ontology and the
+ * annotation file) from which the matrix has been built. Loading a snapshot does not need the
+ * ontology or the annotations: {@link MgsaCalculation#fromSnapshot(Path, int)} creates a
+ * calculation from the snapshot alone, so that short jobs start without parsing the source files
+ * first. The snapshot is read through a memory mapping, i.e., concurrent processes that load the
+ * same snapshot share the page cache.
+ * <p>
+ * The file is a compact binary (big-endian) format that starts with a magic number and a version,
+ * followed by the source checksum, the dimensions, the CSR arrays and the identifiers, and ends
+ * with a CRC32 of all preceding bytes, which detects truncated or damaged files. Like a
+ * {@link MgsaCheckpoint}, it is written to a temporary file first and then moved into place.
+ */
+public final class TermToItemMatrixSnapshot {
+
+    private static final int MAGIC = 0x4d47534d; /* "MGSM" */
+    private static final int VERSION = 1;
+    /** Length of magic number, version, source checksum and dimensions */
+    private static final int HEADER_LENGTH = 4 + 4 + 8 + 4 + 4 + 4;
+
+    private TermToItemMatrixSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of the matrix.
+     *
+     * @param file           the snapshot file (replaced if it exists)
+     * @param matrix         the matrix
+     * @param sourceChecksum checksum of the files from which the matrix has been built, see {@link #checksum(Path...)}
+     */
+    public static void write(Path file, TermToItemMatrix matrix, long sourceChecksum) throws IOException {
+        TermGeneIndex index = matrix.getIndex();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(os, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceChecksum);
+            out.writeInt(index.getNumGenes());
+            out.writeInt(index.getNumTerms());
+            out.writeInt(index.getNumAnnotations());
+            for (int offset : index.getTermOffsets())
+                out.writeInt(offset);
+            int[] termGenes = index.getTermGenes();
+            for (int i = 0; i < index.getNumAnnotations(); i++)
+                out.writeInt(termGenes[i]);
+            for (int g = 0; g < index.getNumGenes(); g++)
+                writeId(out, matrix.getItemAtIndex(g));
+            for (int t = 0; t < index.getNumTerms(); t++)
+                writeId(out, matrix.getGoTermAtIndex(t));
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeId(DataOutputStream out, TermId id) throws IOException {
+        byte[] bytes = id.getValue().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff)
+            throw new IOException("Identifier is too long: " + id.getValue());
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a snapshot that has been written by {@link #write}.
+     *
+     * @param file the snapshot file
+     * @return the matrix
+     * @throws IOException if the file cannot be read, is not a snapshot or is damaged
+     */
+    public static TermToItemMatrix read(Path file) throws IOException {
+        ByteBuffer buffer = map(file);
+        checkHeader(file, buffer);
+        if (buffer.limit() < HEADER_LENGTH + 8)
+            throw new IOException(file + " is truncated");
+        CRC32 crc = new CRC32();
+        ByteBuffer content = buffer.duplicate();
+        content.position(0).limit(buffer.limit() - 8);
+        crc.update(content);
+        if (crc.getValue() != buffer.getLong(buffer.limit() - 8))
+            throw new IOException(file + " is damaged (checksum mismatch)");
+
+        buffer.position(16);
+        int numGenes = buffer.getInt();
+        int numTerms = buffer.getInt();
+        int numAnnotations = buffer.getInt();
+        if (numGenes < 0 || numTerms < 0 || numAnnotations < 0)
+            throw new IOException(file + " has invalid dimensions");
+        int[] termOffsets = new int[numTerms + 1];
+        int[] termGenes = new int[numAnnotations];
+        buffer.asIntBuffer().get(termOffsets).get(termGenes);
+        buffer.position(buffer.position() + 4 * (termOffsets.length + termGenes.length));
+        for (int t = 0; t < numTerms; t++) {
+            if (termOffsets[t] > termOffsets[t + 1])
+                throw new IOException(file + " has invalid term offsets");
+        }
+        if (termOffsets[0] != 0 || termOffsets[numTerms] != numAnnotations)
+            throw new IOException(file + " has invalid term offsets");
+        for (int g : termGenes) {
+            if (g < 0 || g >= numGenes)
+                throw new IOException(file + " has an invalid gene index " + g);
+        }
+
+        List<TermId> genes = new ArrayList<>(numGenes);
+        for (int g = 0; g < numGenes; g++)
+            genes.add(readId(buffer));
+        List<TermId> terms = new ArrayList<>(numTerms);
+        for (int t = 0; t < numTerms; t++)
+            terms.add(readId(buffer));
+        return new TermToItemMatrix(Collections.unmodifiableList(genes), Collections.unmodifiableList(terms),
+                new TermGeneIndex(numGenes, termOffsets, termGenes));
+    }
+
+    private static TermId readId(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return TermId.of(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads only the source checksum of a snapshot, e.g., to decide whether the snapshot is
+     * still up to date without loading it.
+     *
+     * @param file the snapshot file
+     * @return the checksum of the files from which the matrix of the snapshot has been built
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public static long readSourceChecksum(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                /* read the complete header */
+            }
+        }
+        header.flip();
+        checkHeader(file, header);
+        return header.getLong(8);
+    }
+
+    /**
+     * @param sources the files from which a matrix is built, in a fixed order
+     * @return a CRC32 of the contents of the files.
+     */
+    public static long checksum(Path... sources) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] bytes = new byte[1 << 16];
+        for (Path source : sources) {
+            try (InputStream in = Files.newInputStream(source)) {
+                int n;
+                while ((n = in.read(bytes)) > 0)
+                    crc.update(bytes, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(file + " is too large for an MGSA snapshot");
+            /* The mapping stays valid after the channel has been closed */
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    private static void checkHeader(Path file, ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_LENGTH || buffer.getInt(0) != MAGIC)
+            throw new IOException(file + " is not an MGSA term matrix snapshot");
+        int version = buffer.getInt(4);
+        if (version != VERSION)
+            throw new IOException("Unsupported MGSA term matrix snapshot version " + version + " in " + file);
+    }
+}
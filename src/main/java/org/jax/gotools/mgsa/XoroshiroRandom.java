@@ -0,0 +1,111 @@
+package org.jax.gotools.mgsa;
+
+/**
+ * The xoroshiro128++ generator of Blackman and Vigna. It is unsynchronized, has a period of
+ * 2^128-1 and a state of two longs. {@link #split()} seeds the new source from two draws of this
+ * source through the SplitMix64 finalizer, so that the new stream starts at an unrelated point of
+ * the period. Unlike jumping ahead by a fixed distance, this also holds for sources that have been
+ * split off and are split again, e.g., the replicas of the chains of a study set in a batch.
+ *
+ * @see <A HREF="https://prng.di.unimi.it/">xoshiro / xoroshiro generators and the PRNG shootout</A>
+ */
+public final class XoroshiroRandom implements RandomSource {
+
+    private long s0;
+    private long s1;
+
+    /**
+     * Creates a generator whose state is expanded from the seed with SplitMix64.
+     *
+     * @param seed the seed
+     */
+    public XoroshiroRandom(long seed) {
+        long x = seed;
+        x += 0x9e3779b97f4a7c15L;
+        s0 = mix(x);
+        x += 0x9e3779b97f4a7c15L;
+        s1 = mix(x);
+        if (s0 == 0 && s1 == 0)
+            s1 = 1; /* the all-zero state is not allowed */
+    }
+
+    /**
+     * Creates a generator with the given state, e.g., one obtained by {@link #getState()}.
+     */
+    XoroshiroRandom(long s0, long s1) {
+        if (s0 == 0 && s1 == 0)
+            throw new IllegalArgumentException("The state of xoroshiro128++ must not be zero");
+        this.s0 = s0;
+        this.s1 = s1;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public long nextLong() {
+        long a = s0;
+        long b = s1;
+        long result = Long.rotateLeft(a + b, 17) + a;
+        b ^= a;
+        s0 = Long.rotateLeft(a, 49) ^ b ^ (b << 21);
+        s1 = Long.rotateLeft(b, 28);
+        return result;
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+
+    @Override
+    public int nextInt(int bound) {
+        if (bound <= 0)
+            throw new IllegalArgumentException("bound must be positive but was " + bound);
+        /* Lemire's multiply-and-shift with rejection of the biased low products */
+        long m = (nextLong() >>> 32) * bound;
+        long l = m & 0xffffffffL;
+        if (l < bound) {
+            long t = (0x100000000L - bound) % bound;
+            while (l < t) {
+                m = (nextLong() >>> 32) * bound;
+                l = m & 0xffffffffL;
+            }
+        }
+        return (int) (m >>> 32);
+    }
+
+    @Override
+    public XoroshiroRandom split() {
+        long x0 = mix(nextLong());
+        long x1 = mix(nextLong());
+        if (x0 == 0 && x1 == 0)
+            x1 = 1; /* the all-zero state is not allowed */
+        return new XoroshiroRandom(x0, x1);
+    }
+
+    /**
+     * @return the two state words of the generator.
+     */
+    long[] getState() {
+        return new long[]{s0, s1};
+    }
+
+    /**
+     * Restores a state obtained by {@link #getState()}.
+     */
+    void setState(long s0, long s1) {
+        if (s0 == 0 && s1 == 0)
+            throw new IllegalArgumentException("The state of xoroshiro128++ must not be zero");
+        this.s0 = s0;
+        this.s1 = s1;
+    }
+}
@@ -0,0 +1,91 @@
+package org.jax.gotools.mgsa;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import org.monarchinitiative.phenol.analysis.AssociationContainer;
+import org.monarchinitiative.phenol.analysis.DirectAndIndirectTermAnnotations;
+import org.monarchinitiative.phenol.analysis.ItemAssociations;
+import org.monarchinitiative.phenol.ontology.data.TermAnnotation;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.util.*;
+
+/**
+ * Small in-memory association container for testing the MGSA code without GO files.
+ */
+class FakeAssociationContainer implements AssociationContainer {
+
+    private final Map<TermId, ItemAssociations> gene2assocs = new LinkedHashMap<>();
+    private final Multimap<TermId, TermId> term2genes = ArrayListMultimap.create();
+
+    /**
+     * Annotates the gene to the given GO terms.
+     */
+    void annotate(String gene, String... goIds) {
+        TermId geneId = TermId.of(gene);
+        ItemAssociations assocs = gene2assocs.computeIfAbsent(geneId, ItemAssociations::new);
+        for (String goId : goIds) {
+            TermId termId = TermId.of(goId);
+            assocs.add(new SimpleAnnotation(termId, geneId));
+            term2genes.put(termId, geneId);
+        }
+    }
+
+    @Override
+    public int getOntologyTermCount() {
+        return term2genes.keySet().size();
+    }
+
+    @Override
+    public Multimap<TermId, TermId> getTermToItemMultimap() {
+        return term2genes;
+    }
+
+    @Override
+    public ItemAssociations get(TermId tid) {
+        return gene2assocs.get(tid);
+    }
+
+    @Override
+    public Map<TermId, DirectAndIndirectTermAnnotations> getAssociationMap(Set<TermId> genes) {
+        Map<TermId, DirectAndIndirectTermAnnotations> map = new HashMap<>();
+        for (TermId gene : genes) {
+            for (TermId goId : gene2assocs.get(gene).getAssociations()) {
+                DirectAndIndirectTermAnnotations a = map.computeIfAbsent(goId, k -> new DirectAndIndirectTermAnnotations());
+                a.addGeneAnnotationDirect(gene);
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public Set<TermId> getAllAnnotatedGenes() {
+        return gene2assocs.keySet();
+    }
+
+    private static class SimpleAnnotation implements TermAnnotation {
+        private static final long serialVersionUID = 1L;
+        private final TermId termId;
+        private final TermId label;
+
+        SimpleAnnotation(TermId termId, TermId label) {
+            this.termId = termId;
+            this.label = label;
+        }
+
+        @Override
+        public TermId getTermId() {
+            return termId;
+        }
+
+        @Override
+        public TermId getLabel() {
+            return label;
+        }
+
+        @Override
+        public int compareTo(TermAnnotation o) {
+            return termId.compareTo(o.getTermId());
+        }
+    }
+}
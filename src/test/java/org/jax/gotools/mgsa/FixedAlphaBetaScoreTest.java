@@ -0,0 +1,208 @@
+package org.jax.gotools.mgsa;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FixedAlphaBetaScoreTest {
+
+    private static final double EPSILON = 1e-8;
+
+    static final int NUM_GENES = 200;
+
+    /**
+     * Fifty overlapping terms on {@link #NUM_GENES} genes; gene i of term t is (3t + 11i) mod 200.
+     */
+    static int[][] createTermLinks() {
+        int[][] termLinks = new int[50][];
+        for (int t = 0; t < termLinks.length; t++) {
+            int n = 5 + (t % 7);
+            termLinks[t] = new int[n];
+            for (int i = 0; i < n; i++) {
+                termLinks[t][i] = (3 * t + 11 * i) % NUM_GENES;
+            }
+        }
+        return termLinks;
+    }
+
+    /**
+     * @return the observed state of the genes; every third gene is observed.
+     */
+    static boolean[] createObserved() {
+        boolean[] observed = new boolean[NUM_GENES];
+        for (int g = 0; g < NUM_GENES; g += 3) {
+            observed[g] = true;
+        }
+        return observed;
+    }
+
+    /**
+     * The terms of {@link #createTermLinks()} with the observations of {@link #createObserved()}.
+     */
+    static FixedAlphaBetaScore createScore(RandomSource rnd) {
+        return new FixedAlphaBetaScore(rnd, createTermLinks(), createObserved());
+    }
+
+    @Test
+    void testNewScoreMatchesFullScore() {
+        RandomSource rnd = new XoroshiroRandom(5);
+        FixedAlphaBetaScore score = createScore(rnd);
+        double current = score.getScore();
+        for (int i = 0; i < 10_000; i++) {
+            score.proposeNewState(rnd.nextLong());
+            double incremental = score.getNewScore(current);
+            assertEquals(score.getScore(), incremental, EPSILON);
+            if (rnd.nextBoolean()) {
+                current = incremental;
+            } else {
+                score.undoProposal();
+                assertEquals(current, score.getScore(), EPSILON);
+            }
+        }
+    }
+
+    @Test
+    void testNewScoreWithFixedParameters() {
+        RandomSource rnd = new XoroshiroRandom(6);
+        FixedAlphaBetaScore score = createScore(rnd);
+        score.setAlpha(0.1);
+        score.setBeta(0.3);
+        score.setExpectedNumberOfTerms(2);
+        double current = score.getScore();
+        for (int i = 0; i < 1_000; i++) {
+            score.proposeNewState(rnd.nextLong());
+            double incremental = score.getNewScore(current);
+            assertEquals(score.getScore(), incremental, EPSILON);
+            current = incremental;
+        }
+    }
+
+    @Test
+    void testSetObservedMatchesFreshScore() {
+        RandomSource rnd = new XoroshiroRandom(12);
+        FixedAlphaBetaScore score = createScore(rnd);
+        score.setAlpha(0.1);
+        score.setBeta(0.3);
+        score.setExpectedNumberOfTerms(2);
+        for (int i = 0; i < 200; i++) {
+            score.proposeNewState(rnd.nextLong());
+        }
+        boolean[] observed = new boolean[200];
+        for (int g = 0; g < observed.length; g++) {
+            observed[g] = g % 3 == 0 ? g % 5 != 0 : g % 7 == 0;
+            score.setObserved(g, observed[g]);
+        }
+        FixedAlphaBetaScore fresh = new FixedAlphaBetaScore(rnd, score.index, observed);
+        fresh.setAlpha(0.1);
+        fresh.setBeta(0.3);
+        fresh.setExpectedNumberOfTerms(2);
+        for (int t : score.getActiveTerms()) {
+            fresh.switchState(t);
+        }
+        assertEquals(fresh.getScore(), score.getScore(), EPSILON);
+    }
+
+    @Test
+    void testNewScoreWithIntegratedParameters() {
+        RandomSource rnd = new XoroshiroRandom(7);
+        FixedAlphaBetaScore score = createScore(rnd);
+        score.setIntegrateParams(true);
+        double current = score.getScore();
+        for (int i = 0; i < 10_000; i++) {
+            score.proposeNewState(rnd.nextLong());
+            double incremental = score.getNewScore(current);
+            assertEquals(score.getScore(), incremental, EPSILON);
+            if (rnd.nextBoolean()) {
+                current = incremental;
+            } else {
+                score.undoProposal();
+            }
+        }
+    }
+
+    @Test
+    void testNewScoreWithTermMultiplicities() {
+        RandomSource rnd = new XoroshiroRandom(9);
+        FixedAlphaBetaScore score = createScore(rnd);
+        int[] multiplicities = new int[50];
+        for (int t = 0; t < multiplicities.length; t++)
+            multiplicities[t] = 1 + t % 4;
+        score.setTermMultiplicities(multiplicities);
+        double current = score.getScore();
+        for (int i = 0; i < 10_000; i++) {
+            score.proposeNewState(rnd.nextLong());
+            double incremental = score.getNewScore(current);
+            assertEquals(score.getScore(), incremental, EPSILON);
+            if (rnd.nextBoolean()) {
+                current = incremental;
+            } else {
+                score.undoProposal();
+                assertEquals(current, score.getScore(), EPSILON);
+            }
+        }
+    }
+
+    @Test
+    void testTermMultiplicitiesInPrior() {
+        FixedAlphaBetaScore score = createScore(new XoroshiroRandom(10));
+        score.setAlpha(0.1);
+        score.setBeta(0.3);
+        score.setExpectedNumberOfTerms(2);
+        double unmerged = score.score(new int[]{3});
+
+        /* Term 3 stands for three terms; p refers to the 52 terms */
+        int[] multiplicities = new int[50];
+        Arrays.fill(multiplicities, 1);
+        multiplicities[3] = 3;
+        score.setTermMultiplicities(multiplicities);
+        assertEquals(2.0 / 52, score.getP(), 1e-15);
+        double p = 2.0 / 52;
+        double likelihood = unmerged - Math.log(2.0 / 50) - 49 * Math.log(1 - 2.0 / 50);
+        double prior = Math.log(1 - Math.pow(1 - p, 3)) + 49 * Math.log(1 - p);
+        assertEquals(likelihood + prior, score.score(new int[]{3}), EPSILON);
+
+        /* All multiplicities one give the score without multiplicities */
+        Arrays.fill(multiplicities, 1);
+        score.setTermMultiplicities(multiplicities);
+        assertEquals(unmerged, score.score(new int[]{3}), 0);
+    }
+
+    @Test
+    void testActivationCountsMatchActiveTermsOfEachRecord() {
+        RandomSource rnd = new XoroshiroRandom(8);
+        FixedAlphaBetaScore score = createScore(rnd);
+        int[] expected = new int[50];
+        for (int i = 0; i < 5_000; i++) {
+            score.proposeNewState(rnd.nextLong());
+            if (rnd.nextBoolean())
+                score.undoProposal();
+            if (i == 1_000) {
+                score.resetRecords();
+                Arrays.fill(expected, 0);
+            }
+            score.record();
+            for (int t : score.getActiveTerms())
+                expected[t]++;
+            if (i % 997 == 0)
+                score.flushRecords();
+        }
+        for (int t = 0; t < expected.length; t++)
+            assertEquals(expected[t], score.getActivationCount(t));
+        score.flushRecords();
+        assertArrayEquals(expected, score.termActivationCounts);
+    }
+
+    @Test
+    void testLogGammaTable() {
+        LogGammaTable table = LogGammaTable.forMaximum(300);
+        assertSame(table, LogGammaTable.forMaximum(100));
+        assertEquals(0, table.logGamma(1));
+        assertEquals(0, table.logGamma(2));
+        assertEquals(Math.log(120), table.logGamma(6), EPSILON);
+        /* B(3, 4) = 2! 3! / 6! */
+        assertEquals(Math.log(2.0 * 6 / 720), table.logBeta(3, 4), EPSILON);
+        assertEquals(Gamma.lgamma(300), LogGammaTable.forMaximum(1000).logGamma(300));
+    }
+}
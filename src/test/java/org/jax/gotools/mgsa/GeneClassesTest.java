@@ -0,0 +1,32 @@
+package org.jax.gotools.mgsa;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GeneClassesTest {
+
+    @Test
+    void testGenesWithIdenticalTermsAreGrouped() {
+        /* genes 0 and 3 are in terms 0 and 1, genes 1 and 4 only in term 1, gene 2 only in term 2, genes 5 and 6 in none */
+        int[][] termLinks = {{0, 3}, {0, 1, 3, 4}, {2}};
+        TermGeneIndex index = TermGeneIndex.fromTermLinks(termLinks, 7);
+        GeneClasses classes = index.getGeneClasses();
+        assertSame(classes, index.getGeneClasses());
+
+        assertEquals(4, classes.getNumClasses());
+        assertEquals(classes.getClassOfGene(0), classes.getClassOfGene(3));
+        assertEquals(classes.getClassOfGene(1), classes.getClassOfGene(4));
+        assertEquals(classes.getClassOfGene(5), classes.getClassOfGene(6));
+        assertNotEquals(classes.getClassOfGene(0), classes.getClassOfGene(1));
+        assertEquals(2, classes.getClassSize(classes.getClassOfGene(0)));
+        assertEquals(1, classes.getClassSize(classes.getClassOfGene(2)));
+
+        TermGeneIndex classIndex = classes.getIndex();
+        assertEquals(3, classIndex.getNumTerms());
+        assertEquals(4, classIndex.getNumGenes());
+        assertArrayEquals(new int[]{classes.getClassOfGene(0)}, classIndex.getGenesOfTerm(0));
+        assertArrayEquals(new int[]{classes.getClassOfGene(0), classes.getClassOfGene(1)}, classIndex.getGenesOfTerm(1));
+        assertArrayEquals(new int[]{classes.getClassOfGene(2)}, classIndex.getGenesOfTerm(2));
+    }
+}
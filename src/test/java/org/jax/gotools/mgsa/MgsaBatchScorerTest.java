@@ -0,0 +1,89 @@
+package org.jax.gotools.mgsa;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MgsaBatchScorerTest {
+
+    private static final double EPSILON = 1e-8;
+
+    private static List<int[]> createCandidates(RandomSource rnd, int numTerms) {
+        List<int[]> candidates = new ArrayList<>();
+        for (int c = 0; c < 200; c++) {
+            int[] terms = new int[rnd.nextInt(6)];
+            for (int i = 0; i < terms.length; i++) {
+                terms[i] = rnd.nextInt(numTerms);
+            }
+            candidates.add(terms);
+        }
+        return candidates;
+    }
+
+    @Test
+    void testScoreMatchesFixedAlphaBetaScore() {
+        RandomSource rnd = new XoroshiroRandom(3);
+        int[][] termLinks = FixedAlphaBetaScoreTest.createTermLinks();
+        boolean[] observed = FixedAlphaBetaScoreTest.createObserved();
+        FixedAlphaBetaScore score = new FixedAlphaBetaScore(rnd, termLinks, observed);
+        score.setAlpha(0.1);
+        score.setBeta(0.3);
+        score.setExpectedNumberOfTerms(2);
+        for (int i = 0; i < 100; i++) {
+            score.proposeNewState(rnd.nextLong());
+        }
+        int[] state = score.getActiveTerms();
+
+        MgsaBatchScorer scorer = new MgsaBatchScorer(TermGeneIndex.fromTermLinks(termLinks, FixedAlphaBetaScoreTest.NUM_GENES), observed);
+        List<int[]> candidates = createCandidates(rnd, termLinks.length);
+        double[] scores = scorer.scoreAll(candidates, 0.1, 0.3, 2.0 / termLinks.length, 1);
+        for (int c = 0; c < candidates.size(); c++) {
+            int[] distinct = candidates.get(c).length == 0 ? new int[0]
+                    : Arrays.stream(candidates.get(c)).distinct().toArray();
+            assertEquals(score.score(distinct), scores[c], EPSILON);
+        }
+        assertArrayEquals(state, score.getActiveTerms());
+    }
+
+    @Test
+    void testScoreWithMultiplicitiesMatchesFixedAlphaBetaScore() {
+        RandomSource rnd = new XoroshiroRandom(5);
+        int[][] termLinks = FixedAlphaBetaScoreTest.createTermLinks();
+        boolean[] observed = FixedAlphaBetaScoreTest.createObserved();
+        int[] multiplicities = new int[termLinks.length];
+        for (int t = 0; t < multiplicities.length; t++) {
+            multiplicities[t] = 1 + t % 4;
+        }
+        FixedAlphaBetaScore score = new FixedAlphaBetaScore(rnd, termLinks, observed);
+        score.setTermMultiplicities(multiplicities);
+        score.setAlpha(0.1);
+        score.setBeta(0.3);
+        score.setExpectedNumberOfTerms(2);
+
+        MgsaBatchScorer scorer = new MgsaBatchScorer(TermGeneIndex.fromTermLinks(termLinks, FixedAlphaBetaScoreTest.NUM_GENES),
+                observed, multiplicities);
+        List<int[]> candidates = createCandidates(rnd, termLinks.length);
+        double[] scores = scorer.scoreAll(candidates, 0.1, 0.3, score.getP(), 1);
+        for (int c = 0; c < candidates.size(); c++) {
+            int[] distinct = Arrays.stream(candidates.get(c)).distinct().toArray();
+            assertEquals(score.score(distinct), scores[c], EPSILON);
+        }
+    }
+
+    @Test
+    void testParallelScoresMatchSequentialScores() {
+        RandomSource rnd = new XoroshiroRandom(4);
+        int[][] termLinks = FixedAlphaBetaScoreTest.createTermLinks();
+        MgsaBatchScorer scorer = new MgsaBatchScorer(TermGeneIndex.fromTermLinks(termLinks, FixedAlphaBetaScoreTest.NUM_GENES),
+                FixedAlphaBetaScoreTest.createObserved());
+        List<int[]> candidates = createCandidates(rnd, termLinks.length);
+        assertArrayEquals(scorer.scoreAll(candidates, 0.2, 0.2, Double.NaN, 1),
+                scorer.scoreAll(candidates, 0.2, 0.2, Double.NaN, 4), 0);
+        assertThrows(IllegalArgumentException.class,
+                () -> scorer.scoreAll(List.of(new int[]{termLinks.length}), 0.2, 0.2, Double.NaN, 1));
+    }
+}
@@ -1,5 +1,6 @@
 package org.jax.gotools.mgsa;
 
+import org.junit.jupiter.api.Test;
 import org.monarchinitiative.phenol.analysis.AssociationContainer;
 import org.monarchinitiative.phenol.analysis.DirectAndIndirectTermAnnotations;
 import org.monarchinitiative.phenol.analysis.StudySet;
@@ -8,10 +9,264 @@ import org.monarchinitiative.phenol.ontology.data.TermId;
 
 import java.util.*;
 
+import static org.junit.jupiter.api.Assertions.*;
+
 public class MgsaCalculationTest {
 
+    /**
+     * Forty GO terms with five genes each; gene i of term t is NCBIGene:(5t+i). We need more
+     * terms than the largest expected number of terms (20) for a valid prior.
+     */
+    static FakeAssociationContainer getFakeAssociations() {
+        FakeAssociationContainer assocs = new FakeAssociationContainer();
+        for (int t = 0; t < 40; t++) {
+            for (int i = 0; i < 5; i++) {
+                assocs.annotate(String.format("NCBIGene:%d", 5 * t + i), String.format("GO:%07d", t + 1));
+            }
+        }
+        return assocs;
+    }
+
+    /**
+     * @return a study set with all genes of the given term
+     */
+    static StudySet getTermStudySet(AssociationContainer assocs, int term) {
+        Set<TermId> genes = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            genes.add(TermId.of(String.format("NCBIGene:%d", 5 * term + i)));
+        }
+        return new StudySet(genes, "term" + term, assocs.getAssociationMap(genes));
+    }
+
+    @Test
+    void testCalculateStudySets() {
+        FakeAssociationContainer assocs = getFakeAssociations();
+        MgsaCalculation mgsa = new MgsaCalculation(null, assocs, 25_000);
+        mgsa.setSeed(1);
+        List<StudySet> studySets = new ArrayList<>();
+        for (int t = 0; t < 6; t++) {
+            studySets.add(getTermStudySet(assocs, t));
+        }
+        List<MgsaEnrichedGOTermsResult> results = new ArrayList<>();
+        mgsa.calculateStudySets(studySets, 3, results::add);
+        assertEquals(6, results.size());
+        for (MgsaEnrichedGOTermsResult result : results) {
+            String name = result.getStudySet().getName();
+            TermId expected = TermId.of(String.format("GO:%07d", Integer.parseInt(name.substring(4)) + 1));
+            MgsaGOTermProperties best = null;
+            for (AbstractGOTermProperties p : result.getGOTermProperties()) {
+                MgsaGOTermProperties prop = (MgsaGOTermProperties) p;
+                if (best == null || prop.marg > best.marg) best = prop;
+            }
+            assertNotNull(best);
+            assertEquals(expected, best.term);
+            assertEquals(5, best.annotatedStudyGenes);
+        }
+    }
+
+
+
+    @Test
+    void testThresholdSweep() {
+        FakeAssociationContainer assocs = getFakeAssociations();
+        /* The genes of term 3 have p values of 0.001, those of term 5 of 0.02 */
+        Map<TermId, Double> pValues = new HashMap<>();
+        for (int g = 0; g < 200; g++) {
+            int t = g / 5;
+            pValues.put(TermId.of("NCBIGene:" + g), t == 3 ? 0.001 : t == 5 ? 0.02 : 0.5);
+        }
+        double[] thresholds = {0.005, 0.05};
+        MgsaCalculation mgsa = new MgsaCalculation(null, assocs, 25_000);
+        mgsa.setSeed(8);
+        MgsaThresholdSweepResult sweep = mgsa.calculateThresholdSweep(pValues, true, thresholds, 2);
+        assertEquals(2, sweep.getNumThresholds());
+        assertEquals(5, sweep.getNumObserved(0));
+        assertEquals(10, sweep.getNumObserved(1));
+        for (int t = 0; t < sweep.getNumTerms(); t++) {
+            TermId term = sweep.getTerm(t);
+            boolean first = term.equals(TermId.of("GO:0000004"));
+            boolean second = term.equals(TermId.of("GO:0000006"));
+            assertEquals(first, sweep.getMarginal(t, 0) > 0.5, term.getValue());
+            assertEquals(first || second, sweep.getMarginal(t, 1) > 0.5, term.getValue());
+        }
+
+        /* The result does not depend on the number of threads */
+        mgsa.setSeed(8);
+        MgsaThresholdSweepResult again = mgsa.calculateThresholdSweep(pValues, true, thresholds, 1);
+        assertArrayEquals(sweep.getMarginalsAtThreshold(1), again.getMarginalsAtThreshold(1));
+    }
+
+    @Test
+    void testComponentDecomposition() {
+        FakeAssociationContainer assocs = getFakeAssociations();
+        MgsaCalculation mgsa = new MgsaCalculation(null, assocs, 40_000);
+        mgsa.setSeed(9);
+        mgsa.setComponentDecomposition(true);
+        MgsaEnrichedGOTermsResult result = mgsa.calculateStudySet(getTermStudySet(assocs, 11));
+        for (AbstractGOTermProperties p : result.getGOTermProperties()) {
+            MgsaGOTermProperties prop = (MgsaGOTermProperties) p;
+            assertEquals(prop.term.equals(TermId.of("GO:0000012")), prop.marg > 0.5, prop.term.getValue());
+        }
+    }
+
+    @Test
+    void testMapSearch() {
+        FakeAssociationContainer assocs = getFakeAssociations();
+        MgsaCalculation mgsa = new MgsaCalculation(null, assocs, 20_000);
+        mgsa.setSeed(10);
+        mgsa.setNumChains(2);
+        Set<TermId> genes = new HashSet<>(getTermStudySet(assocs, 4).getGeneSet());
+        genes.addAll(getTermStudySet(assocs, 17).getGeneSet());
+        StudySet studySet = new StudySet(genes, "map", assocs.getAssociationMap(genes));
+        MgsaMapResult map = mgsa.calculateMap(studySet);
+        assertEquals(Set.of(TermId.of("GO:0000005"), TermId.of("GO:0000018")), new HashSet<>(map.getTerms()));
+        assertTrue(map.getAlpha() < 0.1);
+        assertTrue(map.getBeta() < 0.1);
+        assertTrue(map.getP() > 0 && map.getP() < 1);
+        /* The MAP terms get the MAP score */
+        double[] scores = mgsa.scoreTermSets(studySet, List.of(map.getTerms()), map.getAlpha(), map.getBeta(), map.getP(), 1);
+        assertEquals(map.getScore(), scores[0], 1e-8);
+    }
+
+    @Test
+    void testScoreTermSets() {
+        FakeAssociationContainer assocs = getFakeAssociations();
+        MgsaCalculation mgsa = new MgsaCalculation(null, assocs, 1_000);
+        StudySet studySet = getTermStudySet(assocs, 4);
+        List<Set<TermId>> termSets = List.of(
+                Set.of(TermId.of("GO:0000005")),
+                Set.of(TermId.of("GO:0000005"), TermId.of("GO:0000018")),
+                Set.of(TermId.of("GO:0000018")));
+        double[] scores = mgsa.scoreTermSets(studySet, termSets, 0.05, 0.05, 0.01, 2);
+        assertEquals(3, scores.length);
+        assertTrue(scores[0] > scores[1]);
+        assertTrue(scores[0] > scores[2]);
+        assertThrows(IllegalArgumentException.class,
+                () -> mgsa.scoreTermSets(studySet, List.of(Set.of(TermId.of("GO:9999999"))), 0.05, 0.05, 0.01, 1));
+    }
+
+    @Test
+    void testUpdateStudySet() {
+        FakeAssociationContainer assocs = getFakeAssociations();
+        MgsaCalculation mgsa = new MgsaCalculation(null, assocs, 30_000);
+        mgsa.setSeed(11);
+        mgsa.setNumChains(2);
+        MgsaIncrementalState state = mgsa.calculateIncremental(getTermStudySet(assocs, 4));
 
+        /* The genes of term 17 are added to the study set */
+        Set<TermId> genes = new HashSet<>(getTermStudySet(assocs, 4).getGeneSet());
+        genes.addAll(getTermStudySet(assocs, 17).getGeneSet());
+        MgsaIncrementalState updated = mgsa.updateStudySet(state, new StudySet(genes, "update", assocs.getAssociationMap(genes)));
+        Set<TermId> expected = Set.of(TermId.of("GO:0000005"), TermId.of("GO:0000018"));
+        for (AbstractGOTermProperties p : updated.getResult().getGOTermProperties()) {
+            MgsaGOTermProperties prop = (MgsaGOTermProperties) p;
+            assertEquals(expected.contains(prop.term), prop.marg > 0.5, prop.term.getValue());
+        }
+        assertThrows(IllegalStateException.class, () -> mgsa.updateStudySet(state, getTermStudySet(assocs, 4)));
+    }
 
+    @Test
+    void testFullUpdateKeepsThePreviousState() {
+        FakeAssociationContainer assocs = getFakeAssociations();
+        MgsaCalculation mgsa = new MgsaCalculation(null, assocs, 10_000);
+        mgsa.setSeed(12);
+        mgsa.setEngine(MgsaCalculation.Engine.VARIATIONAL_BAYES);
+        MgsaIncrementalState state = mgsa.calculateIncremental(getTermStudySet(assocs, 4));
+        /* Without chain states, the updates are full calculations that leave the previous state as it is */
+        for (int i = 0; i < 2; i++) {
+            MgsaIncrementalState updated = mgsa.updateStudySet(state, getTermStudySet(assocs, 7));
+            for (AbstractGOTermProperties p : updated.getResult().getGOTermProperties()) {
+                MgsaGOTermProperties prop = (MgsaGOTermProperties) p;
+                assertEquals(prop.term.equals(TermId.of("GO:0000008")), prop.marg > 0.5, prop.term.getValue());
+            }
+        }
+    }
+
+    @Test
+    void testWarmStartedEm() {
+        FakeAssociationContainer assocs = getFakeAssociations();
+        MgsaCalculation mgsa = new MgsaCalculation(null, assocs, 30_000);
+        mgsa.setSeed(2);
+        mgsa.setAlpha(MgsaParam.Type.EM);
+        mgsa.setBeta(MgsaParam.Type.EM);
+        mgsa.setEmStepsPerIteration(5_000);
+        mgsa.setEmTolerance(0.01);
+        MgsaEnrichedGOTermsResult result = mgsa.calculateStudySet(getTermStudySet(assocs, 7));
+        for (AbstractGOTermProperties p : result.getGOTermProperties()) {
+            MgsaGOTermProperties prop = (MgsaGOTermProperties) p;
+            if (prop.term.equals(TermId.of("GO:0000008"))) {
+                assertTrue(prop.marg > 0.9);
+            } else {
+                assertTrue(prop.marg < 0.5);
+            }
+        }
+    }
+
+    @Test
+    void testPruneTermsWithoutStudyGenes() {
+        FakeAssociationContainer assocs = getFakeAssociations();
+        MgsaCalculation mgsa = new MgsaCalculation(null, assocs, 25_000);
+        mgsa.setSeed(3);
+        mgsa.setTakePopulationAsReference(false);
+        /* All genes of term 7 and a single gene of each of the terms 10 to 34 */
+        Set<TermId> genes = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            genes.add(TermId.of(String.format("NCBIGene:%d", 35 + i)));
+        }
+        for (int t = 10; t < 35; t++) {
+            genes.add(TermId.of(String.format("NCBIGene:%d", 5 * t)));
+        }
+        StudySet studySet = new StudySet(genes, "noisy", assocs.getAssociationMap(genes));
+        MgsaEnrichedGOTermsResult result = mgsa.calculateStudySet(studySet);
+        assertEquals(40, result.getGOTermProperties().size());
+        assertEquals(26, result.getConvergenceDiagnostics().getNumTerms());
+        for (AbstractGOTermProperties p : result.getGOTermProperties()) {
+            MgsaGOTermProperties prop = (MgsaGOTermProperties) p;
+            if (prop.annotatedStudyGenes == 0) {
+                assertEquals(0.0, prop.marg);
+            } else if (prop.term.equals(TermId.of("GO:0000008"))) {
+                assertTrue(prop.marg > 0.9);
+            }
+        }
+    }
+
+    @Test
+    void testParallelTempering() {
+        FakeAssociationContainer assocs = getFakeAssociations();
+        MgsaCalculation mgsa = new MgsaCalculation(null, assocs, 30_000);
+        mgsa.setSeed(5);
+        mgsa.setNumChains(2);
+        mgsa.setParallelTempering(3, 4, 100);
+        MgsaEnrichedGOTermsResult result = mgsa.calculateStudySet(getTermStudySet(assocs, 12));
+        assertEquals(2, result.getSamplerMetrics().size());
+        assertEquals(2, result.getConvergenceDiagnostics().getNumChains());
+        for (AbstractGOTermProperties p : result.getGOTermProperties()) {
+            MgsaGOTermProperties prop = (MgsaGOTermProperties) p;
+            if (prop.term.equals(TermId.of("GO:0000013"))) {
+                assertTrue(prop.marg > 0.9);
+            } else {
+                assertTrue(prop.marg < 0.5);
+            }
+        }
+    }
+
+    @Test
+    void testVariationalBayes() {
+        FakeAssociationContainer assocs = getFakeAssociations();
+        MgsaCalculation mgsa = new MgsaCalculation(null, assocs, 30_000);
+        mgsa.setEngine(MgsaCalculation.Engine.VARIATIONAL_BAYES);
+        MgsaEnrichedGOTermsResult result = mgsa.calculateStudySet(getTermStudySet(assocs, 17));
+        assertNull(result.getConvergenceDiagnostics());
+        assertEquals(40, result.getGOTermProperties().size());
+        for (AbstractGOTermProperties p : result.getGOTermProperties()) {
+            MgsaGOTermProperties prop = (MgsaGOTermProperties) p;
+            if (prop.term.equals(TermId.of("GO:0000018"))) {
+                assertTrue(prop.marg > 0.9);
+            } else {
+                assertTrue(prop.marg < 0.1);
+            }
+        }
+    }
 
     StudySet getFakeStudySet(AssociationContainer associationContainer, Ontology ontology ) {
         Set<TermId> allAnnotatedGenes = associationContainer.getAllAnnotatedGenes();
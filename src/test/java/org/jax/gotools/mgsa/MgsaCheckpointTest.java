@@ -0,0 +1,143 @@
+package org.jax.gotools.mgsa;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.monarchinitiative.phenol.analysis.StudySet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MgsaCheckpointTest {
+
+    private Path file;
+
+    @BeforeEach
+    void createFile() throws IOException {
+        file = Files.createTempFile("mgsa", ".ckpt");
+    }
+
+    @AfterEach
+    void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static MgsaChain createChain(long seed) {
+        RandomSource rnd = new XoroshiroRandom(seed);
+        FixedAlphaBetaScore score = FixedAlphaBetaScoreTest.createScore(rnd);
+        return new MgsaChain(0, score, rnd, 60_000, 10_000, Integer.MAX_VALUE);
+    }
+
+    @Test
+    void testResumedChainContinuesIdentically() throws IOException {
+        MgsaChain uninterrupted = createChain(11);
+        uninterrupted.run();
+
+        /* pause during the burn-in and after it */
+        MgsaChain interrupted = createChain(11);
+        interrupted.setPauseStep(7_000);
+        interrupted.run();
+        assertFalse(interrupted.isFinished());
+        interrupted.setPauseStep(33_000);
+        interrupted.run();
+        assertEquals(33_000, interrupted.getStepsRun());
+
+        TermGeneIndex index = interrupted.getScore().index;
+        MgsaCheckpoint.write(file, index, 0, true, Double.NaN, Double.NaN, Double.NaN, List.of(interrupted));
+        MgsaCheckpoint checkpoint = MgsaCheckpoint.read(file);
+        assertEquals(1, checkpoint.getNumChains());
+
+        /* a different seed, as the random source is restored from the checkpoint */
+        MgsaChain resumed = createChain(99);
+        checkpoint.restoreChain(0, resumed);
+        resumed.run();
+
+        assertTrue(resumed.isFinished());
+        assertEquals(uninterrupted.getNumRecords(), resumed.getNumRecords());
+        assertEquals(uninterrupted.getNumAccepts(), resumed.getNumAccepts());
+        assertEquals(uninterrupted.getMaxScore(), resumed.getMaxScore());
+        assertEquals(uninterrupted.getScore().getScore(), resumed.getScore().getScore());
+        assertEquals(uninterrupted.getScore().getAvgN11(), resumed.getScore().getAvgN11());
+        assertArrayEquals(uninterrupted.getScore().getAlphaDistribution(), resumed.getScore().getAlphaDistribution());
+        MgsaSamplerMetrics expected = uninterrupted.getMetrics();
+        MgsaSamplerMetrics metrics = resumed.getMetrics();
+        assertEquals(expected.getStepsRun(), metrics.getStepsRun());
+        for (MgsaSamplerMetrics.Move move : MgsaSamplerMetrics.Move.values()) {
+            assertEquals(expected.getProposals(move), metrics.getProposals(move));
+            assertEquals(expected.getAccepts(move), metrics.getAccepts(move));
+        }
+        assertArrayEquals(expected.getActiveTermHistogram(), metrics.getActiveTermHistogram());
+        for (int t = 0; t < 50; t++) {
+            assertEquals(uninterrupted.getActivationCount(t), resumed.getActivationCount(t));
+            assertEquals(uninterrupted.getSumSquaredBatchCounts(t), resumed.getSumSquaredBatchCounts(t));
+        }
+    }
+
+    @Test
+    void testCheckpointedCalculationCanBeResumed() throws IOException {
+        FakeAssociationContainer assocs = MgsaCalculationTest.getFakeAssociations();
+        StudySet studySet = MgsaCalculationTest.getTermStudySet(assocs, 3);
+
+        MgsaCalculation plain = new MgsaCalculation(null, assocs, 30_000);
+        plain.setSeed(4);
+        plain.setNumChains(2);
+        MgsaEnrichedGOTermsResult expected = plain.calculateStudySet(studySet);
+
+        MgsaCalculation checkpointed = new MgsaCalculation(null, assocs, 30_000);
+        checkpointed.setSeed(4);
+        checkpointed.setNumChains(2);
+        checkpointed.setCheckpoint(file, 7_000);
+        MgsaEnrichedGOTermsResult result = checkpointed.calculateStudySet(studySet);
+
+        /* the last checkpoint holds the finished chains */
+        MgsaCalculation resumer = new MgsaCalculation(null, assocs, 30_000);
+        resumer.setNumChains(2);
+        MgsaEnrichedGOTermsResult resumed = resumer.resumeStudySet(studySet, file);
+
+        List<AbstractGOTermProperties> e = expected.getGOTermProperties();
+        for (int i = 0; i < e.size(); i++) {
+            double marg = ((MgsaGOTermProperties) e.get(i)).marg;
+            assertEquals(marg, ((MgsaGOTermProperties) result.getGOTermProperties().get(i)).marg);
+            assertEquals(marg, ((MgsaGOTermProperties) resumed.getGOTermProperties().get(i)).marg);
+        }
+    }
+
+    @Test
+    void testCheckpointsDoNotChangeParallelTempering() {
+        FakeAssociationContainer assocs = MgsaCalculationTest.getFakeAssociations();
+        StudySet studySet = MgsaCalculationTest.getTermStudySet(assocs, 5);
+
+        MgsaCalculation plain = new MgsaCalculation(null, assocs, 20_000);
+        plain.setSeed(6);
+        plain.setParallelTempering(3, 5, 250);
+        MgsaEnrichedGOTermsResult expected = plain.calculateStudySet(studySet);
+
+        /* checkpoint steps that are not multiples of the swap interval */
+        MgsaCalculation checkpointed = new MgsaCalculation(null, assocs, 20_000);
+        checkpointed.setSeed(6);
+        checkpointed.setParallelTempering(3, 5, 250);
+        checkpointed.setCheckpoint(file, 3_130);
+        MgsaEnrichedGOTermsResult result = checkpointed.calculateStudySet(studySet);
+
+        List<AbstractGOTermProperties> e = expected.getGOTermProperties();
+        for (int i = 0; i < e.size(); i++) {
+            assertEquals(((MgsaGOTermProperties) e.get(i)).marg, ((MgsaGOTermProperties) result.getGOTermProperties().get(i)).marg);
+        }
+    }
+
+    @Test
+    void testMismatchingCheckpointIsRejected() throws IOException {
+        FakeAssociationContainer assocs = MgsaCalculationTest.getFakeAssociations();
+        MgsaCalculation mgsa = new MgsaCalculation(null, assocs, 25_000);
+        mgsa.setSeed(5);
+        mgsa.setCheckpoint(file, 10_000);
+        mgsa.calculateStudySet(MgsaCalculationTest.getTermStudySet(assocs, 1));
+
+        MgsaCalculation other = new MgsaCalculation(null, assocs, 25_000);
+        assertThrows(IOException.class, () -> other.resumeStudySet(MgsaCalculationTest.getTermStudySet(assocs, 2), file));
+    }
+}
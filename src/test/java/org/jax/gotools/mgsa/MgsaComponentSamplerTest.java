@@ -0,0 +1,45 @@
+package org.jax.gotools.mgsa;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MgsaComponentSamplerTest {
+
+    @Test
+    void testFindComponents() {
+        /* Terms 0, 2 and 3 are connected via genes 1 and 4, term 1 is alone, term 4 has no genes */
+        TermGeneIndex index = TermGeneIndex.fromTermLinks(new int[][]{{0, 1}, {2}, {1, 4}, {4, 5}, {}}, 7);
+        assertArrayEquals(new int[]{0, 1, 0, 0, 2}, MgsaComponentSampler.findComponents(index));
+    }
+
+    /**
+     * Sixty terms in twenty components of three overlapping terms each; the genes of term 3 and 31 are observed.
+     */
+    private static MgsaComponentSampler createSampler(long seed) {
+        int[][] termLinks = new int[60][];
+        for (int c = 0; c < 20; c++) {
+            for (int k = 0; k < 3; k++) {
+                termLinks[3 * c + k] = new int[]{10 * c + 2 * k, 10 * c + 2 * k + 1, 10 * c + 2 * k + 2, 10 * c + 2 * k + 3};
+            }
+        }
+        boolean[] observed = new boolean[205];
+        for (int g : termLinks[3])
+            observed[g] = true;
+        for (int g : termLinks[31])
+            observed[g] = true;
+        MgsaComponentSampler sampler = new MgsaComponentSampler(TermGeneIndex.fromTermLinks(termLinks, 205), null, observed,
+                new XoroshiroRandom(seed));
+        assertEquals(20, sampler.getNumComponents());
+        return sampler;
+    }
+
+    @Test
+    void testMarginalsDoNotDependOnThreads() {
+        double[] sequential = createSampler(3).run(50_000, 10_000, 1000, 1, 1000);
+        double[] parallel = createSampler(3).run(50_000, 10_000, 1000, 4, 1000);
+        assertArrayEquals(sequential, parallel);
+        for (int t = 0; t < sequential.length; t++)
+            assertEquals(t == 3 || t == 31, sequential[t] > 0.5, "term " + t);
+    }
+}
@@ -0,0 +1,101 @@
+package org.jax.gotools.mgsa;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MgsaConvergenceDiagnosticsTest {
+
+    private static int[][] termLinks;
+    private static boolean[] observed;
+
+    /**
+     * Ten terms with ten genes each (no overlap). All genes of term 0 are observed, so that term 0
+     * should be switched on in (nearly) all recorded steps.
+     */
+    @BeforeAll
+    static void init() {
+        termLinks = createTermLinks(10);
+        observed = createObserved(10);
+    }
+
+    /**
+     * @return the given number of terms with ten genes each (no overlap)
+     */
+    private static int[][] createTermLinks(int numTerms) {
+        int genesPerTerm = 10;
+        int[][] links = new int[numTerms][genesPerTerm];
+        for (int t = 0; t < numTerms; t++) {
+            for (int g = 0; g < genesPerTerm; g++) {
+                links[t][g] = t * genesPerTerm + g;
+            }
+        }
+        return links;
+    }
+
+    /**
+     * @return the observed state of the genes of the given number of terms, where the genes of term 0 are observed
+     */
+    private static boolean[] createObserved(int numTerms) {
+        boolean[] obs = new boolean[numTerms * 10];
+        for (int g = 0; g < 10; g++) {
+            obs[g] = true;
+        }
+        return obs;
+    }
+
+    private static List<MgsaChain> runChains(int numChains) {
+        RandomSource master = new XoroshiroRandom(42);
+        List<MgsaChain> chains = new ArrayList<>();
+        for (int c = 0; c < numChains; c++) {
+            RandomSource rnd = master.split();
+            FixedAlphaBetaScore score = new FixedAlphaBetaScore(rnd, termLinks, observed);
+            MgsaChain chain = new MgsaChain(c, score, rnd, 20_000, 2_000, Integer.MAX_VALUE);
+            chain.run();
+            chains.add(chain);
+        }
+        return chains;
+    }
+
+    @Test
+    void testMultipleChainsConverge() {
+        MgsaConvergenceDiagnostics diagnostics = MgsaConvergenceDiagnostics.fromChains(runChains(4));
+        assertEquals(4, diagnostics.getNumChains());
+        assertEquals(termLinks.length, diagnostics.getNumTerms());
+        for (int t = 0; t < termLinks.length; t++) {
+            assertTrue(diagnostics.getRHat(t) < 1.1, "R-hat of term " + t + " was " + diagnostics.getRHat(t));
+            assertTrue(diagnostics.getEss(t) > 0);
+        }
+    }
+
+    @Test
+    void testSingleChainHasNoRHat() {
+        MgsaConvergenceDiagnostics diagnostics = MgsaConvergenceDiagnostics.fromChains(runChains(1));
+        assertTrue(Double.isNaN(diagnostics.getRHat(0)));
+        assertTrue(diagnostics.getEss(0) > 0);
+    }
+
+    /**
+     * Uses forty terms, i.e., more than the largest expected number of terms of the prior (20),
+     * so that the posterior concentrates on term 0.
+     */
+    @Test
+    void testAdaptiveChainStopsEarly() {
+        RandomSource rnd = new XoroshiroRandom(7);
+        FixedAlphaBetaScore score = new FixedAlphaBetaScore(rnd, createTermLinks(40), createObserved(40));
+        MgsaChain chain = new MgsaChain(0, score, rnd, 1_000_000, 20_000, Integer.MAX_VALUE, 0.01);
+        chain.run();
+        assertTrue(chain.hasConverged());
+        assertTrue(chain.getStepsRun() < 1_000_000);
+        /* The batches do not depend on the maximum number of steps, so the ESS of a stopped chain is defined */
+        assertTrue(chain.getNumBatches() >= 2);
+        MgsaConvergenceDiagnostics diagnostics = MgsaConvergenceDiagnostics.fromChains(List.of(chain));
+        assertTrue(diagnostics.getEss(0) > 0);
+        assertTrue(chain.getBurnin() >= 0 && chain.getBurnin() < 20_000);
+        assertTrue((double) chain.getActivationCount(0) / chain.getNumRecords() > 0.9);
+    }
+}
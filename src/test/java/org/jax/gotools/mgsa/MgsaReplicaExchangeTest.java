@@ -0,0 +1,111 @@
+package org.jax.gotools.mgsa;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MgsaReplicaExchangeTest {
+
+    private static final double EPSILON = 1e-8;
+
+    @Test
+    void testTemperatures() {
+        assertArrayEquals(new double[]{1}, MgsaReplicaExchange.temperatures(1, 10), EPSILON);
+        assertArrayEquals(new double[]{1, 2, 4, 8}, MgsaReplicaExchange.temperatures(4, 8), EPSILON);
+    }
+
+    @Test
+    void testReplicaSourcesDoNotOverlap() {
+        /* two ladders of three temperatures; each replica draws its initial state like a random start */
+        List<RandomSource> sources = MgsaReplicaExchange.replicaSources(new XoroshiroRandom(17), 6);
+        List<long[]> states = new ArrayList<>();
+        for (RandomSource source : sources) {
+            for (int i = 0; i < 100; i++) {
+                source.nextLong();
+            }
+            states.add(((XoroshiroRandom) source).getState());
+        }
+        for (int a = 0; a < states.size(); a++) {
+            for (int b = a + 1; b < states.size(); b++) {
+                assertFalse(Arrays.equals(states.get(a), states.get(b)), "replicas " + a + " and " + b);
+            }
+        }
+        RandomSource single = new XoroshiroRandom(17);
+        assertSame(single, MgsaReplicaExchange.replicaSources(single, 1).get(0));
+    }
+
+    @Test
+    void testExchangeState() {
+        RandomSource rnd = new XoroshiroRandom(21);
+        FixedAlphaBetaScore a = FixedAlphaBetaScoreTest.createScore(rnd);
+        FixedAlphaBetaScore b = FixedAlphaBetaScoreTest.createScore(rnd);
+        for (int i = 0; i < 200; i++) {
+            a.proposeNewState(rnd.nextLong());
+            b.proposeNewState(rnd.nextLong());
+        }
+        int[] activeA = a.getActiveTerms();
+        int[] activeB = b.getActiveTerms();
+        double scoreA = a.getScore();
+        double scoreB = b.getScore();
+        double alphaA = a.getAlpha();
+        double betaB = b.getBeta();
+
+        a.exchangeState(b);
+        assertEquals(scoreB, a.getScore(), EPSILON);
+        assertEquals(scoreA, b.getScore(), EPSILON);
+        assertEquals(alphaA, b.getAlpha());
+        assertEquals(betaB, a.getBeta());
+        for (int t = 0; t < 50; t++) {
+            assertEquals(contains(activeB, t), a.isActive(t));
+            assertEquals(contains(activeA, t), b.isActive(t));
+        }
+    }
+
+    private static boolean contains(int[] terms, int term) {
+        for (int t : terms)
+            if (t == term) return true;
+        return false;
+    }
+
+    private static MgsaReplicaExchange createLadder(long seed, double[] temperatures) {
+        RandomSource rnd = new XoroshiroRandom(seed);
+        List<MgsaChain> replicas = new ArrayList<>();
+        for (int k = 0; k < temperatures.length; k++) {
+            RandomSource replicaRnd = k == 0 ? rnd : rnd.split();
+            MgsaChain replica = new MgsaChain(k, FixedAlphaBetaScoreTest.createScore(replicaRnd), replicaRnd,
+                    40_000, 5_000, Integer.MAX_VALUE);
+            replica.setTemperature(temperatures[k]);
+            replicas.add(replica);
+        }
+        return new MgsaReplicaExchange(replicas, 50);
+    }
+
+    private static void run(MgsaReplicaExchange ladder) {
+        while (!ladder.isFinished()) {
+            ladder.setPauseStep(Integer.MAX_VALUE);
+            for (int k = 0; k < ladder.getNumReplicas(); k++)
+                ladder.getReplica(k).run();
+            ladder.swap();
+        }
+    }
+
+    @Test
+    void testLadderIsReproducible() {
+        double[] temperatures = MgsaReplicaExchange.temperatures(3, 4);
+        MgsaReplicaExchange first = createLadder(5, temperatures);
+        MgsaReplicaExchange second = createLadder(5, temperatures);
+        run(first);
+        run(second);
+
+        MgsaChain cold = first.getColdChain();
+        assertEquals(40_000, cold.getStepsRun());
+        assertTrue(first.getSwapAcceptanceRate(0) > 0);
+        assertEquals(first.getSwapAcceptanceRate(1), second.getSwapAcceptanceRate(1));
+        for (int t = 0; t < 50; t++)
+            assertEquals(cold.getActivationCount(t), second.getColdChain().getActivationCount(t));
+    }
+}
@@ -0,0 +1,63 @@
+package org.jax.gotools.mgsa;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MgsaSamplerMetricsTest {
+
+    @Test
+    void testMetricsOfChain() {
+        RandomSource rnd = new XoroshiroRandom(8);
+        FixedAlphaBetaScore score = FixedAlphaBetaScoreTest.createScore(rnd);
+        /* report as often as the clock is read */
+        MgsaChain chain = new MgsaChain(3, score, rnd, 50_000, 5_000, 0);
+        List<MgsaSamplerMetrics> progress = new ArrayList<>();
+        List<MgsaSamplerMetrics> finished = new ArrayList<>();
+        chain.setListener(new MgsaSamplerListener() {
+            @Override
+            public void progress(MgsaSamplerMetrics metrics) {
+                progress.add(metrics);
+            }
+
+            @Override
+            public void finished(MgsaSamplerMetrics metrics) {
+                finished.add(metrics);
+            }
+        });
+        chain.run();
+
+        assertFalse(progress.isEmpty());
+        assertEquals(1, finished.size());
+        MgsaSamplerMetrics metrics = finished.get(0);
+        assertEquals(3, metrics.getChainId());
+        assertEquals(50_000, metrics.getStepsRun());
+
+        long proposed = 0;
+        long accepted = 0;
+        for (MgsaSamplerMetrics.Move move : MgsaSamplerMetrics.Move.values()) {
+            proposed += metrics.getProposals(move);
+            accepted += metrics.getAccepts(move);
+            assertTrue(metrics.getAccepts(move) <= metrics.getProposals(move));
+        }
+        assertEquals(50_000, proposed);
+        assertEquals(chain.getNumAccepts(), accepted);
+        assertTrue(metrics.getProposals(MgsaSamplerMetrics.Move.TOGGLE) > 0);
+        assertTrue(metrics.getProposals(MgsaSamplerMetrics.Move.ALPHA) > 0);
+
+        long histogramTotal = 0;
+        for (long n : metrics.getActiveTermHistogram())
+            histogramTotal += n;
+        assertEquals(50_000, histogramTotal);
+        assertTrue(metrics.getStepsPerSecond() > 0);
+        assertTrue(metrics.getSwitchStateSeconds() >= 0);
+
+        String json = metrics.toJson();
+        assertTrue(json.startsWith("{\"chain\":3,\"steps\":50000,"));
+        assertTrue(json.contains("\"toggle\":{\"proposed\":" + metrics.getProposals(MgsaSamplerMetrics.Move.TOGGLE)));
+        assertTrue(json.endsWith("]}"));
+    }
+}
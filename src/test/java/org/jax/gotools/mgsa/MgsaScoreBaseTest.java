@@ -0,0 +1,125 @@
+package org.jax.gotools.mgsa;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MgsaScoreBaseTest {
+
+    /**
+     * Keeps the number of hidden observed and hidden unobserved genes as reported by the callbacks.
+     */
+    private static class CountingScore extends MgsaScoreBase {
+        int hiddenObserved;
+        int hiddenUnobserved;
+
+        CountingScore(TermGeneIndex index, boolean[] observed) {
+            super(index, observed);
+        }
+
+        @Override
+        public void hiddenGenesActivated(int observed, int unobserved) {
+            hiddenObserved += observed;
+            hiddenUnobserved += unobserved;
+        }
+
+        @Override
+        public void hiddenGenesDeactivated(int observed, int unobserved) {
+            hiddenObserved -= observed;
+            hiddenUnobserved -= unobserved;
+        }
+
+        @Override
+        public void observedGeneChanged(boolean observed, boolean hidden) {
+            if (hidden) {
+                hiddenObserved += observed ? 1 : -1;
+                hiddenUnobserved -= observed ? 1 : -1;
+            }
+        }
+    }
+
+    @Test
+    void testCallbacksMatchCoverage() {
+        int numGenes = 150;
+        int[][] termLinks = new int[90][];
+        for (int t = 0; t < termLinks.length; t++) {
+            termLinks[t] = new int[3 + t % 5];
+            for (int i = 0; i < termLinks[t].length; i++) {
+                termLinks[t][i] = (7 * t + 13 * i) % numGenes;
+            }
+        }
+        boolean[] observed = new boolean[numGenes];
+        for (int g = 0; g < numGenes; g += 4) {
+            observed[g] = true;
+        }
+        TermGeneIndex index = TermGeneIndex.fromTermLinks(termLinks, numGenes);
+        CountingScore score = new CountingScore(index, observed);
+        assertEquals((numGenes + 3) / 4, score.getNumObservedGenes());
+
+        RandomSource rnd = new XoroshiroRandom(3);
+        for (int step = 0; step < 2_000; step++) {
+            score.switchState(rnd.nextInt(termLinks.length));
+
+            boolean[] hidden = new boolean[numGenes];
+            for (int t = 0; t < termLinks.length; t++) {
+                if (score.isActive(t)) {
+                    for (int g : termLinks[t]) {
+                        hidden[g] = true;
+                    }
+                }
+            }
+            int expectedObserved = 0;
+            int expectedUnobserved = 0;
+            for (int g = 0; g < numGenes; g++) {
+                assertEquals(observed[g], score.isObserved(g));
+                if (hidden[g]) {
+                    if (observed[g]) expectedObserved++;
+                    else expectedUnobserved++;
+                }
+            }
+            assertEquals(expectedObserved, score.hiddenObserved);
+            assertEquals(expectedUnobserved, score.hiddenUnobserved);
+        }
+    }
+
+    @Test
+    void testSetObservedMatchesNewScore() {
+        int numGenes = 60;
+        int[][] termLinks = new int[40][];
+        for (int t = 0; t < termLinks.length; t++) {
+            termLinks[t] = new int[2 + t % 4];
+            for (int i = 0; i < termLinks[t].length; i++) {
+                termLinks[t][i] = (5 * t + 7 * i) % numGenes;
+            }
+        }
+        TermGeneIndex index = TermGeneIndex.fromTermLinks(termLinks, numGenes);
+        boolean[] observed = new boolean[numGenes];
+        CountingScore score = new CountingScore(index, observed);
+        RandomSource rnd = new XoroshiroRandom(4);
+        for (int step = 0; step < 500; step++) {
+            if (rnd.nextBoolean()) {
+                score.switchState(rnd.nextInt(termLinks.length));
+            } else {
+                int g = rnd.nextInt(numGenes);
+                observed[g] = !observed[g];
+                score.setObserved(g, observed[g]);
+            }
+            CountingScore fresh = new CountingScore(index, observed.clone());
+            for (int t = 0; t < termLinks.length; t++) {
+                if (score.isActive(t)) {
+                    fresh.switchState(t);
+                }
+            }
+            assertEquals(fresh.getNumObservedGenes(), score.getNumObservedGenes());
+            assertEquals(fresh.hiddenObserved, score.hiddenObserved);
+            assertEquals(fresh.hiddenUnobserved, score.hiddenUnobserved);
+
+            /* Switching a term afterwards uses the updated counts of the classes */
+            int t = rnd.nextInt(termLinks.length);
+            score.switchState(t);
+            fresh.switchState(t);
+            assertEquals(fresh.hiddenObserved, score.hiddenObserved);
+            assertEquals(fresh.hiddenUnobserved, score.hiddenUnobserved);
+        }
+    }
+}
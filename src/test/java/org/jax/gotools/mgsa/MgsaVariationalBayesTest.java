@@ -0,0 +1,62 @@
+package org.jax.gotools.mgsa;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MgsaVariationalBayesTest {
+
+    /**
+     * Forty terms of five genes each, where term t has the genes 3t..3t+4, so that neighboring
+     * terms overlap in two genes.
+     */
+    private static TermGeneIndex createIndex() {
+        int[][] termLinks = new int[40][5];
+        for (int t = 0; t < termLinks.length; t++)
+            for (int i = 0; i < 5; i++)
+                termLinks[t][i] = 3 * t + i;
+        return TermGeneIndex.fromTermLinks(termLinks, 3 * 39 + 5);
+    }
+
+    /**
+     * @return observations in which the genes of the given terms and one other gene are observed
+     */
+    private static boolean[] observe(int... terms) {
+        boolean[] observed = new boolean[3 * 39 + 5];
+        for (int t : terms)
+            for (int i = 0; i < 5; i++)
+                observed[3 * t + i] = true;
+        observed[100] = true;
+        return observed;
+    }
+
+    @Test
+    void testFindsActiveTerms() {
+        MgsaVariationalBayes vb = new MgsaVariationalBayes(createIndex(), observe(4, 20));
+        double[] pi = vb.run(1000, 1e-6);
+        assertTrue(vb.hasConverged());
+        for (int t = 0; t < pi.length; t++) {
+            if (t == 4 || t == 20)
+                assertTrue(pi[t] > 0.9, "term " + t + ": " + pi[t]);
+            else
+                assertTrue(pi[t] < 0.1, "term " + t + ": " + pi[t]);
+        }
+        assertTrue(vb.getAlpha() < 0.1);
+        assertTrue(vb.getBeta() < 0.2);
+    }
+
+    @Test
+    void testFixedParametersAndDeterminism() {
+        MgsaVariationalBayes vb = new MgsaVariationalBayes(createIndex(), observe(10));
+        vb.setAlpha(0.05);
+        vb.setBeta(0.2);
+        vb.setExpectedNumberOfTerms(2);
+        double[] first = vb.run(1000, 1e-8);
+        double[] second = vb.run(1000, 1e-8);
+        assertArrayEquals(first, second);
+        assertEquals(0.05, vb.getAlpha());
+        assertEquals(0.2, vb.getBeta());
+        assertEquals(2.0 / 40, vb.getP(), 1e-12);
+        assertTrue(first[10] > 0.9);
+    }
+}
@@ -0,0 +1,87 @@
+package org.jax.gotools.mgsa;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TermPruningTest {
+
+    /**
+     * Term t has the genes 0..t (i.e., t + 1 genes) of ten genes; genes 5 to 9 are observed.
+     */
+    private static TermGeneIndex createIndex() {
+        int[][] termLinks = new int[10][];
+        for (int t = 0; t < termLinks.length; t++) {
+            termLinks[t] = new int[t + 1];
+            for (int g = 0; g <= t; g++)
+                termLinks[t][g] = g;
+        }
+        return TermGeneIndex.fromTermLinks(termLinks, 10);
+    }
+
+    private static boolean[] createObserved() {
+        boolean[] observed = new boolean[10];
+        for (int g = 5; g < 10; g++)
+            observed[g] = true;
+        return observed;
+    }
+
+    @Test
+    void testNothingPruned() {
+        TermGeneIndex index = createIndex();
+        TermPruning pruning = TermPruning.prune(index, createObserved(), false, 1, Integer.MAX_VALUE);
+        assertSame(index, pruning.getIndex());
+        assertEquals(0, pruning.getNumPruned());
+        assertEquals(3, pruning.getKeptPosition(3));
+    }
+
+    @Test
+    void testPruneTermsWithoutStudyGenes() {
+        TermPruning pruning = TermPruning.prune(createIndex(), createObserved(), true, 1, Integer.MAX_VALUE);
+        /* terms 0..4 only contain the genes 0..4 */
+        assertEquals(5, pruning.getNumPruned());
+        assertEquals(-1, pruning.getKeptPosition(4));
+        assertEquals(0, pruning.getKeptPosition(5));
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4, 5}, pruning.getIndex().getGenesOfTerm(0));
+        assertEquals(10, pruning.getIndex().getNumGenes());
+    }
+
+    @Test
+    void testPruneBySize() {
+        TermPruning pruning = TermPruning.prune(createIndex(), createObserved(), false, 3, 7);
+        assertEquals(5, pruning.getIndex().getNumTerms());
+        assertEquals(-1, pruning.getKeptPosition(1));
+        assertEquals(0, pruning.getKeptPosition(2));
+        assertEquals(-1, pruning.getKeptPosition(7));
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4, 5, 6}, pruning.getIndex().getGenesOfTerm(4));
+
+        double[] marginals = pruning.expand(new double[]{0.1, 0.2, 0.3, 0.4, 0.5}, 0);
+        assertArrayEquals(new double[]{0, 0, 0.1, 0.2, 0.3, 0.4, 0.5, 0, 0, 0}, marginals);
+    }
+
+    @Test
+    void testMergeIdenticalTerms() {
+        /* Terms 1 and 3 as well as 0 and 4 have the same genes, in different order */
+        int[][] termLinks = {{0, 1}, {2, 3, 4}, {5}, {4, 2, 3}, {1, 0}, {6, 7}};
+        boolean[] observed = new boolean[8];
+        observed[3] = true;
+        TermGeneIndex index = TermGeneIndex.fromTermLinks(termLinks, 8);
+        assertArrayEquals(new int[]{0, 1, 2, 1, 0, 3}, index.getTermClasses());
+
+        TermPruning pruning = TermPruning.prune(index, observed, false, 1, Integer.MAX_VALUE, true);
+        assertEquals(0, pruning.getNumPruned());
+        assertEquals(2, pruning.getNumMerged());
+        assertEquals(4, pruning.getIndex().getNumTerms());
+        assertArrayEquals(new int[]{2, 2, 1, 1}, pruning.getMultiplicities());
+        assertEquals(pruning.getKeptPosition(1), pruning.getKeptPosition(3));
+        assertArrayEquals(new double[]{0.1, 0.2, 0.3, 0.2, 0.1, 0.4},
+                pruning.expand(new double[]{0.1, 0.2, 0.3, 0.4}, 0));
+
+        /* Merged terms are pruned together */
+        pruning = TermPruning.prune(index, observed, true, 1, Integer.MAX_VALUE, true);
+        assertEquals(4, pruning.getNumPruned());
+        assertEquals(1, pruning.getNumMerged());
+        assertArrayEquals(new int[]{2}, pruning.getMultiplicities());
+        assertArrayEquals(new int[]{2, 3, 4}, pruning.getIndex().getGenesOfTerm(0));
+    }
+}
@@ -0,0 +1,97 @@
+package org.jax.gotools.mgsa;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.monarchinitiative.phenol.analysis.StudySet;
+import org.monarchinitiative.phenol.base.PhenolException;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TermToItemMatrixSnapshotTest {
+
+    private Path file;
+
+    @BeforeEach
+    void createFile() throws IOException {
+        file = Files.createTempFile("mgsa", ".snapshot");
+    }
+
+    @AfterEach
+    void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static TermToItemMatrix createMatrix() throws PhenolException {
+        FakeAssociationContainer assocs = new FakeAssociationContainer();
+        assocs.annotate("NCBIGene:1", "GO:0000001", "GO:0000002");
+        assocs.annotate("NCBIGene:2", "GO:0000001");
+        assocs.annotate("NCBIGene:3", "GO:0000001", "GO:0000003");
+        assocs.annotate("NCBIGene:4", "GO:0000003");
+        return new TermToItemMatrix(assocs);
+    }
+
+    @Test
+    void testRoundTrip() throws IOException, PhenolException {
+        TermToItemMatrix matrix = createMatrix();
+        TermToItemMatrixSnapshot.write(file, matrix, 42);
+        assertEquals(42, TermToItemMatrixSnapshot.readSourceChecksum(file));
+
+        TermToItemMatrix loaded = TermToItemMatrixSnapshot.read(file);
+        assertEquals(matrix.getNumGenes(), loaded.getNumGenes());
+        assertEquals(matrix.getNumTerms(), loaded.getNumTerms());
+        for (int t = 0; t < matrix.getNumTerms(); t++) {
+            assertEquals(matrix.getGoTermAtIndex(t), loaded.getGoTermAtIndex(t));
+            assertArrayEquals(matrix.getIndex().getGenesOfTerm(t), loaded.getIndex().getGenesOfTerm(t));
+        }
+        Set<TermId> study = Set.of(TermId.of("NCBIGene:2"), TermId.of("NCBIGene:4"));
+        assertArrayEquals(matrix.getBooleanArrayobservedItems(study), loaded.getBooleanArrayobservedItems(study));
+        assertEquals(2, loaded.getAnnotatedGeneCount(TermId.of("GO:0000003")));
+    }
+
+    @Test
+    void testCalculationFromSnapshot() throws IOException, PhenolException {
+        FakeAssociationContainer assocs = MgsaCalculationTest.getFakeAssociations();
+        TermToItemMatrixSnapshot.write(file, new TermToItemMatrix(assocs), 42);
+
+        MgsaCalculation mgsa = MgsaCalculation.fromSnapshot(file, 25_000);
+        mgsa.setSeed(4);
+        assertEquals(200, mgsa.getPopulationSetCount());
+        /* The study set has no annotations, only its genes are used */
+        Set<TermId> genes = MgsaCalculationTest.getTermStudySet(assocs, 6).getGeneSet();
+        MgsaEnrichedGOTermsResult result = mgsa.calculateStudySet(new StudySet(genes, "snapshot", Collections.emptyMap()));
+        assertEquals(40, result.getGOTermProperties().size());
+        for (AbstractGOTermProperties p : result.getGOTermProperties()) {
+            MgsaGOTermProperties prop = (MgsaGOTermProperties) p;
+            assertEquals(prop.term.equals(TermId.of("GO:0000007")), prop.marg > 0.5, prop.term.getValue());
+        }
+    }
+
+    @Test
+    void testDamagedSnapshotIsRejected() throws IOException, PhenolException {
+        TermToItemMatrixSnapshot.write(file, createMatrix(), 42);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[30] ^= 1;
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> TermToItemMatrixSnapshot.read(file));
+
+        Files.write(file, new byte[]{1, 2, 3});
+        assertThrows(IOException.class, () -> TermToItemMatrixSnapshot.readSourceChecksum(file));
+    }
+
+    @Test
+    void testSourceChecksum() throws IOException {
+        Files.write(file, new byte[]{1, 2, 3});
+        long checksum = TermToItemMatrixSnapshot.checksum(file);
+        assertEquals(checksum, TermToItemMatrixSnapshot.checksum(file));
+        Files.write(file, new byte[]{1, 2, 4});
+        assertNotEquals(checksum, TermToItemMatrixSnapshot.checksum(file));
+    }
+}
@@ -0,0 +1,76 @@
+package org.jax.gotools.mgsa;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.monarchinitiative.phenol.base.PhenolException;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TermToItemMatrixTest {
+
+    private static TermToItemMatrix matrix;
+
+    @BeforeAll
+    static void init() throws PhenolException {
+        FakeAssociationContainer assocs = new FakeAssociationContainer();
+        assocs.annotate("NCBIGene:1", "GO:0000001", "GO:0000002");
+        assocs.annotate("NCBIGene:2", "GO:0000001");
+        assocs.annotate("NCBIGene:3", "GO:0000001", "GO:0000003");
+        assocs.annotate("NCBIGene:4", "GO:0000003");
+        matrix = new TermToItemMatrix(assocs);
+    }
+
+    @Test
+    void testDimensions() {
+        assertEquals(4, matrix.getNumGenes());
+        assertEquals(3, matrix.getNumTerms());
+        assertEquals(3, matrix.getIndex().getNumTerms());
+        assertEquals(6, matrix.getIndex().getNumAnnotations());
+    }
+
+    @Test
+    void testInverseIndex() {
+        TermGeneIndex index = matrix.getIndex();
+        for (int t = 0; t < index.getNumTerms(); t++) {
+            for (int g : index.getGenesOfTerm(t)) {
+                assertTrue(Arrays.binarySearch(index.getTermsOfGene(g), t) >= 0);
+            }
+        }
+        int[] geneDegrees = new int[index.getNumGenes()];
+        for (int g = 0; g < index.getNumGenes(); g++) {
+            geneDegrees[g] = index.getGeneDegree(g);
+        }
+        Arrays.sort(geneDegrees);
+        assertArrayEquals(new int[]{1, 1, 2, 2}, geneDegrees);
+    }
+
+    @Test
+    void testFromTermLinks() {
+        TermGeneIndex index = TermGeneIndex.fromTermLinks(new int[][]{{0, 2}, {}, {1, 2, 3}});
+        assertEquals(3, index.getNumTerms());
+        assertEquals(4, index.getNumGenes());
+        assertEquals(0, index.getTermDegree(1));
+        assertArrayEquals(new int[]{1, 2, 3}, index.getGenesOfTerm(2));
+        assertArrayEquals(new int[]{0, 2}, index.getTermsOfGene(2));
+    }
+
+    @Test
+    void testAnnotatedGeneCount() {
+        assertEquals(3, matrix.getAnnotatedGeneCount(TermId.of("GO:0000001")));
+        assertEquals(1, matrix.getAnnotatedGeneCount(TermId.of("GO:0000002")));
+        assertEquals(2, matrix.getAnnotatedGeneCount(TermId.of("GO:0000003")));
+    }
+
+    @Test
+    void testObservedGeneCount() {
+        boolean[] observed = matrix.getBooleanArrayobservedItems(Set.of(TermId.of("NCBIGene:1"), TermId.of("NCBIGene:4")));
+        /* each of the three terms is annotated to exactly one of the two observed genes */
+        for (int i = 0; i < matrix.getNumTerms(); i++) {
+            assertEquals(1, matrix.getObservedGeneCount(i, observed));
+        }
+    }
+}
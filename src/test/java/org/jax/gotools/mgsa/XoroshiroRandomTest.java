@@ -0,0 +1,96 @@
+package org.jax.gotools.mgsa;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class XoroshiroRandomTest {
+
+    @Test
+    void testSameSeedSameStream() {
+        XoroshiroRandom a = new XoroshiroRandom(17);
+        XoroshiroRandom b = new XoroshiroRandom(17);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(a.nextLong(), b.nextLong());
+        }
+    }
+
+    @Test
+    void testSplitIsDeterministic() {
+        XoroshiroRandom a = new XoroshiroRandom(17);
+        XoroshiroRandom b = new XoroshiroRandom(17);
+        RandomSource a1 = a.split();
+        RandomSource a2 = a.split();
+        RandomSource b1 = b.split();
+        RandomSource b2 = b.split();
+        long x1 = a1.nextLong();
+        assertEquals(x1, b1.nextLong());
+        long x2 = a2.nextLong();
+        assertEquals(x2, b2.nextLong());
+        assertNotEquals(x1, x2);
+    }
+
+    /**
+     * Splits the split sources again, like the replicas of the study sets of a batch, and checks
+     * that none of the resulting streams reaches the start of another one.
+     */
+    @Test
+    void testNestedSplitsDoNotOverlap() {
+        XoroshiroRandom master = new XoroshiroRandom(17);
+        List<RandomSource> sources = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            RandomSource studyRnd = master.split();
+            for (int j = 0; j < 4; j++) {
+                RandomSource chainRnd = studyRnd.split();
+                sources.add(chainRnd.split());
+                sources.add(chainRnd.split());
+                sources.add(chainRnd);
+            }
+            sources.add(studyRnd);
+        }
+        sources.add(master);
+        Set<Long> firstDraws = new HashSet<>();
+        List<long[]> streams = new ArrayList<>();
+        for (RandomSource rnd : sources) {
+            long[] stream = new long[1_000];
+            for (int i = 0; i < stream.length; i++) {
+                stream[i] = rnd.nextLong();
+            }
+            assertTrue(firstDraws.add(stream[0]));
+            streams.add(stream);
+        }
+        for (long[] stream : streams) {
+            for (int i = 1; i < stream.length; i++) {
+                assertFalse(firstDraws.contains(stream[i]));
+            }
+        }
+    }
+
+    @Test
+    void testRanges() {
+        XoroshiroRandom rnd = new XoroshiroRandom(3);
+        int[] counts = new int[7];
+        for (int i = 0; i < 70_000; i++) {
+            double d = rnd.nextDouble();
+            assertTrue(d >= 0.0 && d < 1.0);
+            counts[rnd.nextInt(7)]++;
+        }
+        for (int c : counts) {
+            assertTrue(c > 9_000 && c < 11_000);
+        }
+    }
+
+    @Test
+    void testStateRoundTrip() {
+        XoroshiroRandom a = new XoroshiroRandom(99);
+        a.nextLong();
+        long[] state = a.getState();
+        XoroshiroRandom b = new XoroshiroRandom(state[0], state[1]);
+        assertEquals(a.nextLong(), b.nextLong());
+    }
+}